@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+import com.intel.webrtc.p2p.SignalingChannelInterface;
+import com.intel.webrtc.sample.peerserver.PeerServer;
+import com.intel.webrtc.sample.peerserver.TokenAuthenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from SignalingChannelInterface.connect() to server-authenticated, per transport,
+ * against a local {@link PeerServer}. Each operation is one login, like the one the sample
+ * does on start and on every reconnect; the channel is disconnected between operations.
+ *
+ * Lives in the sample's package because the channels' constructors are package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConnectLatencyBenchmark {
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+    // Lets the previous login's connections close before the next one starts; otherwise
+    // Engine.IO may poll over a pooled HTTP connection the server has already closed.
+    private static final long SETTLE_MS = 50;
+
+    @Param({"SOCKET_IO", "WEBSOCKET"})
+    public SignalingTransport transport;
+
+    private PeerServer server;
+    private SignalingChannelInterface channel;
+    private String host;
+    private int login = 0;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        server = new PeerServer("127.0.0.1", freePort(), freePort(), TokenAuthenticator.ANY_TOKEN);
+        server.start();
+        host = transport == SignalingTransport.WEBSOCKET ? server.getWebSocketUrl()
+                : server.getSocketIoUrl();
+        channel = transport.createChannel();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        channel.disconnect();
+        server.stop();
+    }
+
+    @TearDown(Level.Invocation)
+    public void disconnect() throws InterruptedException {
+        channel.disconnect();
+        Thread.sleep(SETTLE_MS);
+    }
+
+    @Benchmark
+    public String connect() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] result = new String[1];
+        final IcsError[] error = new IcsError[1];
+        // A fresh peer id per login, so the server never kicks a session still closing.
+        String userInfo = "{\"host\":\"" + host + "\",\"token\":\"bench-" + login++
+                + "\"}";
+        channel.connect(userInfo, new ActionCallback<String>() {
+            @Override
+            public void onSuccess(String uid) {
+                result[0] = uid;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(IcsError e) {
+                error[0] = e;
+                done.countDown();
+            }
+        });
+        if (!done.await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS) || error[0] != null) {
+            throw new IllegalStateException("Connect failed: "
+                    + (error[0] == null ? "timeout" : error[0].errorMessage));
+        }
+        return result[0];
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+import com.intel.webrtc.p2p.SignalingChannelInterface.SignalingChannelObserver;
+import com.intel.webrtc.p2p.sample.signaling_utils.LatencyHistogram;
+import com.intel.webrtc.p2p.sample.signaling_utils.PeerTrafficStats;
+import com.intel.webrtc.sample.peerserver.PeerServer;
+import com.intel.webrtc.sample.peerserver.TokenAuthenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 50 peers talking to one hub over the hub's single Socket.IO connection, with the hub's
+ * observer taking {@link #HANDLING_US} per message like P2PClient does for SDP. Each operation
+ * one peer floods the hub with {@link #FLOOD} messages, then the 49 others send one each; it
+ * ends when the hub has handled all 49. With per-peer dispatch the quiet peers are served
+ * between the flood's messages instead of after all of them. At the end of a trial the
+ * hub's per-peer dispatch delay is printed for the flooding and the quiet peers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MultiPeerBenchmark {
+    private static final int PEERS = 50;
+    private static final int FLOOD = 200;
+    private static final long HANDLING_US = 200;
+    private static final long TIMEOUT_SECONDS = 30;
+    private static final String HUB = "hub";
+    private static final String FLOODER = "peer-0";
+
+    @Param({"true", "false"})
+    public boolean perPeerDispatch;
+
+    private PeerServer server;
+    private ExecutorService dispatchExecutor;
+    private SocketSignalingChannel hub;
+    private final SocketSignalingChannel[] peers = new SocketSignalingChannel[PEERS];
+    private volatile CountDownLatch quietHandled;
+    private volatile CountDownLatch floodHandled;
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException, InterruptedException {
+        server = new PeerServer(freePort());
+        server.start();
+        dispatchExecutor = Executors.newSingleThreadExecutor();
+        hub = new SocketSignalingChannel();
+        hub.setDispatchExecutor(dispatchExecutor);
+        hub.setPerPeerDispatch(perPeerDispatch);
+        hub.addObserver(new SignalingChannelObserver() {
+            @Override
+            public void onMessage(String peerId, String message) {
+                long until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(HANDLING_US);
+                while (System.nanoTime() < until) {
+                    // Busy, like parsing and applying a remote description.
+                }
+                if (FLOODER.equals(peerId)) {
+                    floodHandled.countDown();
+                } else {
+                    quietHandled.countDown();
+                }
+            }
+
+            @Override
+            public void onServerDisconnected() {
+            }
+        });
+        login(hub, HUB);
+        for (int i = 0; i < PEERS; i++) {
+            peers[i] = new SocketSignalingChannel();
+            login(peers[i], "peer-" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() {
+        printDispatchDelays();
+        for (SocketSignalingChannel peer : peers) {
+            peer.disconnect();
+        }
+        hub.disconnect();
+        dispatchExecutor.shutdown();
+        server.stop();
+    }
+
+    /**
+     * Let the rest of the flood drain, so operations do not overlap.
+     */
+    @TearDown(Level.Invocation)
+    public void drain() throws InterruptedException {
+        floodHandled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void quietPeersDuringFlood() throws InterruptedException {
+        floodHandled = new CountDownLatch(FLOOD);
+        quietHandled = new CountDownLatch(PEERS - 1);
+        for (int i = 0; i < FLOOD; i++) {
+            peers[0].sendMessage(HUB, "flood " + i, null);
+        }
+        for (int i = 1; i < PEERS; i++) {
+            peers[i].sendMessage(HUB, "hello", null);
+        }
+        if (!quietHandled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Quiet peers' messages were not handled");
+        }
+    }
+
+    private void printDispatchDelays() {
+        LatencyHistogram flooder = null;
+        long quietP50Sum = 0;
+        long quietWorstP99 = 0;
+        int quietPeers = 0;
+        for (Map.Entry<String, PeerTrafficStats> peer : hub.getPeerStats().entrySet()) {
+            LatencyHistogram delays = peer.getValue().getDispatchDelay();
+            if (FLOODER.equals(peer.getKey())) {
+                flooder = delays;
+            } else {
+                quietP50Sum += delays.getValueAtPercentile(50);
+                quietWorstP99 = Math.max(quietWorstP99, delays.getValueAtPercentile(99));
+                quietPeers++;
+            }
+        }
+        if (flooder == null || quietPeers == 0) {
+            return;
+        }
+        System.out.println();
+        System.out.println("Hub dispatch delay with perPeerDispatch=" + perPeerDispatch
+                + ": flooding peer p50 " + flooder.getValueAtPercentile(50) + " us, p99 "
+                + flooder.getValueAtPercentile(99) + " us; quiet peers mean p50 "
+                + quietP50Sum / quietPeers + " us, worst p99 " + quietWorstP99 + " us");
+    }
+
+    private void login(SocketSignalingChannel channel, String peerId)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final IcsError[] error = new IcsError[1];
+        channel.connect("{\"host\":\"" + server.getSocketIoUrl() + "\",\"token\":\""
+                + peerId + "\"}", new ActionCallback<String>() {
+            @Override
+            public void onSuccess(String uid) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(IcsError e) {
+                error[0] = e;
+                done.countDown();
+            }
+        });
+        if (!done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS) || error[0] != null) {
+            throw new IllegalStateException("Login of " + peerId + " failed");
+        }
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.sample.benchmark;
+
+import com.intel.webrtc.p2p.sample.signaling_utils.PayloadCompressor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Per-message cost of {@link PayloadCompressor}. {@link #main} prints the matching bytes on
+ * the wire, plain versus compressed, run it with: ./gradlew :src:sample:benchmark:wireSize
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+    @Param({"candidate", "offer", "answer"})
+    public String payload;
+
+    private final PayloadCompressor compressor = new PayloadCompressor(null);
+    private String message;
+    private String compressed;
+
+    @Setup
+    public void setUp() {
+        message = fixture(payload);
+        compressed = compressor.compress(message);
+    }
+
+    @Benchmark
+    public String compress() {
+        return compressor.compress(message);
+    }
+
+    @Benchmark
+    public String decompress() {
+        return compressor.decompress(compressed);
+    }
+
+    private static String fixture(String name) {
+        switch (name) {
+            case "offer":
+                return SignalingFixtures.offerMessage();
+            case "answer":
+                return SignalingFixtures.answerMessage();
+            default:
+                return SignalingFixtures.candidateMessage();
+        }
+    }
+
+    public static void main(String[] args) {
+        PayloadCompressor compressor = new PayloadCompressor(null);
+        System.out.println(String.format("%-10s %8s %14s %12s", "message", "plain",
+                "no dictionary", "dictionary"));
+        for (String name : new String[]{"candidate", "offer", "answer"}) {
+            String message = fixture(name);
+            System.out.println(String.format("%-10s %8d %14d %12d", name, message.length(),
+                    deflatedWithoutDictionary(message), compressor.compress(message).length()));
+        }
+    }
+
+    // Same envelope and base64 overhead as PayloadCompressor, without the preset dictionary.
+    private static int deflatedWithoutDictionary(String message) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(message.getBytes(Charset.forName("UTF-8")));
+        deflater.finish();
+        byte[] chunk = new byte[16384];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(chunk);
+        }
+        deflater.end();
+        int envelope = "{\"type\":\"ics-deflate\",\"data\":\"\"}".length();
+        return envelope + (length + 2) / 3 * 4;
+    }
+}
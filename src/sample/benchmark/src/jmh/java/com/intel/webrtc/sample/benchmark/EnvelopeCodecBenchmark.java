@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.sample.benchmark;
+
+import com.intel.webrtc.p2p.sample.signaling_utils.SignalingEnvelopeCodec;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding a signaling frame with {@link SignalingEnvelopeCodec} versus the
+ * org.json path the channels used before. Read throughput next to the gc profiler's
+ * gc.alloc.rate.norm (bytes allocated per operation).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EnvelopeCodecBenchmark {
+    @Param({"candidate", "offer"})
+    public String payload;
+
+    private final SignalingEnvelopeCodec codec = new SignalingEnvelopeCodec();
+    private final SignalingEnvelopeCodec.Envelope envelope = new SignalingEnvelopeCodec.Envelope();
+    private String message;
+    private String inboundFrame;
+
+    @Setup
+    public void setUp() {
+        message = payload.equals("offer") ? SignalingFixtures.offerMessage()
+                : SignalingFixtures.candidateMessage();
+        inboundFrame = new SignalingEnvelopeCodec().encodeDelivery(
+                SignalingFixtures.PEER_ID, message);
+    }
+
+    @Benchmark
+    public String encodeOrgJson() throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("to", SignalingFixtures.PEER_ID);
+        jsonObject.put("data", message);
+        JSONObject frame = new JSONObject();
+        frame.put("type", SignalingEnvelopeCodec.CHAT_TYPE);
+        frame.put("data", jsonObject);
+        frame.put("ack", 1);
+        return frame.toString();
+    }
+
+    @Benchmark
+    public String encodeCodec() {
+        return codec.encodeMessage(SignalingFixtures.PEER_ID, message, 1);
+    }
+
+    @Benchmark
+    public void decodeOrgJson(Blackhole blackhole) throws JSONException {
+        JSONObject frame = new JSONObject(inboundFrame);
+        blackhole.consume(frame.getString("type"));
+        JSONObject data = frame.getJSONObject("data");
+        blackhole.consume(data.getString("from"));
+        blackhole.consume(data.getString("data"));
+    }
+
+    @Benchmark
+    public void decodeCodec(Blackhole blackhole) {
+        codec.decode(inboundFrame, envelope);
+        blackhole.consume(envelope.type);
+        blackhole.consume(envelope.from);
+        blackhole.consume(envelope.data);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.sample.benchmark;
+
+import com.intel.webrtc.sample.utils.RtcStatsParser;
+import com.intel.webrtc.sample.utils.RtcStatsSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one RTCStatsReport into bitrate, resolution and codec: {@link RtcStatsParser}
+ * versus the map walk the conference sample's VideoFragment did before. The reports are built
+ * up front with the member types WebRTC uses (BigInteger byte counters, Long packet counters)
+ * and advancing counters, and replayed in turn. The parser reads every RTP stream in both
+ * directions, the old walk only outbound video; read the average time next to the gc
+ * profiler's gc.alloc.rate.norm (bytes allocated per parse).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StatsParserBenchmark {
+    private static final int REPORTS = 16;
+
+    // Audio and video pairs sent and received per report: 1 for a P2P call, more for a
+    // conference client subscribed to several streams.
+    @Param({"1", "4"})
+    public int streams;
+
+    private RTCStatsReport[] reports;
+    private int next;
+    private final RtcStatsParser parser = new RtcStatsParser();
+    private BigInteger lastBytesSent = BigInteger.valueOf(0);
+
+    @Setup
+    public void setUp() {
+        reports = new RTCStatsReport[REPORTS];
+        for (int i = 0; i < REPORTS; i++) {
+            reports[i] = buildReport(i, streams);
+        }
+    }
+
+    @Benchmark
+    public double parse() {
+        RtcStatsSnapshot snapshot = parser.parse(nextReport());
+        return snapshot.first(RtcStatsSnapshot.Kind.VIDEO, true).bitrateKbps;
+    }
+
+    @Benchmark
+    public String mapWalk() {
+        RTCStatsReport report = nextReport();
+        String codecId = null;
+        String codec = "";
+        long bytesSR = 0;
+        long width = 0, height = 0;
+        long packetsSR = 0;
+        for (RTCStats stats : report.getStatsMap().values()) {
+            if (stats.getType().equals("outbound-rtp")) {
+                Map<String, Object> members = stats.getMembers();
+                if (members.get("mediaType").equals("video")) {
+                    codecId = (String) members.get("codecId");
+                    BigInteger bytes = (BigInteger) members.get("bytesSent");
+                    bytesSR = bytes.longValue() - lastBytesSent.longValue();
+                    lastBytesSent = bytes;
+                    packetsSR = (long) members.get("packetsSent");
+                }
+            }
+            if (stats.getType().equals("track")) {
+                Map<String, Object> members = stats.getMembers();
+                if (members.get("kind").equals("video")) {
+                    width = (long) members.get("frameWidth");
+                    height = (long) members.get("frameHeight");
+                }
+            }
+        }
+        if (codecId != null) {
+            codec = (String) report.getStatsMap().get(codecId).getMembers().get("mimeType");
+        }
+        return "\nCodec: " + codec
+                + "\nResolution: " + width + "x" + height
+                + "\nBitrate: " + bytesSR * 8 / 5000 + "kbps"
+                + "\nPackets: " + packetsSR;
+    }
+
+    private RTCStatsReport nextReport() {
+        RTCStatsReport report = reports[next];
+        next = (next + 1) % REPORTS;
+        return report;
+    }
+
+    // Report |index| of a call sending and receiving |streams| audio and video pairs, one
+    // second after report |index| - 1.
+    private static RTCStatsReport buildReport(int index, int streams) {
+        long timestampUs = 1000000L * (index + 1);
+        Map<String, RTCStats> statsMap = new HashMap<>();
+        for (int i = 0; i < streams; i++) {
+            for (boolean outbound : new boolean[]{true, false}) {
+                addStream(statsMap, timestampUs, index, 1000 + 10 * i, outbound, false);
+                addStream(statsMap, timestampUs, index, 2000 + 10 * i, outbound, true);
+            }
+        }
+        add(statsMap, new RTCStats(timestampUs, "codec", "RTCCodec_audio_111",
+                members("payloadType", 111L, "mimeType", "audio/opus", "clockRate", 48000L,
+                        "channels", 2L)));
+        add(statsMap, new RTCStats(timestampUs, "codec", "RTCCodec_video_100",
+                members("payloadType", 100L, "mimeType", "video/VP8", "clockRate", 90000L)));
+        add(statsMap, new RTCStats(timestampUs, "transport", "RTCTransport_audio_1",
+                members("bytesSent", BigInteger.valueOf(index * 400000L),
+                        "bytesReceived", BigInteger.valueOf(index * 390000L),
+                        "selectedCandidatePairId", "RTCIceCandidatePair_a_b",
+                        "dtlsState", "connected")));
+        add(statsMap, new RTCStats(timestampUs, "candidate-pair", "RTCIceCandidatePair_a_b",
+                members("localCandidateId", "RTCIceCandidate_a",
+                        "remoteCandidateId", "RTCIceCandidate_b", "state", "succeeded",
+                        "nominated", true, "currentRoundTripTime", 0.042,
+                        "availableOutgoingBitrate", 1500000.0)));
+        add(statsMap, new RTCStats(timestampUs, "local-candidate", "RTCIceCandidate_a",
+                members("ip", "192.168.1.10", "port", 50000L, "protocol", "udp",
+                        "candidateType", "host")));
+        add(statsMap, new RTCStats(timestampUs, "remote-candidate", "RTCIceCandidate_b",
+                members("ip", "192.168.1.20", "port", 50002L, "protocol", "udp",
+                        "candidateType", "host")));
+        add(statsMap, new RTCStats(timestampUs, "peer-connection", "RTCPeerConnection",
+                members("dataChannelsOpened", 0L, "dataChannelsClosed", 0L)));
+        return new RTCStatsReport(timestampUs, statsMap);
+    }
+
+    private static void addStream(Map<String, RTCStats> statsMap, long timestampUs, int index,
+                                  long ssrc, boolean outbound, boolean video) {
+        String kind = video ? "video" : "audio";
+        String trackId = "RTCMediaStreamTrack_" + (outbound ? "sender_" : "receiver_") + ssrc;
+        long packets = index * (video ? 150L : 50L);
+        BigInteger bytes = BigInteger.valueOf(index * (video ? 150000L : 4000L));
+        Map<String, Object> rtp = members("ssrc", ssrc, "isRemote", false, "mediaType", kind,
+                "trackId", trackId, "transportId", "RTCTransport_audio_1",
+                "codecId", video ? "RTCCodec_video_100" : "RTCCodec_audio_111",
+                "nackCount", 0L, "pliCount", 0L, "firCount", 0L);
+        if (outbound) {
+            rtp.put("packetsSent", packets);
+            rtp.put("bytesSent", bytes);
+            if (video) {
+                rtp.put("framesEncoded", index * 30L);
+            }
+        } else {
+            rtp.put("packetsReceived", packets);
+            rtp.put("bytesReceived", bytes);
+            rtp.put("packetsLost", index);
+            rtp.put("jitter", 0.004);
+            if (video) {
+                rtp.put("framesDecoded", index * 30L);
+            }
+        }
+        add(statsMap, new RTCStats(timestampUs, outbound ? "outbound-rtp" : "inbound-rtp",
+                "RTC" + (outbound ? "Outbound" : "Inbound") + "RTP" + kind + "Stream_" + ssrc,
+                rtp));
+        Map<String, Object> track = members("trackIdentifier", trackId, "kind", kind,
+                "remoteSource", !outbound, "ended", false);
+        if (video) {
+            track.put("frameWidth", 640L);
+            track.put("frameHeight", 480L);
+        } else {
+            track.put("audioLevel", 0.25);
+        }
+        add(statsMap, new RTCStats(timestampUs, "track", trackId, track));
+    }
+
+    private static void add(Map<String, RTCStats> statsMap, RTCStats stats) {
+        statsMap.put(stats.getId(), stats);
+    }
+
+    private static Map<String, Object> members(Object... keysAndValues) {
+        Map<String, Object> members = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            members.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return members;
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+import com.intel.webrtc.p2p.SignalingChannelInterface;
+import com.intel.webrtc.p2p.sample.signaling_utils.LatencyHistogram;
+import com.intel.webrtc.sample.benchmark.SignalingFixtures;
+import com.intel.webrtc.sample.peerserver.PeerServer;
+import com.intel.webrtc.sample.peerserver.TokenAuthenticator;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless signaling load generator: connects N simulated peers through the sample's own
+ * signaling channels, pairs them, and has the pairs exchange a mix of offer, answer and
+ * candidate messages at a fixed total rate. Every 5 seconds, and at the end, it reports
+ * send / ack / delivery throughput and ack latency percentiles.
+ *
+ * Without --server it starts a local {@link PeerServer}, so it runs in CI with no network;
+ * point --server at a real peer server for capacity planning.
+ *
+ * Usage: loadgen [--server=URL] [--transport=SOCKET_IO|WEBSOCKET] [--peers=N]
+ *                [--rate=MESSAGES_PER_SECOND] [--duration=SECONDS]
+ *                [--mix=OFFERS:ANSWERS:CANDIDATES] [--max-in-flight=N]
+ */
+public final class LoadGenerator {
+    private static final long TICK_MS = 10;
+    private static final long REPORT_INTERVAL_MS = 5000;
+    private static final long CONNECT_TIMEOUT_SECONDS = 60;
+    private static final int MAX_CONCURRENT_CONNECTS = 100;
+
+    private final String server;
+    private final SignalingTransport transport;
+    private final int peers;
+    private final double rate;
+    private final int durationSeconds;
+    private final int[] mix;
+    private final int maxInFlight;
+
+    private final String[] messages = new String[3];
+    private final List<SignalingChannelInterface> channels = new ArrayList<>();
+    private final String[] peerIds;
+    private final Random random = new Random();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LatencyHistogram ackLatencyUs = new LatencyHistogram();
+    private final LatencyHistogram intervalAckLatencyUs = new LatencyHistogram();
+    private final LatencyHistogram connectLatencyMs = new LatencyHistogram();
+    private double credits = 0;
+    private long lastReportNanos;
+    private long lastSent;
+    private long lastAcked;
+    private long lastDelivered;
+
+    private LoadGenerator(String server, SignalingTransport transport, int peers, double rate,
+                          int durationSeconds, int[] mix, int maxInFlight) {
+        this.server = server;
+        this.transport = transport;
+        this.peers = peers;
+        this.rate = rate;
+        this.durationSeconds = durationSeconds;
+        this.mix = mix;
+        this.maxInFlight = maxInFlight;
+        this.peerIds = new String[peers];
+        messages[0] = SignalingFixtures.offerMessage();
+        messages[1] = SignalingFixtures.answerMessage();
+        messages[2] = SignalingFixtures.candidateMessage();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String server = null;
+        SignalingTransport transport = SignalingTransport.SOCKET_IO;
+        int peers = 100;
+        double rate = 1000;
+        int duration = 30;
+        int[] mix = {1, 1, 10};
+        int maxInFlight = 10000;
+        try {
+            for (String arg : args) {
+                int split = arg.indexOf('=');
+                if (!arg.startsWith("--") || split < 0) {
+                    throw new IllegalArgumentException(arg);
+                }
+                String key = arg.substring(2, split);
+                String value = arg.substring(split + 1);
+                switch (key) {
+                    case "server":
+                        server = value;
+                        break;
+                    case "transport":
+                        transport = SignalingTransport.valueOf(value);
+                        break;
+                    case "peers":
+                        peers = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "duration":
+                        duration = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        String[] weights = value.split(":");
+                        for (int i = 0; i < mix.length; i++) {
+                            mix[i] = Integer.parseInt(weights[i]);
+                        }
+                        break;
+                    case "max-in-flight":
+                        maxInFlight = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(arg);
+                }
+            }
+            if (peers < 2 || peers % 2 != 0 || rate <= 0 || duration <= 0
+                    || mix[0] + mix[1] + mix[2] <= 0) {
+                throw new IllegalArgumentException("peers must be even and >= 2, rate, "
+                        + "duration and mix positive");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Bad argument: " + e.getMessage());
+            System.err.println("Usage: loadgen [--server=URL] [--transport=SOCKET_IO|WEBSOCKET]"
+                    + " [--peers=N] [--rate=MESSAGES_PER_SECOND] [--duration=SECONDS]"
+                    + " [--mix=OFFERS:ANSWERS:CANDIDATES] [--max-in-flight=N]");
+            System.exit(2);
+        }
+        int status = new LoadGenerator(server, transport, peers, rate, duration, mix,
+                maxInFlight).run();
+        System.exit(status);
+    }
+
+    private int run() throws Exception {
+        PeerServer localServer = null;
+        String host = server;
+        if (host == null) {
+            localServer = new PeerServer("127.0.0.1", freePort(), freePort(),
+                    TokenAuthenticator.ANY_TOKEN);
+            localServer.start();
+            host = transport == SignalingTransport.WEBSOCKET ? localServer.getWebSocketUrl()
+                    : localServer.getSocketIoUrl();
+        }
+        System.out.println("Connecting " + peers + " peers over " + transport + " to " + host);
+        try {
+            if (!connectAll(host)) {
+                return 1;
+            }
+            System.out.println(String.format("Connected, connect ms p50 %d p95 %d p99 %d max %d",
+                    connectLatencyMs.getValueAtPercentile(50),
+                    connectLatencyMs.getValueAtPercentile(95),
+                    connectLatencyMs.getValueAtPercentile(99), connectLatencyMs.getMax()));
+            long startNanos = System.nanoTime();
+            lastReportNanos = startNanos;
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    tick();
+                }
+            }, 0, TICK_MS, TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    report();
+                }
+            }, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            scheduler.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            summarize(System.nanoTime() - startNanos);
+            return failed.get() == 0 ? 0 : 1;
+        } finally {
+            for (SignalingChannelInterface channel : channels) {
+                channel.disconnect();
+            }
+            if (localServer != null) {
+                localServer.stop();
+            }
+        }
+    }
+
+    private boolean connectAll(String host) throws InterruptedException {
+        String tokenPrefix = "loadgen-" + Integer.toHexString(random.nextInt(0x10000)) + "-";
+        final Semaphore connecting = new Semaphore(MAX_CONCURRENT_CONNECTS);
+        final CountDownLatch done = new CountDownLatch(peers);
+        final AtomicInteger connectFailures = new AtomicInteger();
+        for (int i = 0; i < peers; i++) {
+            final SignalingChannelInterface channel = transport.createChannel();
+            channel.addObserver(new SignalingChannelInterface.SignalingChannelObserver() {
+                @Override
+                public void onMessage(String from, String message) {
+                    delivered.incrementAndGet();
+                }
+
+                @Override
+                public void onServerDisconnected() {
+                    disconnects.incrementAndGet();
+                }
+            });
+            channels.add(channel);
+            peerIds[i] = tokenPrefix + i;
+            final long connectStartNanos = System.nanoTime();
+            connecting.acquire();
+            channel.connect("{\"host\":\"" + host + "\",\"token\":\"" + peerIds[i] + "\"}",
+                    new ActionCallback<String>() {
+                        @Override
+                        public void onSuccess(String result) {
+                            connectLatencyMs.record(TimeUnit.NANOSECONDS.toMillis(
+                                    System.nanoTime() - connectStartNanos));
+                            connecting.release();
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onFailure(IcsError error) {
+                            // The channel keeps retrying; only its first attempt counts here.
+                            connectFailures.incrementAndGet();
+                            connecting.release();
+                            done.countDown();
+                        }
+                    });
+        }
+        if (!done.await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.err.println((done.getCount()) + " peers did not connect in time");
+            return false;
+        }
+        if (connectFailures.get() > 0) {
+            System.err.println(connectFailures.get() + " peers failed to connect");
+            return false;
+        }
+        return true;
+    }
+
+    private void tick() {
+        credits += rate * TICK_MS / 1000.0;
+        while (credits >= 1) {
+            credits -= 1;
+            if (inFlight.get() >= maxInFlight) {
+                throttled.incrementAndGet();
+                continue;
+            }
+            int from = random.nextInt(peers);
+            // Peers 2k and 2k + 1 form a pair.
+            int to = from ^ 1;
+            sendOne(channels.get(from), peerIds[to], messages[pickType()]);
+        }
+    }
+
+    private int pickType() {
+        int roll = random.nextInt(mix[0] + mix[1] + mix[2]);
+        if (roll < mix[0]) {
+            return 0;
+        }
+        return roll < mix[0] + mix[1] ? 1 : 2;
+    }
+
+    private void sendOne(SignalingChannelInterface channel, String to, String message) {
+        final long sentAtNanos = System.nanoTime();
+        inFlight.incrementAndGet();
+        sent.incrementAndGet();
+        channel.sendMessage(to, message, new ActionCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                long latencyUs = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAtNanos);
+                ackLatencyUs.record(latencyUs);
+                intervalAckLatencyUs.record(latencyUs);
+                acked.incrementAndGet();
+                inFlight.decrementAndGet();
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                failed.incrementAndGet();
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    private void report() {
+        long now = System.nanoTime();
+        double seconds = (now - lastReportNanos) / 1e9;
+        long sentNow = sent.get();
+        long ackedNow = acked.get();
+        long deliveredNow = delivered.get();
+        System.out.println(String.format("sent %.0f/s acked %.0f/s delivered %.0f/s failed %d "
+                        + "throttled %d in-flight %d | ack ms %s",
+                (sentNow - lastSent) / seconds, (ackedNow - lastAcked) / seconds,
+                (deliveredNow - lastDelivered) / seconds, failed.get(), throttled.get(),
+                inFlight.get(), percentiles(intervalAckLatencyUs)));
+        intervalAckLatencyUs.reset();
+        lastReportNanos = now;
+        lastSent = sentNow;
+        lastAcked = ackedNow;
+        lastDelivered = deliveredNow;
+    }
+
+    private void summarize(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format("Total over %.1f s with %d peers: sent %d (%.0f/s), "
+                        + "acked %d (%.0f/s), delivered %d, failed %d, throttled %d, "
+                        + "server disconnects %d",
+                seconds, peers, sent.get(), sent.get() / seconds, acked.get(),
+                acked.get() / seconds, delivered.get(), failed.get(), throttled.get(),
+                disconnects.get()));
+        System.out.println("Ack ms " + percentiles(ackLatencyUs));
+    }
+
+    private static String percentiles(LatencyHistogram histogramUs) {
+        return String.format("p50 %.1f p95 %.1f p99 %.1f max %.1f",
+                histogramUs.getValueAtPercentile(50) / 1000.0,
+                histogramUs.getValueAtPercentile(95) / 1000.0,
+                histogramUs.getValueAtPercentile(99) / 1000.0,
+                histogramUs.getMax() / 1000.0);
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
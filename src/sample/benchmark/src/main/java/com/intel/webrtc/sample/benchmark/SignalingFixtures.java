@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.sample.benchmark;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * P2PClient-shaped signaling messages of realistic size, built with org.json so escaping
+ * matches what the SDK puts on the wire.
+ */
+public final class SignalingFixtures {
+    public static final String PEER_ID = "peer-3f2a9c";
+
+    private static final String[] AUDIO_CODECS = {
+            "111 opus/48000/2", "103 ISAC/16000", "104 ISAC/32000", "9 G722/8000",
+            "0 PCMU/8000", "8 PCMA/8000", "106 CN/32000", "105 CN/16000", "13 CN/8000",
+            "110 telephone-event/48000", "112 telephone-event/32000",
+            "113 telephone-event/16000", "126 telephone-event/8000"};
+    private static final String[] H264_PROFILES = {
+            "42001f", "42e01f", "4d0032", "640032"};
+
+    private SignalingFixtures() {
+    }
+
+    /**
+     * A Chrome-style audio + video offer, about 5 KB of SDP.
+     */
+    public static String offerMessage() {
+        return signal(new JSONObject(), "offer", "sdp", sdp());
+    }
+
+    /**
+     * The answer to {@link #offerMessage}, with its own ICE credentials and SSRCs.
+     */
+    public static String answerMessage() {
+        String sdp = sdp().replace("a=setup:actpass", "a=setup:active")
+                .replace("sX4f", "Lw9q").replace("Qm6C7x0z7Vb1lUa3YtLJzPqD", "b2RkZWQ4NzY1NDMyMTBh")
+                .replace("1834912053", "3571196530").replace("2231627014", "1098731234")
+                .replace("632943048", "4012993377");
+        return signal(new JSONObject(), "answer", "sdp", sdp);
+    }
+
+    private static String sdp() {
+        StringBuilder sdp = new StringBuilder();
+        sdp.append("v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n")
+           .append("a=group:BUNDLE audio video\r\na=msid-semantic: WMS stream\r\n");
+        sdp.append("m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n");
+        appendTransport(sdp, "audio");
+        sdp.append("a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n");
+        for (String codec : AUDIO_CODECS) {
+            sdp.append("a=rtpmap:").append(codec).append("\r\n");
+        }
+        sdp.append("a=rtcp-fb:111 transport-cc\r\na=fmtp:111 minptime=10;useinbandfec=1\r\n");
+        appendSsrc(sdp, 1834912053L, "audio-track");
+        sdp.append("m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102 122 127 121 125 107 "
+                + "108 109 124 120 123 119 114 115 116\r\n");
+        appendTransport(sdp, "video");
+        sdp.append("a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n")
+           .append("a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n")
+           .append("a=extmap:4 urn:3gpp:video-orientation\r\n");
+        int payload = 96;
+        for (String codec : new String[]{"VP8", "VP9"}) {
+            appendVideoCodec(sdp, payload++, codec, null);
+            appendRtx(sdp, payload++, payload - 2);
+        }
+        for (String profile : H264_PROFILES) {
+            appendVideoCodec(sdp, payload, "H264", "level-asymmetry-allowed=1;"
+                    + "packetization-mode=1;profile-level-id=" + profile);
+            appendRtx(sdp, payload + 1, payload);
+            payload += 2;
+        }
+        sdp.append("a=rtpmap:114 red/90000\r\na=rtpmap:115 rtx/90000\r\na=fmtp:115 apt=114\r\n")
+           .append("a=rtpmap:116 ulpfec/90000\r\n");
+        sdp.append("a=ssrc-group:FID 2231627014 632943048\r\n");
+        appendSsrc(sdp, 2231627014L, "video-track");
+        appendSsrc(sdp, 632943048L, "video-track");
+        return sdp.toString();
+    }
+
+    /**
+     * A single host ICE candidate, about 200 bytes.
+     */
+    public static String candidateMessage() {
+        JSONObject data = new JSONObject();
+        try {
+            data.put("type", "candidates");
+            data.put("sdpMLineIndex", 0);
+            data.put("sdpMid", "audio");
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return signal(data, null, "candidate", "candidate:842163049 1 udp 1677729535 "
+                + "192.168.1.23 54321 typ srflx raddr 10.0.2.15 rport 54321 generation 0 "
+                + "ufrag sX4f network-cost 50");
+    }
+
+    private static String signal(JSONObject data, String type, String key, String value) {
+        try {
+            if (type != null) {
+                data.put("type", type);
+            }
+            data.put(key, value);
+            return new JSONObject().put("type", "chat-signal").put("data", data).toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void appendTransport(StringBuilder sdp, String mid) {
+        sdp.append("c=IN IP4 0.0.0.0\r\na=rtcp:9 IN IP4 0.0.0.0\r\n")
+           .append("a=ice-ufrag:sX4f\r\na=ice-pwd:Qm6C7x0z7Vb1lUa3YtLJzPqD\r\n")
+           .append("a=ice-options:trickle\r\na=fingerprint:sha-256 ")
+           .append("7B:8B:F0:65:5F:78:E2:51:3B:AC:6F:F3:3F:46:1B:35:DC:B8:5F:64:1A:24:C2:43:")
+           .append("F0:A1:58:D0:A1:2C:19:08\r\n")
+           .append("a=setup:actpass\r\na=mid:").append(mid).append("\r\n")
+           .append("a=sendrecv\r\na=rtcp-mux\r\n");
+    }
+
+    private static void appendVideoCodec(StringBuilder sdp, int payload, String codec,
+                                         String fmtp) {
+        sdp.append("a=rtpmap:").append(payload).append(' ').append(codec).append("/90000\r\n");
+        for (String feedback : new String[]{"goog-remb", "transport-cc", "ccm fir", "nack",
+                "nack pli"}) {
+            sdp.append("a=rtcp-fb:").append(payload).append(' ').append(feedback).append("\r\n");
+        }
+        if (fmtp != null) {
+            sdp.append("a=fmtp:").append(payload).append(' ').append(fmtp).append("\r\n");
+        }
+    }
+
+    private static void appendRtx(StringBuilder sdp, int payload, int apt) {
+        sdp.append("a=rtpmap:").append(payload).append(" rtx/90000\r\n")
+           .append("a=fmtp:").append(payload).append(" apt=").append(apt).append("\r\n");
+    }
+
+    private static void appendSsrc(StringBuilder sdp, long ssrc, String track) {
+        sdp.append("a=ssrc:").append(ssrc).append(" cname:Hq3XrV1pYz0bYt9w\r\n")
+           .append("a=ssrc:").append(ssrc).append(" msid:stream ").append(track).append("\r\n")
+           .append("a=ssrc:").append(ssrc).append(" mslabel:stream\r\n")
+           .append("a=ssrc:").append(ssrc).append(" label:").append(track).append("\r\n");
+    }
+}
@@ -39,6 +39,7 @@ import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.ActionBar;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
@@ -67,7 +68,15 @@ import com.intel.webrtc.conference.SubscribeOptions;
 import com.intel.webrtc.conference.SubscribeOptions.AudioSubscriptionConstraints;
 import com.intel.webrtc.conference.SubscribeOptions.VideoSubscriptionConstraints;
 import com.intel.webrtc.conference.Subscription;
+import com.intel.webrtc.sample.utils.CallSetupTimeline;
 import com.intel.webrtc.sample.utils.IcsScreenCapturer;
+import com.intel.webrtc.sample.utils.LaneExecutor;
+import com.intel.webrtc.sample.utils.RtcStatsSnapshot;
+import com.intel.webrtc.sample.utils.StartupOrchestrator;
+import com.intel.webrtc.sample.utils.StatsRecorder;
+import com.intel.webrtc.sample.utils.StatsScheduler;
+import com.intel.webrtc.sample.utils.StatsTimeSeries;
+import com.intel.webrtc.sample.utils.VideoStallDetector;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -76,10 +85,11 @@ import org.webrtc.EglBase;
 import org.webrtc.RTCStatsReport;
 import org.webrtc.SurfaceViewRenderer;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static com.intel.webrtc.base.MediaCodecs.AudioCodec.OPUS;
@@ -96,13 +106,40 @@ public class MainActivity extends AppCompatActivity
 
     private static final String TAG = "ICS_CONF";
     private static final int ICS_REQUEST_CODE = 100;
-    static final int STATS_INTERVAL_MS = 5000;
+    private static final String STEP_CONTEXT = "context";
+    private static final String STEP_PERMISSIONS = "permissions";
+    private static final String STEP_TOKEN = "token";
+    private static final String STEP_JOIN = "join";
+    private static final int STREAM_LANE_THREADS = 3;
+    private static final String LANE_CAMERA = "camera";
+    private static final String LANE_SCREEN = "screen";
+    private static final String LANE_MIXED = "mixed";
+    private static final long STATS_MIN_INTERVAL_MS = 1000;
+    private static final long STATS_MAX_INTERVAL_MS = 10000;
+    private static final long STATS_HISTORY_MS = 5 * 60 * 1000;
+    private static final long STATS_SUMMARY_MS = 60 * 1000;
+    private static final String STATS_RECORDING_DIR = "conference_stats";
+    private static final long STATS_RECORDING_BYTES = 1024 * 1024;
 
     private boolean fullScreen = false;
     private boolean settingsCurrent = false;
 
     private ExecutorService executor = Executors.newSingleThreadExecutor();
-    private Timer statsTimer;
+    // Publish, unpublish and subscribe, in order per stream; |executor| keeps join and leave.
+    private final LaneExecutor streamLanes = new LaneExecutor(STREAM_LANE_THREADS);
+    private final StatsScheduler statsScheduler =
+            new StatsScheduler(STATS_MIN_INTERVAL_MS, STATS_MAX_INTERVAL_MS);
+    private final StatsTimeSeries statsHistory =
+            new StatsTimeSeries(STATS_HISTORY_MS, STATS_MIN_INTERVAL_MS);
+    private StatsRecorder statsRecorder;
+    private final ScheduledExecutorService stallExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+    private VideoStallDetector stallDetector;
+    private final CallSetupTimeline callSetupTimeline = new CallSetupTimeline();
+    private final ExecutorService startupExecutor = Executors.newCachedThreadPool();
+    private StartupOrchestrator startup;
+    private StartupOrchestrator.Completion permissionCompletion;
+    private boolean contextInitialized = false;
 
     private LoginFragment loginFragment;
     private VideoFragment videoFragment;
@@ -115,10 +152,13 @@ public class MainActivity extends AppCompatActivity
     EglBase rootEglBase;
     private ConferenceClient conferenceClient;
     private ConferenceInfo conferenceInfo;
+    // Orders a join's success against a failing startup, so exactly one of them leaves.
+    private final Object joinLock = new Object();
     private Publication publication;
     private Subscription subscription;
     private LocalStream localStream;
     private RemoteStream stream2Sub;
+    private String subscribedStreamId;
     private IcsVideoCapturer capturer;
     private LocalStream screenStream;
     private IcsScreenCapturer screenCapturer;
@@ -167,49 +207,81 @@ public class MainActivity extends AppCompatActivity
     private View.OnClickListener joinRoom = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
+            callSetupTimeline.begin();
+            callSetupTimeline.mark(CallSetupTimeline.Milestone.CONNECT_REQUESTED);
             leftBtn.setEnabled(false);
             leftBtn.setTextColor(Color.DKGRAY);
             leftBtn.setText(R.string.connecting);
             rightBtn.setEnabled(false);
             rightBtn.setTextColor(Color.DKGRAY);
 
-            executor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    String serverUrl = loginFragment.getServerUrl();
-                    String roomId = settingsFragment == null ? "" : settingsFragment.getRoomId();
-
-                    JSONObject joinBody = new JSONObject();
-                    try {
-                        joinBody.put("role", "presenter");
-                        joinBody.put("username", "user");
-                        joinBody.put("room", roomId.equals("") ? "" : roomId);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-
-                    String uri = serverUrl + "/createToken/";
-                    String token = HttpUtils.request(uri, "POST", joinBody.toString(), true);
-
-                    conferenceClient.join(token, new ActionCallback<ConferenceInfo>() {
+            synchronized (joinLock) {
+                conferenceInfo = null;
+            }
+            if (startup != null) {
+                startup.cancel();
+            }
+            // Only the join needs the token; the context, the permissions and the token fetch
+            // run side by side.
+            final String[] token = new String[1];
+            final StartupOrchestrator orchestrator = new StartupOrchestrator();
+            startup = orchestrator
+                    .addStep(STEP_CONTEXT, new StartupOrchestrator.Step() {
                         @Override
-                        public void onSuccess(ConferenceInfo conferenceInfo) {
-                            MainActivity.this.conferenceInfo = conferenceInfo;
-                            requestPermission();
+                        public void run(StartupOrchestrator.Completion completion) {
+                            initContext();
+                            completion.succeeded();
                         }
+                    })
+                    .addStep(STEP_PERMISSIONS, new StartupOrchestrator.Step() {
+                        @Override
+                        public void run(StartupOrchestrator.Completion completion) {
+                            requestPermission(completion);
+                        }
+                    })
+                    .addStep(STEP_TOKEN, new StartupOrchestrator.Step() {
+                        @Override
+                        public void run(StartupOrchestrator.Completion completion) {
+                            token[0] = requestToken();
+                            if (token[0].isEmpty()) {
+                                completion.failed("Failed to create a token");
+                            } else {
+                                completion.succeeded();
+                            }
+                        }
+                    })
+                    .addStep(STEP_JOIN, new StartupOrchestrator.Step() {
+                        @Override
+                        public void run(StartupOrchestrator.Completion completion) {
+                            join(token[0], orchestrator, completion);
+                        }
+                    }, STEP_TOKEN);
+            startup.start(startupExecutor, new StartupOrchestrator.Listener() {
+                @Override
+                public void onCompleted(Map<String, Long> stepMs, long totalMs) {
+                    onConnectSucceed();
+                }
 
+                @Override
+                public void onFailed(String step, String reason) {
+                    Log.e(TAG, "Failed to join at " + step + ": " + reason);
+                    boolean joined;
+                    synchronized (joinLock) {
+                        joined = conferenceInfo != null;
+                        conferenceInfo = null;
+                    }
+                    // A join still in flight leaves from its own onSuccess.
+                    if (joined) {
+                        conferenceClient.leave();
+                    }
+                    runOnUiThread(new Runnable() {
                         @Override
-                        public void onFailure(IcsError e) {
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    leftBtn.setEnabled(true);
-                                    leftBtn.setTextColor(Color.WHITE);
-                                    leftBtn.setText(R.string.connect);
-                                    rightBtn.setEnabled(true);
-                                    rightBtn.setTextColor(Color.WHITE);
-                                }
-                            });
+                        public void run() {
+                            leftBtn.setEnabled(true);
+                            leftBtn.setTextColor(Color.WHITE);
+                            leftBtn.setText(R.string.connect);
+                            rightBtn.setEnabled(true);
+                            rightBtn.setTextColor(Color.WHITE);
                         }
                     });
                 }
@@ -217,6 +289,51 @@ public class MainActivity extends AppCompatActivity
         }
     };
 
+    private String requestToken() {
+        String serverUrl = loginFragment.getServerUrl();
+        String roomId = settingsFragment == null ? "" : settingsFragment.getRoomId();
+
+        JSONObject joinBody = new JSONObject();
+        try {
+            joinBody.put("role", "presenter");
+            joinBody.put("username", "user");
+            joinBody.put("room", roomId.equals("") ? "" : roomId);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        String uri = serverUrl + "/createToken/";
+        return HttpUtils.request(uri, "POST", joinBody.toString(), true);
+    }
+
+    private void join(String token, final StartupOrchestrator orchestrator,
+                      final StartupOrchestrator.Completion completion) {
+        conferenceClient.join(token, new ActionCallback<ConferenceInfo>() {
+            @Override
+            public void onSuccess(ConferenceInfo conferenceInfo) {
+                boolean abandoned;
+                synchronized (joinLock) {
+                    abandoned = orchestrator.isAbandoned();
+                    if (!abandoned) {
+                        MainActivity.this.conferenceInfo = conferenceInfo;
+                    }
+                }
+                if (abandoned) {
+                    Log.e(TAG, "Leaving a join that outlived its startup");
+                    conferenceClient.leave();
+                    return;
+                }
+                callSetupTimeline.mark(CallSetupTimeline.Milestone.CONNECTED);
+                completion.succeeded();
+            }
+
+            @Override
+            public void onFailure(IcsError e) {
+                completion.failed(e.errorMessage);
+            }
+        });
+    }
+
     private View.OnClickListener leaveRoom = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
@@ -234,7 +351,7 @@ public class MainActivity extends AppCompatActivity
         public void onClick(View v) {
             rightBtn.setEnabled(false);
             rightBtn.setTextColor(Color.DKGRAY);
-            executor.execute(new Runnable() {
+            streamLanes.execute(LANE_CAMERA, new Runnable() {
                 @Override
                 public void run() {
                     boolean front = settingsFragment == null || settingsFragment.cameraFront;
@@ -273,6 +390,7 @@ public class MainActivity extends AppCompatActivity
                             });
 
                             publication = result;
+                            watchPublicationStats(result);
 
                             try {
                                 JSONArray mixBody = new JSONArray();
@@ -309,7 +427,8 @@ public class MainActivity extends AppCompatActivity
                         }
                     };
 
-                    conferenceClient.publish(localStream, options, callback);
+                    conferenceClient.publish(localStream, options, callSetupTimeline.onSuccess(
+                            CallSetupTimeline.Milestone.PUBLISHED, callback));
                 }
             });
         }
@@ -322,8 +441,10 @@ public class MainActivity extends AppCompatActivity
             rightBtn.setText(R.string.publish);
             rightBtn.setOnClickListener(publish);
             videoFragment.clearStats(true);
+            statsScheduler.unregister(publication.id());
+            statsHistory.remove(publication.id());
 
-            executor.execute(new Runnable() {
+            streamLanes.execute(LANE_CAMERA, new Runnable() {
                 @Override
                 public void run() {
                     publication.stop();
@@ -351,7 +472,7 @@ public class MainActivity extends AppCompatActivity
                         (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
                 startActivityForResult(manager.createScreenCaptureIntent(), ICS_REQUEST_CODE);
             } else {
-                executor.execute(new Runnable() {
+                streamLanes.execute(LANE_SCREEN, new Runnable() {
                     @Override
                     public void run() {
                         if (screenPublication != null) {
@@ -389,6 +510,10 @@ public class MainActivity extends AppCompatActivity
         AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
 
+        statsRecorder = new StatsRecorder(new File(getFilesDir(), STATS_RECORDING_DIR),
+                                          STATS_RECORDING_BYTES);
+        initStallDetector();
+
         loginFragment = new LoginFragment();
         switchFragment(loginFragment);
 
@@ -418,17 +543,47 @@ public class MainActivity extends AppCompatActivity
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        streamLanes.shutdown();
+        statsScheduler.shutdown();
+        statsRecorder.close();
+        stallDetector.stop();
+        stallExecutor.shutdown();
+    }
+
+    private void initStallDetector() {
+        stallDetector = new VideoStallDetector(LANE_MIXED, stallExecutor,
+                                               new VideoStallDetector.Listener() {
+            @Override
+            public void onFreeze(String id, VideoStallDetector.Cause cause, long frozenMs) {
+                Log.d(TAG, "mixed stream frozen for " + frozenMs + " ms: " + cause);
+                String streamId = subscribedStreamId;
+                if (streamId != null) {
+                    statsScheduler.accelerate(streamId);
+                }
+            }
+
+            @Override
+            public void onFreezeEnded(String id, long durationMs) {
+                Log.d(TAG, "mixed stream was frozen for " + durationMs + " ms");
+            }
+        }, new VideoStallDetector.Recovery() {
+            @Override
+            public void recover(String id, VideoStallDetector.Action action) {
+                // Neither a keyframe request nor an ICE restart is exposed by ConferenceClient;
+                // a new subscription gets a new connection and starts on a keyframe.
+                if (action == VideoStallDetector.Action.RESUBSCRIBE) {
+                    resubscribeMixedStream();
+                }
+            }
+        });
+    }
+
     private void initConferenceClient() {
         rootEglBase = EglBase.create();
 
-        ContextInitialization.create()
-                             .setApplicationContext(this)
-                             .setCodecHardwareAccelerationEnabled(true)
-                             .setVideoHardwareAccelerationOptions(
-                                     rootEglBase.getEglBaseContext(),
-                                     rootEglBase.getEglBaseContext())
-                             .initialize();
-
         HttpUtils.setUpINSECURESSLContext();
         ConferenceClientConfiguration configuration
                 = ConferenceClientConfiguration.builder()
@@ -439,13 +594,28 @@ public class MainActivity extends AppCompatActivity
         conferenceClient.addObserver(this);
     }
 
-    private void requestPermission() {
+    private synchronized void initContext() {
+        if (contextInitialized) {
+            return;
+        }
+        ContextInitialization.create()
+                             .setApplicationContext(this)
+                             .setCodecHardwareAccelerationEnabled(true)
+                             .setVideoHardwareAccelerationOptions(
+                                     rootEglBase.getEglBaseContext(),
+                                     rootEglBase.getEglBaseContext())
+                             .initialize();
+        contextInitialized = true;
+    }
+
+    private void requestPermission(StartupOrchestrator.Completion completion) {
         String[] permissions = new String[]{Manifest.permission.CAMERA,
                                             Manifest.permission.RECORD_AUDIO};
 
         for (String permission : permissions) {
             if (ContextCompat.checkSelfPermission(MainActivity.this,
                                                   permission) != PERMISSION_GRANTED) {
+                permissionCompletion = completion;
                 ActivityCompat.requestPermissions(MainActivity.this,
                                                   permissions,
                                                   ICS_REQUEST_CODE);
@@ -453,17 +623,25 @@ public class MainActivity extends AppCompatActivity
             }
         }
 
-        onConnectSucceed();
+        callSetupTimeline.mark(CallSetupTimeline.Milestone.PERMISSION_GRANTED);
+        completion.succeeded();
     }
 
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions,
                                            int[] grantResults) {
-        if (requestCode == ICS_REQUEST_CODE
-                && grantResults.length == 2
+        if (requestCode != ICS_REQUEST_CODE || permissionCompletion == null) {
+            return;
+        }
+        StartupOrchestrator.Completion completion = permissionCompletion;
+        permissionCompletion = null;
+        if (grantResults.length == 2
                 && grantResults[0] == PERMISSION_GRANTED
                 && grantResults[1] == PERMISSION_GRANTED) {
-            onConnectSucceed();
+            callSetupTimeline.mark(CallSetupTimeline.Milestone.PERMISSION_GRANTED);
+            completion.succeeded();
+        } else {
+            completion.failed("camera and microphone permissions denied");
         }
     }
 
@@ -488,22 +666,11 @@ public class MainActivity extends AppCompatActivity
             }
         });
 
-        if (statsTimer != null) {
-            statsTimer.cancel();
-            statsTimer = null;
-        }
-        statsTimer = new Timer();
-        statsTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                getStats();
-            }
-        }, 0, STATS_INTERVAL_MS);
         subscribeMixedStream();
     }
 
     private void subscribeMixedStream() {
-        executor.execute(new Runnable() {
+        streamLanes.execute(LANE_MIXED, new Runnable() {
             @Override
             public void run() {
                 for (RemoteStream remoteStream : conferenceClient.info().getRemoteStreams()) {
@@ -538,7 +705,18 @@ public class MainActivity extends AppCompatActivity
                                                @Override
                                                public void onSuccess(Subscription result) {
                                                    MainActivity.this.subscription = result;
+                                                   subscribedStreamId = finalStream2bSub.id();
+                                                   watchSubscriptionStats(subscribedStreamId,
+                                                                          result);
+                                                   callSetupTimeline.mark(
+                                                           CallSetupTimeline.Milestone
+                                                                   .STREAM_ADDED);
+                                                   callSetupTimeline.markNextFrame(
+                                                           remoteRenderer);
                                                    finalStream2bSub.attach(remoteRenderer);
+                                                   finalStream2bSub.attach(
+                                                           stallDetector.getRenderer());
+                                                   stallDetector.start();
                                                }
 
                                                @Override
@@ -553,12 +731,35 @@ public class MainActivity extends AppCompatActivity
         });
     }
 
+    private void resubscribeMixedStream() {
+        streamLanes.execute(LANE_MIXED, new Runnable() {
+            @Override
+            public void run() {
+                stallDetector.stop();
+                if (subscribedStreamId != null) {
+                    statsScheduler.unregister(subscribedStreamId);
+                    statsHistory.remove(subscribedStreamId);
+                }
+                if (stream2Sub != null) {
+                    stream2Sub.detach(remoteRenderer);
+                    stream2Sub.detach(stallDetector.getRenderer());
+                }
+                if (subscription != null) {
+                    subscription.stop();
+                    subscription = null;
+                }
+            }
+        });
+        // Runs after the teardown above on the same lane.
+        subscribeMixedStream();
+    }
+
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         screenCapturer = new IcsScreenCapturer(data, 1280, 720);
         screenStream = new LocalStream(screenCapturer);
-        executor.execute(new Runnable() {
+        streamLanes.execute(LANE_SCREEN, new Runnable() {
             @Override
             public void run() {
                 conferenceClient.publish(screenStream, new ActionCallback<Publication>() {
@@ -596,32 +797,43 @@ public class MainActivity extends AppCompatActivity
         });
     }
 
-    private void getStats() {
-        if (publication != null) {
-            publication.getStats(new ActionCallback<RTCStatsReport>() {
-                @Override
-                public void onSuccess(RTCStatsReport result) {
-                    videoFragment.updateStats(result, true);
-                }
-
-                @Override
-                public void onFailure(IcsError error) {
-
-                }
-            });
-        }
-        if (subscription != null) {
-            subscription.getStats(new ActionCallback<RTCStatsReport>() {
-                @Override
-                public void onSuccess(RTCStatsReport result) {
-                    videoFragment.updateStats(result, false);
-                }
+    private void watchPublicationStats(final Publication publication) {
+        statsScheduler.register(publication.id(), new StatsScheduler.Source() {
+            @Override
+            public void getStats(ActionCallback<RTCStatsReport> callback) {
+                publication.getStats(callback);
+            }
+        }, new StatsScheduler.Listener() {
+            @Override
+            public void onStats(String id, RtcStatsSnapshot snapshot) {
+                showStats(id, snapshot, true);
+            }
+        });
+    }
 
-                @Override
-                public void onFailure(IcsError error) {
+    private void watchSubscriptionStats(String streamId, final Subscription subscription) {
+        statsScheduler.register(streamId, new StatsScheduler.Source() {
+            @Override
+            public void getStats(ActionCallback<RTCStatsReport> callback) {
+                subscription.getStats(callback);
+            }
+        }, new StatsScheduler.Listener() {
+            @Override
+            public void onStats(String id, RtcStatsSnapshot snapshot) {
+                showStats(id, snapshot, false);
+                stallDetector.onStats(snapshot);
+            }
+        });
+    }
 
-                }
-            });
+    private void showStats(String source, RtcStatsSnapshot snapshot, boolean outbound) {
+        statsHistory.record(source, snapshot);
+        statsRecorder.record(source, snapshot);
+        RtcStatsSnapshot.RtpStream video = snapshot.first(RtcStatsSnapshot.Kind.VIDEO, outbound);
+        if (video != null) {
+            videoFragment.updateStats(video, statsHistory.query(
+                    StatsTimeSeries.key(source, RtcStatsSnapshot.Kind.VIDEO, outbound),
+                    StatsTimeSeries.Metric.BITRATE_KBPS, STATS_SUMMARY_MS));
         }
     }
 
@@ -659,6 +871,9 @@ public class MainActivity extends AppCompatActivity
 
     @Override
     public void onServerDisconnected() {
+        callSetupTimeline.end();
+        Log.d(TAG, "call setup timelines: " + callSetupTimeline.exportJson());
+        Log.d(TAG, "stream lanes: " + streamLanes.getStats().values());
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -675,10 +890,13 @@ public class MainActivity extends AppCompatActivity
             }
         });
 
-        if (statsTimer != null) {
-            statsTimer.cancel();
-            statsTimer = null;
+        if (publication != null) {
+            statsScheduler.unregister(publication.id());
+        }
+        if (subscribedStreamId != null) {
+            statsScheduler.unregister(subscribedStreamId);
         }
+        stallDetector.stop();
 
         if (capturer != null) {
             capturer.stopCapture();
@@ -693,6 +911,8 @@ public class MainActivity extends AppCompatActivity
 
         publication = null;
         subscription = null;
+        subscribedStreamId = null;
         stream2Sub = null;
+        statsHistory.clear();
     }
 }
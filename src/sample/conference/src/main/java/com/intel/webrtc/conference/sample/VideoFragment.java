@@ -34,14 +34,12 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import org.webrtc.RTCStats;
-import org.webrtc.RTCStatsReport;
+import com.intel.webrtc.sample.utils.RtcStatsSnapshot;
+import com.intel.webrtc.sample.utils.StatsTimeSeries;
+
 import org.webrtc.RendererCommon;
 import org.webrtc.SurfaceViewRenderer;
 
-import java.math.BigInteger;
-import java.util.Map;
-
 
 public class VideoFragment extends Fragment {
 
@@ -53,8 +51,6 @@ public class VideoFragment extends Fragment {
     private SurfaceViewRenderer fullRenderer, smallRenderer;
     private TextView statsInView, statsOutView;
     private float dX, dY;
-    private BigInteger lastBytesSent = BigInteger.valueOf(0);
-    private BigInteger lastBytesReceived = BigInteger.valueOf(0);
 
     private View.OnTouchListener touchListener = new View.OnTouchListener() {
         @Override
@@ -134,11 +130,6 @@ public class VideoFragment extends Fragment {
 
     void clearStats(boolean outbound) {
         final TextView statsView = outbound ? statsOutView : statsInView;
-        if (outbound) {
-            lastBytesSent = BigInteger.valueOf(0);
-        } else {
-            lastBytesReceived = BigInteger.valueOf(0);
-        }
         final String statsReport = (outbound ? "\n--- OUTBOUND ---" : "\n--- INBOUND ---")
                 + "\nCodec: "
                 + "\nResolution: "
@@ -153,48 +144,14 @@ public class VideoFragment extends Fragment {
         });
     }
 
-    void updateStats(RTCStatsReport report, boolean outbound) {
-        final TextView statsView = outbound ? statsOutView : statsInView;
-        String codecId = null;
-        String codec = "";
-        long bytesSR = 0;
-        long width = 0, height = 0;
-        long packetsSR = 0;
-        for (RTCStats stats : report.getStatsMap().values()) {
-            if (stats.getType().equals(outbound ? "outbound-rtp" : "inbound-rtp")) {
-                Map<String, Object> members = stats.getMembers();
-                if (members.get("mediaType").equals("video")) {
-                    codecId = (String) members.get("codecId");
-                    if (outbound) {
-                        BigInteger bytes = (BigInteger) members.get("bytesSent");
-                        bytesSR = bytes.longValue() - lastBytesSent.longValue();
-                        lastBytesSent = bytes;
-                    } else {
-                        BigInteger bytes = (BigInteger) members.get("bytesReceived");
-                        bytesSR = bytes.longValue() - lastBytesReceived.longValue();
-                        lastBytesReceived = bytes;
-                    }
-
-                    packetsSR = (long) members.get(outbound ? "packetsSent" : "packetsReceived");
-                }
-            }
-            if (stats.getType().equals("track")) {
-                Map<String, Object> members = stats.getMembers();
-                if (members.get("kind").equals("video")) {
-                    width = (long) members.get("frameWidth");
-                    height = (long) members.get("frameHeight");
-                }
-            }
-        }
-        if (codecId != null) {
-            codec = (String) report.getStatsMap().get(codecId).getMembers().get("mimeType");
-        }
-
-        final String statsReport = (outbound ? "\n--- OUTBOUND ---" : "\n--- INBOUND ---")
-                + "\nCodec: " + codec
-                + "\nResolution: " + width + "x" + height
-                + "\nBitrate: " + bytesSR * 8 / MainActivity.STATS_INTERVAL_MS + "kbps"
-                + "\nPackets: " + packetsSR;
+    void updateStats(RtcStatsSnapshot.RtpStream video, StatsTimeSeries.Summary bitrate) {
+        final TextView statsView = video.outbound ? statsOutView : statsInView;
+        final String statsReport = (video.outbound ? "\n--- OUTBOUND ---" : "\n--- INBOUND ---")
+                + "\nCodec: " + (video.mimeType == null ? "" : video.mimeType)
+                + "\nResolution: " + video.frameWidth + "x" + video.frameHeight
+                + "\nBitrate: " + Math.round(video.bitrateKbps) + "kbps"
+                + (bitrate.count == 0 ? "" : " (median " + Math.round(bitrate.p50) + ")")
+                + "\nPackets: " + video.packets;
         getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -1,9 +1,11 @@
 package com.intel.webrtc.p2p.sample;
 
 import android.Manifest;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.media.AudioManager;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -17,65 +19,96 @@ import android.widget.Toast;
 import com.intel.webrtc.base.ActionCallback;
 import com.intel.webrtc.base.ContextInitialization;
 import com.intel.webrtc.base.IcsError;
-import com.intel.webrtc.base.IcsVideoCapturer;
 import com.intel.webrtc.base.LocalStream;
-import com.intel.webrtc.base.MediaConstraints;
 import com.intel.webrtc.base.VideoEncodingParameters;
 import com.intel.webrtc.p2p.P2PClient;
 import com.intel.webrtc.p2p.P2PClientConfiguration;
 import com.intel.webrtc.p2p.Publication;
 import com.intel.webrtc.p2p.RemoteStream;
+import com.intel.webrtc.p2p.SignalingChannelInterface;
+import com.intel.webrtc.p2p.sample.peer_call_utils.CallRecovery;
+import com.intel.webrtc.p2p.sample.peer_call_utils.CallSupervisor;
+import com.intel.webrtc.p2p.sample.peer_call_utils.IceRestarter;
+import com.intel.webrtc.p2p.sample.peer_call_utils.InternetConnectionManager;
+import com.intel.webrtc.p2p.sample.peer_call_utils.LocalMediaPrewarmer;
 import com.intel.webrtc.p2p.sample.peer_call_utils.LogAndToast;
+import com.intel.webrtc.p2p.sample.peer_call_utils.PeerHeartbeat;
 import com.intel.webrtc.p2p.sample.peer_call_utils.SignalCustomMessages;
+import com.intel.webrtc.sample.utils.CallSetupTimeline;
+import com.intel.webrtc.sample.utils.LaneExecutor;
+import com.intel.webrtc.sample.utils.RtcStatsSnapshot;
+import com.intel.webrtc.sample.utils.StartupOrchestrator;
+import com.intel.webrtc.sample.utils.StatsScheduler;
+import com.intel.webrtc.sample.utils.VideoStallDetector;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.webrtc.EglBase;
 import org.webrtc.PeerConnection;
+import org.webrtc.RTCStatsReport;
 import org.webrtc.RendererCommon;
 import org.webrtc.SurfaceViewRenderer;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static com.intel.webrtc.base.MediaCodecs.VideoCodec.H264;
 import static com.intel.webrtc.base.MediaCodecs.VideoCodec.VP8;
-import static com.intel.webrtc.base.MediaConstraints.VideoTrackConstraints.CameraFacing.BACK;
-import static com.intel.webrtc.base.MediaConstraints.VideoTrackConstraints.CameraFacing.FRONT;
 
 public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PClientObserver {
 
     private static final String TAG = "MyCallActivity";
     private static final int ICS_REQUEST_CODE = 123;
+    private static final SignalingTransport SIGNALING_TRANSPORT = SignalingTransport.SOCKET_IO;
+    private static final boolean PREWARM_LOCAL_MEDIA = true;
+    private static final int PEER_LANE_THREADS = 2;
+    private static final String HEARTBEAT_LANE = "/heartbeat";
+    private static final String STEP_CONTEXT = "context";
+    private static final String STEP_PERMISSIONS = "permissions";
+    private static final String STEP_CONNECT = "connect";
+    private static final String STEP_CAPTURER = "capturer";
+    private static final long STATS_MIN_INTERVAL_MS = 1000;
+    private static final long STATS_MAX_INTERVAL_MS = 10000;
     private Button btnCallEnd, btnCallRestart;
     private TextView tvPeerId, tvMyId;
     private String serverUrl = "https://webrtcpeer.bidchat.io:8096";
     EglBase rootEglBase;
     private P2PClient p2PClient;
+    private SignalingChannelInterface signalingChannel;
+    private BroadcastReceiver networkReceiver;
     private Publication publication;
-    private Timer remoteStreamTimer;
-    private Timer remotePingTimer;
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
-    private boolean inCall = false;
+    private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // SDK work for a peer, in order per peer; |executor| keeps login and the call supervisor.
+    private final LaneExecutor peerLanes = new LaneExecutor(PEER_LANE_THREADS);
+    private CallSupervisor callSupervisor;
+    private PeerHeartbeat heartbeat;
+    private CallRecovery callRecovery;
+    // Catches frozen remote video well before the STREAM_REQUEST tick would.
+    private VideoStallDetector stallDetector;
+    private final StatsScheduler statsScheduler =
+            new StatsScheduler(STATS_MIN_INTERVAL_MS, STATS_MAX_INTERVAL_MS);
+    private final CallSetupTimeline callSetupTimeline = new CallSetupTimeline();
+    private final ExecutorService startupExecutor = Executors.newCachedThreadPool();
+    private StartupOrchestrator startup;
+    private StartupOrchestrator.Completion permissionCompletion;
+    private boolean contextInitialized = false;
 
     private LocalStream localStream;
     private RemoteStream remoteStream;
-    private boolean remoteStreamEnded = false;
-    private IcsVideoCapturer capturer;
+    private final LocalMediaPrewarmer localMedia = new LocalMediaPrewarmer(PREWARM_LOCAL_MEDIA);
     private SurfaceViewRenderer fullRenderer, smallRenderer;
     private boolean isButtonRegistered = false;
     private boolean isRemoteStreamEnded = true;
-    private boolean shouldReconnect = false;
     private boolean isCaller = false;
     private boolean isCallee = false;
 
     private int peerNumber = 2;
-    private int PING_INTERVAL_MS = 2000;
+    private int PING_INTERVAL_MS = 250;
     private int STREAM_INTERVAL_MS = 2000;
 
 
@@ -99,20 +132,115 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
         tvMyId = findViewById(R.id.my_id);
         tvPeerId = findViewById(R.id.peer_id);
 
+        initCallSupervisor();
         initP2PClient();
     }
 
+    private void initCallSupervisor() {
+        heartbeat = new PeerHeartbeat(new PeerHeartbeat.Transport() {
+            @Override
+            public void send(String peerId, String message) {
+                sendQuietly(peerId, message);
+            }
+        }, new PeerHeartbeat.Listener() {
+            @Override
+            public void onPeerDead(String peerId, int missedBeats) {
+                Log.e(TAG, "heartbeat: " + peerId + " missed " + missedBeats + " beats");
+                callRecovery.onConnectivityLost();
+            }
+
+            @Override
+            public void onPeerAlive(String peerId, double rttMs) {
+                Log.e(TAG, "heartbeat: " + peerId + " is back, rtt " + rttMs + " ms");
+                callRecovery.onConnectivityRestored();
+            }
+        });
+        callRecovery = new CallRecovery(executor, new CallRecovery.Actions() {
+            @Override
+            public boolean restartIce() {
+                return IceRestarter.restartIce(p2PClient, getPeerId());
+            }
+
+            @Override
+            public void republish() {
+                IceRestarter.clearIceRestart(p2PClient, getPeerId());
+                callSupervisor.onRemoteStreamEnded();
+            }
+        }, new CallRecovery.Listener() {
+            @Override
+            public void onRecovered(CallRecovery.Path path, long recoveryMs) {
+                IceRestarter.clearIceRestart(p2PClient, getPeerId());
+                Log.e(TAG, "recovered by " + path + " in " + recoveryMs + " ms, mean "
+                        + callRecovery.getMeanRecoveryMs(path) + " ms over "
+                        + callRecovery.getRecoveries(path));
+            }
+        });
+        stallDetector = new VideoStallDetector(TAG, executor, new VideoStallDetector.Listener() {
+            @Override
+            public void onFreeze(String id, VideoStallDetector.Cause cause, long frozenMs) {
+                Log.e(TAG, "remote video frozen for " + frozenMs + " ms: " + cause);
+                Publication current = publication;
+                if (current != null) {
+                    statsScheduler.accelerate(current.id());
+                }
+            }
+
+            @Override
+            public void onFreezeEnded(String id, long durationMs) {
+                Log.e(TAG, "remote video was frozen for " + durationMs + " ms");
+                callRecovery.onConnectivityRestored();
+            }
+        }, new VideoStallDetector.Recovery() {
+            @Override
+            public void recover(String id, VideoStallDetector.Action action) {
+                switch (action) {
+                    case RESTART_ICE:
+                        callRecovery.onConnectivityLost();
+                        break;
+                    case RESUBSCRIBE:
+                        // Republish both ways, as when the remote stream ends.
+                        callRecovery.onRemoteStreamEnded();
+                        break;
+                    default:
+                        // P2PClient has no way to ask the sender for a keyframe.
+                        break;
+                }
+            }
+        });
+        callSupervisor = new CallSupervisor(executor, new CallSupervisor.Listener() {
+            @Override
+            public void onStateChanged(CallSupervisor.State previous,
+                                       CallSupervisor.State current) {
+                Log.e(TAG, "call state: " + previous + " -> " + current);
+                if (current == CallSupervisor.State.ENDED) {
+                    heartbeat.reset(getPeerId());
+                    callRecovery.cancel();
+                    stallDetector.stop();
+                }
+            }
+
+            @Override
+            public void onTick(CallSupervisor.Tick tick) {
+                switch (tick) {
+                    case STREAM_REQUEST:
+                        sendMsg(SignalCustomMessages.REMOTE_STREAM_REQUEST);
+                        showReconnecting();
+                        break;
+                    case PING:
+                        heartbeat.beat(getPeerId());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+        callSupervisor.setTickInterval(CallSupervisor.Tick.STREAM_REQUEST, STREAM_INTERVAL_MS);
+        callSupervisor.setTickInterval(CallSupervisor.Tick.PING, PING_INTERVAL_MS);
+    }
+
     private void initP2PClient() {
         rootEglBase = EglBase.create();
 
-        ContextInitialization.create()
-                .setApplicationContext(this)
-                .setCodecHardwareAccelerationEnabled(true)
-                .setVideoHardwareAccelerationOptions(
-                        rootEglBase.getEglBaseContext(),
-                        rootEglBase.getEglBaseContext())
-                .initialize();
-
         VideoEncodingParameters h264 = new VideoEncodingParameters(H264);
         VideoEncodingParameters vp8 = new VideoEncodingParameters(VP8);
         List<PeerConnection.IceServer> iceServers = new ArrayList<>();
@@ -126,8 +254,16 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
                 .setRTCConfiguration(new PeerConnection.RTCConfiguration(iceServers))
                 .build();
 
-        p2PClient = new P2PClient(configuration, new SocketSignalingChannel());
+        signalingChannel = SIGNALING_TRANSPORT.createChannel();
+        p2PClient = new P2PClient(configuration, signalingChannel);
         p2PClient.addObserver(this);
+        networkReceiver = InternetConnectionManager.registerNetworkAvailableListener(this,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        SignalingTransport.onNetworkAvailable(signalingChannel);
+                    }
+                });
 
         tvPeerId.setText(getPeerId());
         tvMyId.setText(getMyId());
@@ -135,37 +271,127 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
         connectRequest();
     }
 
-    private void connectRequest(){
+    private synchronized void initContext() {
+        if (contextInitialized)
+            return;
+        ContextInitialization.create()
+                .setApplicationContext(this)
+                .setCodecHardwareAccelerationEnabled(true)
+                .setVideoHardwareAccelerationOptions(
+                        rootEglBase.getEglBaseContext(),
+                        rootEglBase.getEglBaseContext())
+                .initialize();
+        contextInitialized = true;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(networkReceiver);
+        if (startup != null)
+            startup.cancel();
+        startupExecutor.shutdown();
+        Log.d(TAG, "call setup timelines: " + callSetupTimeline.exportJson());
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                JSONObject loginObj = new JSONObject();
-                try {
-                    loginObj.put("host", serverUrl);
-                    loginObj.put("token", getMyId());
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-                p2PClient.addAllowedRemotePeer(getMyId());
-                p2PClient.addAllowedRemotePeer(getPeerId());
-                p2PClient.connect(loginObj.toString(), new ActionCallback<String>() {
+                localMedia.release();
+            }
+        });
+        peerLanes.shutdown();
+        // Disposing disconnects, which reports onServerDisconnected to the supervisor.
+        SignalingTransport.dispose(signalingChannel);
+        callSupervisor.shutdown();
+        stallDetector.stop();
+        statsScheduler.shutdown();
+    }
+
+    private void connectRequest(){
+        callSetupTimeline.begin();
+        callSetupTimeline.mark(CallSetupTimeline.Milestone.CONNECT_REQUESTED);
+        if (startup != null)
+            startup.cancel();
+        // Login, permissions and context initialization do not depend on each other; only
+        // opening the camera has to wait for its permission and the factory.
+        final StartupOrchestrator orchestrator = new StartupOrchestrator();
+        startup = orchestrator
+                .addStep(STEP_CONTEXT, new StartupOrchestrator.Step() {
                     @Override
-                    public void onSuccess(String result) {
-                        Log.e(TAG, "p2PClient.connect : onSuccess");
-                        requestPermission();
-
-                        if (shouldReconnect){
-                            startRemoteStreamTimer();
-                            shouldReconnect = false;
-                        }
+                    public void run(StartupOrchestrator.Completion completion) {
+                        initContext();
+                        completion.succeeded();
                     }
-
+                })
+                .addStep(STEP_PERMISSIONS, new StartupOrchestrator.Step() {
                     @Override
-                    public void onFailure(IcsError error) {
-                        Log.e(TAG, "p2PClient.connect : onFailure: "+error.errorMessage);
+                    public void run(StartupOrchestrator.Completion completion) {
+                        requestPermission(completion);
+                    }
+                })
+                .addStep(STEP_CONNECT, new StartupOrchestrator.Step() {
+                    @Override
+                    public void run(StartupOrchestrator.Completion completion) {
+                        connect(orchestrator, completion);
+                    }
+                })
+                .addStep(STEP_CAPTURER, new StartupOrchestrator.Step() {
+                    @Override
+                    public void run(StartupOrchestrator.Completion completion) {
+                        localMedia.prewarm(true);
+                        completion.succeeded();
+                    }
+                }, STEP_CONTEXT, STEP_PERMISSIONS);
+        startup.start(startupExecutor, new StartupOrchestrator.Listener() {
+            @Override
+            public void onCompleted(Map<String, Long> stepMs, long totalMs) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isButtonRegistered)
+                            registerButtons();
                     }
                 });
             }
+
+            @Override
+            public void onFailed(String step, String reason) {
+                Log.e(TAG, "startup failed at " + step + ": " + reason);
+            }
+        });
+    }
+
+    private void connect(final StartupOrchestrator orchestrator,
+                         final StartupOrchestrator.Completion completion) {
+        callSupervisor.connect();
+        JSONObject loginObj = new JSONObject();
+        try {
+            loginObj.put("host", serverUrl);
+            loginObj.put("token", getMyId());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        p2PClient.addAllowedRemotePeer(getMyId());
+        p2PClient.addAllowedRemotePeer(getPeerId());
+        p2PClient.connect(loginObj.toString(), new ActionCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                Log.e(TAG, "p2PClient.connect : onSuccess");
+                if (orchestrator.isAbandoned()) {
+                    // Startup failed or was cancelled, e.g. by onDestroy, while logging in.
+                    p2PClient.disconnect();
+                    return;
+                }
+                callSetupTimeline.mark(CallSetupTimeline.Milestone.CONNECTED);
+                callSupervisor.onConnected();
+                completion.succeeded();
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                Log.e(TAG, "p2PClient.connect : onFailure: "+error.errorMessage);
+                callSupervisor.onConnectFailed();
+                completion.failed(error.errorMessage);
+            }
         });
     }
 
@@ -194,13 +420,14 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
         }
     }
 
-    private void requestPermission() {
+    private void requestPermission(StartupOrchestrator.Completion completion) {
         String[] permissions = new String[]{Manifest.permission.CAMERA,
                 Manifest.permission.RECORD_AUDIO};
 
         for (String permission : permissions) {
             if (ContextCompat.checkSelfPermission(MyCallActivity.this,
                     permission) != PERMISSION_GRANTED) {
+                permissionCompletion = completion;
                 ActivityCompat.requestPermissions(MyCallActivity.this,
                         permissions,
                         ICS_REQUEST_CODE);
@@ -208,8 +435,26 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
             }
         }
 
-        if (!isButtonRegistered)
-            registerButtons();
+        callSetupTimeline.mark(CallSetupTimeline.Milestone.PERMISSION_GRANTED);
+        completion.succeeded();
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
+                                           @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode != ICS_REQUEST_CODE || permissionCompletion == null)
+            return;
+        StartupOrchestrator.Completion completion = permissionCompletion;
+        permissionCompletion = null;
+        if (grantResults.length == 2
+                && grantResults[0] == PERMISSION_GRANTED
+                && grantResults[1] == PERMISSION_GRANTED) {
+            callSetupTimeline.mark(CallSetupTimeline.Milestone.PERMISSION_GRANTED);
+            completion.succeeded();
+        } else {
+            completion.failed("camera and microphone permissions denied");
+        }
     }
 
     private void registerButtons() {
@@ -233,15 +478,15 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
 
     private void restartCall() {
         btnCallRestart.setEnabled(false);
-        if (!inCall){
+        if (!callSupervisor.isInCall()){
             btnCallRestart.setText("RESTART");
             Log.e(TAG, "restartCall: calling");
-            inCall = true;
             ready();
         }else {
             Log.e(TAG, "restartCall: restarting" );
             if (publication != null) {
                 publication.stop();
+                statsScheduler.unregister(publication.id());
                 publication = null;
             }
             if (localStream != null)
@@ -254,23 +499,15 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
 
     public void ready() {
         Log.e(TAG, "ready: " );
-        smallRenderer.init(rootEglBase.getEglBaseContext(), null);
+        localMedia.onCallStarted();
+        smallRenderer.init(rootEglBase.getEglBaseContext(), localMedia.firstFrameEvents());
         fullRenderer.init(rootEglBase.getEglBaseContext(), null);
 
-        executor.execute(new Runnable() {
+        peerLanes.execute(getPeerId(), new Runnable() {
             @Override
             public void run() {
                 boolean cameraFront = true;
-                MediaConstraints.VideoTrackConstraints vmc = MediaConstraints.VideoTrackConstraints
-                        .create(true)
-                        .setCameraFacing(cameraFront ? FRONT : BACK)
-                        .setResolution(1280, 720)
-                        .setFramerate(30);
-                if (capturer == null) {
-                    capturer = new IcsVideoCapturer(vmc);
-                    localStream = new LocalStream(capturer,
-                            new MediaConstraints.AudioTrackConstraints());
-                }
+                localStream = localMedia.take(cameraFront);
                 localStream.attach(smallRenderer);
 
                 publishLocalStream();
@@ -280,14 +517,18 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
 
     private void publishLocalStream() {
         Log.e(TAG, "publishLocalStream: ");
-        executor.execute(new Runnable() {
+        callSupervisor.publish();
+        peerLanes.execute(getPeerId(), new Runnable() {
             @Override
             public void run() {
                 p2PClient.publish(getPeerId(), localStream, new ActionCallback<Publication>() {
                     @Override
                     public void onSuccess(Publication result) {
                         publication = result;
+                        watchStats(result);
                         Log.e(TAG, "onSuccess: publishLocalStream" );
+                        callSetupTimeline.mark(CallSetupTimeline.Milestone.PUBLISHED);
+                        callSupervisor.onPublished(true);
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
@@ -303,6 +544,7 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
                     @Override
                     public void onFailure(IcsError error) {
                         Log.e(TAG, "onFailure: publishLocalStream "+error.errorMessage );
+                        callSupervisor.onPublished(false);
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
@@ -318,36 +560,25 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
 
     @Override
     public void onServerDisconnected() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Log.e(TAG, "onServerDisconnected" );
-                if (remoteStreamTimer != null){
-                    shouldReconnect = true;
-                    remoteStreamTimer.cancel();
-                    remoteStreamTimer = null;
-                }
-
-            }
-        });
+        Log.e(TAG, "onServerDisconnected" );
+        callSupervisor.onServerDisconnected();
     }
 
     @Override
     public void onStreamAdded(final RemoteStream remoteStream) {
-        remoteStreamEnded = false;
         Log.e(TAG, "onStreamAdded: "+remoteStream.id());
-        if (remoteStreamTimer != null) {
-            Log.e(TAG, "onStreamAdded: cancelling timer");
-            remoteStreamTimer.cancel();
-        }
+        callSetupTimeline.mark(CallSetupTimeline.Milestone.STREAM_ADDED);
+        callSupervisor.onRemoteStreamAdded();
+        callRecovery.onRemoteStreamAdded();
         this.remoteStream = remoteStream;
         remoteStream.addObserver(new com.intel.webrtc.base.RemoteStream.StreamObserver() {
             @Override
             public void onStreamEnded() {
                 Log.e(TAG, "onStreamEnded: ");
 //                try{
-                    remoteStreamEnded = true;
-                    startRemoteStreamTimer();
+                    callSupervisor.onRemoteStreamEnded();
+                    callRecovery.onRemoteStreamEnded();
+                    stallDetector.stop();
 
 
 //                    remoteStream.detach(fullRenderer);
@@ -356,15 +587,19 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
 //                }
             }
         });
-        executor.execute(new Runnable() {
+        peerLanes.execute(remoteStream.origin(), new Runnable() {
             @Override
             public void run() {
                 if (fullRenderer != null) {
                     try {
+                        callSetupTimeline.markNextFrame(fullRenderer);
                         remoteStream.attach(fullRenderer);
+                        remoteStream.attach(stallDetector.getRenderer());
+                        stallDetector.start();
                     }catch (Exception e){
                         Log.e(TAG, "remote stream attaching to rendered failed : "+e.getMessage());
-                        startRemoteStreamTimer();
+                        callSupervisor.onRemoteStreamEnded();
+                        callRecovery.onRemoteStreamEnded();
                     }
 
                 }
@@ -372,50 +607,36 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
         });
     }
 
-    private void startPingingPeer(){
-        if (remotePingTimer != null) {
-            remotePingTimer.cancel();
-            remotePingTimer = null;
-        }
-        remotePingTimer = new Timer();
-        remotePingTimer.schedule(new TimerTask() {
+    private void watchStats(final Publication publication) {
+        statsScheduler.register(publication.id(), new StatsScheduler.Source() {
             @Override
-            public void run() {
-                sendMsg(SignalCustomMessages.PING_REQUEST);
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Toast.makeText(MyCallActivity.this,
-                                "Reconnecting",Toast.LENGTH_SHORT).show();
-                    }
-                });
+            public void getStats(ActionCallback<RTCStatsReport> callback) {
+                publication.getStats(callback);
+            }
+        }, new StatsScheduler.Listener() {
+            @Override
+            public void onStats(String id, RtcStatsSnapshot snapshot) {
+                // The publication's connection carries the remote video too.
+                stallDetector.onStats(snapshot);
             }
-        },0,PING_INTERVAL_MS);
+        });
     }
 
-    private void startRemoteStreamTimer(){
-        if (remoteStreamTimer != null) {
-            remoteStreamTimer.cancel();
-            remoteStreamTimer = null;
-        }
-        remoteStreamTimer = new Timer();
-        remoteStreamTimer.schedule(new TimerTask() {
+    private void showReconnecting(){
+        runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                sendMsg(SignalCustomMessages.REMOTE_STREAM_REQUEST);
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Toast.makeText(MyCallActivity.this,
-                                "Reconnecting",Toast.LENGTH_SHORT).show();
-                    }
-                });
+                Toast.makeText(MyCallActivity.this,
+                        "Reconnecting",Toast.LENGTH_SHORT).show();
             }
-        },0,STREAM_INTERVAL_MS);
+        });
     }
 
     @Override
     public void onDataReceived(String peerId, String message) {
+        if (heartbeat.onMessage(peerId, message)) {
+            return;
+        }
         Log.e(TAG, "onDataReceived: ");
         LogAndToast.log("data : "+message);
         LogAndToast.log("from : "+peerId);
@@ -436,7 +657,7 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
 
     private void sendMsg(final String msg){
         Log.e(TAG, "sendMsg: "+msg );
-        executor.execute(new Runnable() {
+        peerLanes.execute(getPeerId(), new Runnable() {
             @Override
             public void run() {
                 p2PClient.send(getPeerId(), msg, new ActionCallback<Void>() {
@@ -454,4 +675,23 @@ public class MyCallActivity extends AppCompatActivity implements P2PClient.P2PCl
             }
         });
     }
+
+    // Heartbeats go out several times a second, so they are not logged. They have a lane of
+    // their own so that a slow publish cannot delay them into a missed beat.
+    private void sendQuietly(final String peerId, final String msg){
+        peerLanes.execute(peerId + HEARTBEAT_LANE, new Runnable() {
+            @Override
+            public void run() {
+                p2PClient.send(peerId, msg, new ActionCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                    }
+
+                    @Override
+                    public void onFailure(IcsError error) {
+                    }
+                });
+            }
+        });
+    }
 }
@@ -26,6 +26,7 @@
 package com.intel.webrtc.p2p.sample;
 
 import android.Manifest;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.media.AudioManager;
 import android.os.Bundle;
@@ -43,16 +44,24 @@ import android.view.WindowManager;
 import com.intel.webrtc.base.ActionCallback;
 import com.intel.webrtc.base.ContextInitialization;
 import com.intel.webrtc.base.IcsError;
-import com.intel.webrtc.base.IcsVideoCapturer;
 import com.intel.webrtc.base.LocalStream;
-import com.intel.webrtc.base.MediaConstraints;
 import com.intel.webrtc.base.VideoEncodingParameters;
 import com.intel.webrtc.p2p.P2PClient;
 import com.intel.webrtc.p2p.P2PClientConfiguration;
 import com.intel.webrtc.p2p.Publication;
 import com.intel.webrtc.p2p.RemoteStream;
+import com.intel.webrtc.p2p.SignalingChannelInterface;
+import com.intel.webrtc.p2p.sample.peer_call_utils.CallSupervisor;
 import com.intel.webrtc.p2p.sample.peer_call_utils.InternetConnectionManager;
+import com.intel.webrtc.p2p.sample.peer_call_utils.LocalMediaPrewarmer;
 import com.intel.webrtc.p2p.sample.peer_call_utils.LogAndToast;
+import com.intel.webrtc.sample.utils.CallSetupTimeline;
+import com.intel.webrtc.sample.utils.LaneExecutor;
+import com.intel.webrtc.sample.utils.RtcStatsSnapshot;
+import com.intel.webrtc.sample.utils.StartupOrchestrator;
+import com.intel.webrtc.sample.utils.StatsRecorder;
+import com.intel.webrtc.sample.utils.StatsScheduler;
+import com.intel.webrtc.sample.utils.StatsTimeSeries;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -61,18 +70,17 @@ import org.webrtc.PeerConnection;
 import org.webrtc.RTCStatsReport;
 import org.webrtc.SurfaceViewRenderer;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static com.intel.webrtc.base.MediaCodecs.VideoCodec.H264;
 import static com.intel.webrtc.base.MediaCodecs.VideoCodec.VP8;
-import static com.intel.webrtc.base.MediaConstraints.VideoTrackConstraints.CameraFacing.BACK;
-import static com.intel.webrtc.base.MediaConstraints.VideoTrackConstraints.CameraFacing.FRONT;
 
 public class PeerCallActivity extends AppCompatActivity
         implements LoginFragment.LoginFragmentListener,
@@ -82,7 +90,19 @@ public class PeerCallActivity extends AppCompatActivity
 
     private static final String TAG = "ICS_P2P";
     private static final int ICS_REQUEST_CODE = 100;
-    private static final int STATS_INTERVAL_MS = 20000;
+    private static final long STATS_MIN_INTERVAL_MS = 1000;
+    private static final long STATS_MAX_INTERVAL_MS = 20000;
+    private static final long STATS_HISTORY_MS = 5 * 60 * 1000;
+    private static final long STATS_SUMMARY_MS = 60 * 1000;
+    private static final String STATS_RECORDING_DIR = "peer_call_stats";
+    private static final long STATS_RECORDING_BYTES = 1024 * 1024;
+    private static final int PEER_LANE_THREADS = 3;
+    private static final boolean PREWARM_LOCAL_MEDIA = false;
+    private static final SignalingTransport SIGNALING_TRANSPORT = SignalingTransport.SOCKET_IO;
+    private static final String STEP_CONTEXT = "context";
+    private static final String STEP_PERMISSIONS = "permissions";
+    private static final String STEP_CONNECT = "connect";
+    private static final String STEP_CAPTURER = "capturer";
     private static int failureCount = 0;
 
     private LoginFragment loginFragment;
@@ -93,17 +113,30 @@ public class PeerCallActivity extends AppCompatActivity
 
     EglBase rootEglBase;
     private P2PClient p2PClient;
+    private SignalingChannelInterface signalingChannel;
+    private BroadcastReceiver networkReceiver;
     private Publication publication;
     private String peerId;
     private boolean inCalling = false;
 
     private LocalStream localStream;
     private RemoteStream remoteStream;
-    private boolean remoteStreamEnded = false;
-    private IcsVideoCapturer capturer;
-
-    private Timer statsTimer;
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final LocalMediaPrewarmer localMedia = new LocalMediaPrewarmer(PREWARM_LOCAL_MEDIA);
+
+    private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // SDK work for a peer, in order per peer; |executor| keeps login and the call supervisor.
+    private final LaneExecutor peerLanes = new LaneExecutor(PEER_LANE_THREADS);
+    private final StatsScheduler statsScheduler =
+            new StatsScheduler(STATS_MIN_INTERVAL_MS, STATS_MAX_INTERVAL_MS);
+    private final StatsTimeSeries statsHistory =
+            new StatsTimeSeries(STATS_HISTORY_MS, STATS_MIN_INTERVAL_MS);
+    private StatsRecorder statsRecorder;
+    private CallSupervisor callSupervisor;
+    private final CallSetupTimeline callSetupTimeline = new CallSetupTimeline();
+    private final ExecutorService startupExecutor = Executors.newCachedThreadPool();
+    private StartupOrchestrator startup;
+    private StartupOrchestrator.Completion permissionCompletion;
+    private boolean contextInitialized = false;
 
     private BottomNavigationView.OnNavigationItemSelectedListener mOnNavigationItemSelectedListener
             = new BottomNavigationView.OnNavigationItemSelectedListener() {
@@ -149,6 +182,9 @@ public class PeerCallActivity extends AppCompatActivity
         AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
 
+        statsRecorder = new StatsRecorder(new File(getFilesDir(), STATS_RECORDING_DIR),
+                                          STATS_RECORDING_BYTES);
+        initCallSupervisor();
         initP2PClient();
         if (InternetConnectionManager.isInternetAvailable(PeerCallActivity.this)){
             LogAndToast.log(getString(R.string.internet_connection_checked));
@@ -157,17 +193,27 @@ public class PeerCallActivity extends AppCompatActivity
         }
     }
 
+    private void initCallSupervisor() {
+        callSupervisor = new CallSupervisor(executor, new CallSupervisor.Listener() {
+            @Override
+            public void onStateChanged(CallSupervisor.State previous,
+                                       CallSupervisor.State current) {
+                Publication published = publication;
+                if (current == CallSupervisor.State.RECOVERING && published != null) {
+                    // Watch the call closely while it is being recovered.
+                    statsScheduler.accelerate(published.id());
+                }
+            }
+
+            @Override
+            public void onTick(CallSupervisor.Tick tick) {
+            }
+        });
+    }
+
     private void initP2PClient() {
         rootEglBase = EglBase.create();
 
-        ContextInitialization.create()
-                             .setApplicationContext(this)
-                             .setCodecHardwareAccelerationEnabled(true)
-                             .setVideoHardwareAccelerationOptions(
-                                     rootEglBase.getEglBaseContext(),
-                                     rootEglBase.getEglBaseContext())
-                             .initialize();
-
         VideoEncodingParameters h264 = new VideoEncodingParameters(H264);
         VideoEncodingParameters vp8 = new VideoEncodingParameters(VP8);
         List<PeerConnection.IceServer> iceServers = new ArrayList<>();
@@ -183,8 +229,29 @@ public class PeerCallActivity extends AppCompatActivity
                 .setRTCConfiguration(new PeerConnection.RTCConfiguration(iceServers))
                 .build();
 
-        p2PClient = new P2PClient(configuration, new SocketSignalingChannel());
+        signalingChannel = SIGNALING_TRANSPORT.createChannel();
+        p2PClient = new P2PClient(configuration, signalingChannel);
         p2PClient.addObserver(this);
+        networkReceiver = InternetConnectionManager.registerNetworkAvailableListener(this,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        SignalingTransport.onNetworkAvailable(signalingChannel);
+                    }
+                });
+    }
+
+    private synchronized void initContext() {
+        if (contextInitialized)
+            return;
+        ContextInitialization.create()
+                             .setApplicationContext(this)
+                             .setCodecHardwareAccelerationEnabled(true)
+                             .setVideoHardwareAccelerationOptions(
+                                     rootEglBase.getEglBaseContext(),
+                                     rootEglBase.getEglBaseContext())
+                             .initialize();
+        contextInitialized = true;
     }
 
     private void switchFragment(Fragment fragment) {
@@ -194,13 +261,14 @@ public class PeerCallActivity extends AppCompatActivity
 
     }
 
-    private void requestPermission() {
+    private void requestPermission(StartupOrchestrator.Completion completion) {
         String[] permissions = new String[]{Manifest.permission.CAMERA,
                                             Manifest.permission.RECORD_AUDIO};
 
         for (String permission : permissions) {
             if (ContextCompat.checkSelfPermission(PeerCallActivity.this,
                                                   permission) != PERMISSION_GRANTED) {
+                permissionCompletion = completion;
                 ActivityCompat.requestPermissions(PeerCallActivity.this,
                                                   permissions,
                                                   ICS_REQUEST_CODE);
@@ -208,16 +276,23 @@ public class PeerCallActivity extends AppCompatActivity
             }
         }
 
-        onConnectSucceed();
+        callSetupTimeline.mark(CallSetupTimeline.Milestone.PERMISSION_GRANTED);
+        completion.succeeded();
     }
 
     public void onRequestPermissionsResult(int requestCode, String[] permissions,
                                            int[] grantResults) {
-        if (requestCode == ICS_REQUEST_CODE
-                && grantResults.length == 2
+        if (requestCode != ICS_REQUEST_CODE || permissionCompletion == null)
+            return;
+        StartupOrchestrator.Completion completion = permissionCompletion;
+        permissionCompletion = null;
+        if (grantResults.length == 2
                 && grantResults[0] == PERMISSION_GRANTED
                 && grantResults[1] == PERMISSION_GRANTED) {
-            onConnectSucceed();
+            callSetupTimeline.mark(CallSetupTimeline.Milestone.PERMISSION_GRANTED);
+            completion.succeeded();
+        } else {
+            completion.failed(getString(R.string.permission_denied));
         }
     }
 
@@ -228,7 +303,7 @@ public class PeerCallActivity extends AppCompatActivity
                 if (!inCalling)
                     loginFragment.onConnected();
                 else
-                    if (remoteStreamEnded)
+                    if (callSupervisor.getState() == CallSupervisor.State.RECOVERING)
                         p2PClient.onRenegotiationRequest(peerId);
                 LogAndToast.show(PeerCallActivity.this,getString(R.string.server_connected));
             }
@@ -237,6 +312,7 @@ public class PeerCallActivity extends AppCompatActivity
 
     @Override
     public void onServerDisconnected() {
+        callSupervisor.onServerDisconnected();
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
@@ -250,13 +326,14 @@ public class PeerCallActivity extends AppCompatActivity
 
     @Override
     public void onStreamAdded(final RemoteStream remoteStream) {
+        callSetupTimeline.mark(CallSetupTimeline.Milestone.STREAM_ADDED);
         Log.e(TAG, "onStreamAdded: "+remoteStream.id());
         this.remoteStream = remoteStream;
         remoteStream.addObserver(new com.intel.webrtc.base.RemoteStream.StreamObserver() {
             @Override
             public void onStreamEnded() {
                 try{
-                    remoteStreamEnded = true;
+                    callSupervisor.onRemoteStreamEnded();
                     remoteStream.detach(remoteRenderer);
                     p2PClient.onRenegotiationRequest(peerId);
                 }catch (Exception e){
@@ -264,15 +341,17 @@ public class PeerCallActivity extends AppCompatActivity
                 }
             }
         });
-        executor.execute(new Runnable() {
+        peerLanes.execute(remoteStream.origin(), new Runnable() {
             @Override
             public void run() {
                 if (remoteRenderer != null) {
+                    callSetupTimeline.markNextFrame(remoteRenderer);
                     remoteStream.attach(remoteRenderer);
                 }
 
-                if (remoteStreamEnded)
+                if (callSupervisor.getState() == CallSupervisor.State.RECOVERING)
                     onPublishRequest();
+                callSupervisor.onRemoteStreamAdded();
             }
         });
     }
@@ -290,34 +369,100 @@ public class PeerCallActivity extends AppCompatActivity
 
     @Override
     public void onConnectRequest(final String server, final String myId) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                JSONObject loginObj = new JSONObject();
-                try {
-                    loginObj.put("host", server);
-                    loginObj.put("token", myId);
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-                Log.e(TAG, "onConnectRequest::run: "+loginObj.toString());
-                p2PClient.addAllowedRemotePeer(myId);
-                p2PClient.connect(loginObj.toString(), new ActionCallback<String>() {
+        callSetupTimeline.begin();
+        callSetupTimeline.mark(CallSetupTimeline.Milestone.CONNECT_REQUESTED);
+        if (startup != null)
+            startup.cancel();
+        // Login, permissions and context initialization do not depend on each other; only
+        // opening the camera has to wait for its permission and the factory.
+        final StartupOrchestrator orchestrator = new StartupOrchestrator();
+        startup = orchestrator
+                .addStep(STEP_CONTEXT, new StartupOrchestrator.Step() {
                     @Override
-                    public void onSuccess(String result) {
-                        Log.d(TAG, "onSuccess: Login "+result);
-                        failureCount = 0;
-                        requestPermission();
+                    public void run(StartupOrchestrator.Completion completion) {
+                        initContext();
+                        completion.succeeded();
                     }
-
+                })
+                .addStep(STEP_PERMISSIONS, new StartupOrchestrator.Step() {
                     @Override
-                    public void onFailure(IcsError error) {
-                        failureCount++;
-                        Log.e(TAG, "onFailure: "+error.errorMessage+" failure count : "+failureCount);
-                        if (!inCalling)
-                            loginFragment.onConnectFailed(error.errorMessage);
+                    public void run(StartupOrchestrator.Completion completion) {
+                        requestPermission(completion);
                     }
-                });
+                })
+                .addStep(STEP_CONNECT, new StartupOrchestrator.Step() {
+                    @Override
+                    public void run(StartupOrchestrator.Completion completion) {
+                        connect(server, myId, orchestrator, completion);
+                    }
+                })
+                .addStep(STEP_CAPTURER, new StartupOrchestrator.Step() {
+                    @Override
+                    public void run(StartupOrchestrator.Completion completion) {
+                        localMedia.prewarm(isCameraFront());
+                        completion.succeeded();
+                    }
+                }, STEP_CONTEXT, STEP_PERMISSIONS);
+        startup.start(startupExecutor, new StartupOrchestrator.Listener() {
+            @Override
+            public void onCompleted(Map<String, Long> stepMs, long totalMs) {
+                onConnectSucceed();
+            }
+
+            @Override
+            public void onFailed(String step, String reason) {
+                Log.e(TAG, "startup failed at " + step + ": " + reason);
+                // connect() reports its own failures.
+                if (step.equals(STEP_CONNECT))
+                    return;
+                p2PClient.disconnect();
+                if (!inCalling)
+                    loginFragment.onConnectFailed(reason);
+            }
+        });
+    }
+
+    private void connect(String server, String myId, final StartupOrchestrator orchestrator,
+                         final StartupOrchestrator.Completion completion) {
+        callSupervisor.connect();
+        JSONObject loginObj = new JSONObject();
+        try {
+            loginObj.put("host", server);
+            loginObj.put("token", myId);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        Log.e(TAG, "onConnectRequest::run: "+loginObj.toString());
+        p2PClient.addAllowedRemotePeer(myId);
+        p2PClient.connect(loginObj.toString(), new ActionCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                if (orchestrator.isAbandoned()) {
+                    // Startup failed or was cancelled while logging in, so onFailed's
+                    // disconnect may have come too early.
+                    p2PClient.disconnect();
+                    return;
+                }
+                callSetupTimeline.mark(CallSetupTimeline.Milestone.CONNECTED);
+                callSupervisor.onConnected();
+                Log.d(TAG, "onSuccess: Login "+result);
+                failureCount = 0;
+                if (orchestrator.isFinished()) {
+                    // A reconnect after startup; the orchestrator would drop it.
+                    onConnectSucceed();
+                } else {
+                    completion.succeeded();
+                }
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                callSupervisor.onConnectFailed();
+                failureCount++;
+                Log.e(TAG, "onFailure: "+error.errorMessage+" failure count : "+failureCount);
+                if (!inCalling)
+                    loginFragment.onConnectFailed(error.errorMessage);
+                completion.failed(error.errorMessage);
             }
         });
     }
@@ -360,14 +505,30 @@ public class PeerCallActivity extends AppCompatActivity
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        unregisterReceiver(networkReceiver);
+        if (startup != null)
+            startup.cancel();
+        startupExecutor.shutdown();
         p2PClient.disconnect();
+        SignalingTransport.dispose(signalingChannel);
+        peerLanes.shutdown();
+        statsScheduler.shutdown();
+        statsRecorder.close();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                localMedia.release();
+            }
+        });
+        // Also stops |executor|, after the release above.
+        callSupervisor.shutdown();
     }
 
     @Override
     public void onCallRequest(final String peerId) {
         inCalling = true;
         this.peerId = peerId;
-        executor.execute(new Runnable() {
+        peerLanes.execute(peerId, new Runnable() {
             @Override
             public void run() {
                 p2PClient.addAllowedRemotePeer(peerId);
@@ -385,112 +546,116 @@ public class PeerCallActivity extends AppCompatActivity
                         final SurfaceViewRenderer remoteRenderer) {
         this.localRenderer = localRenderer;
         this.remoteRenderer = remoteRenderer;
-        localRenderer.init(rootEglBase.getEglBaseContext(), null);
+        localMedia.onCallStarted();
+        localRenderer.init(rootEglBase.getEglBaseContext(), localMedia.firstFrameEvents());
         remoteRenderer.init(rootEglBase.getEglBaseContext(), null);
 
-        executor.execute(new Runnable() {
+        peerLanes.execute(peerId, new Runnable() {
             @Override
             public void run() {
-                boolean cameraFront = settingsFragment == null || settingsFragment.cameraFront;
-                MediaConstraints.VideoTrackConstraints vmc = MediaConstraints.VideoTrackConstraints
-                        .create(true)
-                        .setCameraFacing(cameraFront ? FRONT : BACK)
-                        .setResolution(1280, 720)
-                        .setFramerate(30);
-                if (capturer == null) {
-                    capturer = new IcsVideoCapturer(vmc);
-                    localStream = new LocalStream(capturer,
-                                                  new MediaConstraints.AudioTrackConstraints());
-                }
+                localStream = localMedia.take(isCameraFront());
                 localStream.attach(localRenderer);
-                if (remoteStream != null && !remoteStreamEnded) {
+                if (remoteStream != null
+                        && callSupervisor.getState() != CallSupervisor.State.RECOVERING) {
                     remoteStream.attach(remoteRenderer);
                 }
             }
         });
     }
 
+    private boolean isCameraFront() {
+        return settingsFragment == null || settingsFragment.cameraFront;
+    }
+
+    private void prewarmLocalMedia() {
+        if (!localMedia.isEnabled())
+            return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                localMedia.prewarm(isCameraFront());
+            }
+        });
+    }
+
     @Override
     public void onPublishRequest() {
-        executor.execute(new Runnable() {
+        callSupervisor.publish();
+        peerLanes.execute(peerId, new Runnable() {
             @Override
             public void run() {
                 p2PClient.publish(peerId, localStream, new ActionCallback<Publication>() {
                     @Override
                     public void onSuccess(Publication result) {
+                        callSetupTimeline.mark(CallSetupTimeline.Milestone.PUBLISHED);
                         inCalling = true;
                         publication = result;
+                        watchStats(result);
                         callFragment.onPublished(true);
-
-                        if (statsTimer != null) {
-                            statsTimer.cancel();
-                            statsTimer = null;
-                        }
-                        statsTimer = new Timer();
-                        statsTimer.schedule(new TimerTask() {
-                            @Override
-                            public void run() {
-                                getStats();
-                            }
-                        }, 0, STATS_INTERVAL_MS);
+                        callSupervisor.onPublished(true);
                     }
 
                     @Override
                     public void onFailure(IcsError error) {
                         callFragment.onPublished(false);
+                        callSupervisor.onPublished(false);
                     }
                 });
             }
         });
     }
 
-    private void getStats() {
-        if (publication != null) {
-            publication.getStats(new ActionCallback<RTCStatsReport>() {
-                @Override
-                public void onSuccess(RTCStatsReport result) {
-
-                }
-
-                @Override
-                public void onFailure(IcsError error) {
-
-                }
-            });
-        }
+    private void watchStats(final Publication publication) {
+        statsScheduler.register(publication.id(), new StatsScheduler.Source() {
+            @Override
+            public void getStats(ActionCallback<RTCStatsReport> callback) {
+                publication.getStats(callback);
+            }
+        }, new StatsScheduler.Listener() {
+            @Override
+            public void onStats(String id, RtcStatsSnapshot snapshot) {
+                statsHistory.record(id, snapshot);
+                statsRecorder.record(id, snapshot);
+                StatsTimeSeries.Summary bitrate = statsHistory.query(
+                        StatsTimeSeries.key(id, RtcStatsSnapshot.Kind.VIDEO, true),
+                        StatsTimeSeries.Metric.BITRATE_KBPS, STATS_SUMMARY_MS);
+                Log.d(TAG, "publication stats: " + snapshot
+                        + "; video kbps over the last minute: " + bitrate);
+            }
+        });
     }
 
     @Override
     public void onUnpublishRequest(boolean back2main) {
         if (publication != null) {
             publication.stop();
+            statsScheduler.unregister(publication.id());
+            statsHistory.remove(publication.id());
             publication = null;
         }
 
         if (back2main) {
             inCalling = false;
+            callSupervisor.hangUp();
+            callSetupTimeline.end();
+            Log.d(TAG, "call setup timelines: " + callSetupTimeline.exportJson());
+            Log.d(TAG, "peer lanes: " + peerLanes.getStats().values());
             switchFragment(loginFragment);
-            if (capturer != null) {
-                capturer.stopCapture();
-                capturer.dispose();
-                capturer = null;
-            }
-            if (localStream != null) {
-                localStream.dispose();
-                localStream = null;
-            }
-            executor.execute(new Runnable() {
+            localMedia.release();
+            localStream = null;
+            peerLanes.execute(peerId, new Runnable() {
                 @Override
                 public void run() {
                     p2PClient.stop(peerId);
                 }
             });
+            prewarmLocalMedia();
         }
     }
 
     @Override
     public void onSendMessage(final String message) {
-        executor.execute(new Runnable() {
+        peerLanes.execute(peerId, new Runnable() {
             @Override
             public void run() {
                 p2PClient.send(peerId, message, new ActionCallback<Void>() {
@@ -509,7 +674,7 @@ public class PeerCallActivity extends AppCompatActivity
     }
 
     private void sendMsg(final String msg){
-        executor.execute(new Runnable() {
+        peerLanes.execute(peerId, new Runnable() {
             @Override
             public void run() {
                 p2PClient.send(peerId, msg, new ActionCallback<Void>() {
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample;
+
+import com.intel.webrtc.p2p.SignalingChannelInterface;
+
+/**
+ * Signaling transports the P2P sample can hand to {@link com.intel.webrtc.p2p.P2PClient}.
+ */
+public enum SignalingTransport {
+    /**
+     * Socket.IO over Engine.IO, see {@link SocketSignalingChannel}.
+     */
+    SOCKET_IO,
+    /**
+     * A single raw WebSocket, see {@link WebSocketSignalingChannel}.
+     */
+    WEBSOCKET;
+
+    /**
+     * Negotiated per peer like compression, so clients without support still get candidates
+     * one by one.
+     */
+    private static final long CANDIDATE_COALESCING_WINDOW_MS = 30;
+    /**
+     * Negotiated per peer, so clients without support still get plain SDP.
+     */
+    private static final boolean PAYLOAD_COMPRESSION = true;
+    /**
+     * Observers are called on a dedicated thread, off the socket's I/O thread. Priority
+     * scheduling stays off: P2PClient sends chat and pings over the DataChannel, so all that
+     * reaches a channel is call control, which its lanes have nothing to separate from.
+     */
+    SignalingChannelInterface createChannel() {
+        switch (this) {
+            case WEBSOCKET:
+                WebSocketSignalingChannel webSocketChannel = new WebSocketSignalingChannel();
+                webSocketChannel.setPayloadCompression(PAYLOAD_COMPRESSION);
+                webSocketChannel.useDispatchThread();
+                return webSocketChannel;
+            case SOCKET_IO:
+            default:
+                SocketSignalingChannel channel = new SocketSignalingChannel();
+                channel.setCandidateCoalescingWindow(CANDIDATE_COALESCING_WINDOW_MS);
+                channel.setPayloadCompression(PAYLOAD_COMPRESSION);
+                channel.useDispatchThread();
+                return channel;
+        }
+    }
+
+    /**
+     * Forward a "network available again" event to channels that reconnect on their own, so
+     * they skip the remaining backoff.
+     */
+    static void onNetworkAvailable(SignalingChannelInterface channel) {
+        if (channel instanceof SocketSignalingChannel) {
+            ((SocketSignalingChannel) channel).onNetworkAvailable();
+        } else if (channel instanceof WebSocketSignalingChannel) {
+            ((WebSocketSignalingChannel) channel).onNetworkAvailable();
+        }
+    }
+
+    /**
+     * Disconnect |channel| and release the threads it keeps, once its activity is destroyed.
+     */
+    static void dispose(SignalingChannelInterface channel) {
+        if (channel instanceof SocketSignalingChannel) {
+            ((SocketSignalingChannel) channel).dispose();
+        } else if (channel instanceof WebSocketSignalingChannel) {
+            ((WebSocketSignalingChannel) channel).dispose();
+        }
+    }
+}
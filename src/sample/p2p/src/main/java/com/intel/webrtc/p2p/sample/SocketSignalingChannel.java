@@ -32,7 +32,20 @@ import com.intel.webrtc.base.IcsConst;
 import com.intel.webrtc.base.IcsError;
 import com.intel.webrtc.p2p.IcsP2PError;
 import com.intel.webrtc.p2p.SignalingChannelInterface;
-import com.intel.webrtc.p2p.sample.peer_call_utils.LogAndToast;
+import com.intel.webrtc.p2p.sample.signaling_utils.AckTracker;
+import com.intel.webrtc.p2p.sample.signaling_utils.CandidateCoalescer;
+import com.intel.webrtc.p2p.sample.signaling_utils.LatencyHistogram;
+import com.intel.webrtc.p2p.sample.signaling_utils.MessageSender;
+import com.intel.webrtc.p2p.sample.signaling_utils.ObserverRegistry;
+import com.intel.webrtc.p2p.sample.signaling_utils.DecorrelatedJitterBackoff;
+import com.intel.webrtc.p2p.sample.signaling_utils.OutboundMessageQueue;
+import com.intel.webrtc.p2p.sample.signaling_utils.PayloadCompressor;
+import com.intel.webrtc.p2p.sample.signaling_utils.PeerMessageDispatcher;
+import com.intel.webrtc.p2p.sample.signaling_utils.PeerTrafficStats;
+import com.intel.webrtc.p2p.sample.signaling_utils.PriorityMessageScheduler;
+import com.intel.webrtc.p2p.sample.signaling_utils.ReconnectMetrics;
+import com.intel.webrtc.p2p.sample.signaling_utils.ReconnectPolicy;
+import com.intel.webrtc.p2p.sample.signaling_utils.SessionResumption;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -42,8 +55,16 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import io.socket.client.Ack;
@@ -66,16 +87,92 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
     private final String CLIENT_TYPE_VALUE = "Android";
     private final String CLIENT_VERSION = "&clientVersion=";
     private final String CLIENT_VERSION_VALUE = IcsConst.CLIENT_VERSION;
+    private final String CLIENT_DISCONNECT_REASON = "io client disconnect";
 
     private Socket socketIOClient;
-    private List<SignalingChannelInterface.SignalingChannelObserver> signalingChannelObservers;
+    private static final ObserverRegistry.Notification<SignalingChannelObserver>
+            SERVER_DISCONNECTED = new ObserverRegistry.Notification<SignalingChannelObserver>() {
+                @Override
+                public void deliver(SignalingChannelObserver observer) {
+                    observer.onServerDisconnected();
+                }
+            };
+    private final ObserverRegistry<SignalingChannelObserver> signalingChannelObservers =
+            new ObserverRegistry<>();
+    private final ConcurrentHashMap<String, PeerTrafficStats> peerStats =
+            new ConcurrentHashMap<>();
+    private final PeerMessageDispatcher inboundDispatcher = new PeerMessageDispatcher(
+            new PeerMessageDispatcher.Handler() {
+                @Override
+                public void onMessage(final String peerId, final String message,
+                                      long queuedUs) {
+                    statsFor(peerId).onDispatched(queuedUs);
+                    signalingChannelObservers.deliverNow(
+                            new ObserverRegistry.Notification<SignalingChannelObserver>() {
+                                @Override
+                                public void deliver(SignalingChannelObserver observer) {
+                                    observer.onMessage(peerId, message);
+                                }
+                            });
+                }
+            });
+    // Set by useDispatchThread(), shut down by dispose().
+    private ExecutorService dispatchThread;
     private ActionCallback<String> connectCallback;
-
+    private long connectStartNanos;
+    private volatile long lastConnectLatencyMs = -1;
+    private final OutboundMessageQueue outboundQueue;
+    private final Object sendLock = new Object();
+    private boolean authenticated = false;
+    private CandidateCoalescer candidateCoalescer;
+    private final PayloadCompressor payloadCompressor;
+    private final PriorityMessageScheduler priorityScheduler;
+    private final ScheduledExecutorService scheduler;
+    private ReconnectPolicy reconnectPolicy;
+    private final ReconnectMetrics reconnectMetrics = new ReconnectMetrics();
+    private final AckTracker ackTracker;
+    private final Object reconnectLock = new Object();
+    private ScheduledFuture<?> pendingReconnect;
+    private boolean reconnection = false;
+    private int reconnectAttempt = 0;
+    private long disconnectedAtNanos;
+    private final SessionResumption sessionResumption = new SessionResumption();
+    private IO.Options socketOptions;
+    private String loginQuery;
 
     private Listener onServerAuthenticatedCallback = new Listener() {
         @Override
         public void call(Object... arg0) {
             Log.e(TAG, "onServerAuthenticatedCallback" );
+            boolean resumed = sessionResumption.onAuthenticated(
+                    arg0.length > 0 ? String.valueOf(arg0[0]) : null);
+            if (connectStartNanos != 0) {
+                lastConnectLatencyMs = TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime() - connectStartNanos);
+                connectStartNanos = 0;
+                Log.d(TAG, "Authenticated in " + lastConnectLatencyMs + " ms");
+            }
+            synchronized (reconnectLock) {
+                reconnectAttempt = 0;
+                reconnectPolicy.reset();
+                if (disconnectedAtNanos != 0) {
+                    long timeToReconnectMs = TimeUnit.NANOSECONDS.toMillis(
+                            System.nanoTime() - disconnectedAtNanos);
+                    reconnectMetrics.onReconnected(timeToReconnectMs, resumed);
+                    disconnectedAtNanos = 0;
+                    if (resumed) {
+                        Log.d(TAG, "Session resumed in " + timeToReconnectMs + " ms, full "
+                                + "reconnects average "
+                                + reconnectMetrics.getMeanTimeToFullReconnectMs() + " ms");
+                    }
+                }
+            }
+            synchronized (sendLock) {
+                authenticated = true;
+                outboundQueue.replay(replaySender);
+            }
+            // onServerDisconnected took P2PClient down with the connection; only a connect
+            // success brings it back, whether or not the session was resumed.
             if (connectCallback != null) {
                 connectCallback.onSuccess(arg0[0].toString());
 //                connectCallback = null;
@@ -91,6 +188,7 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
                 connectCallback.onFailure(
                         new IcsError(P2P_CONN_SERVER_UNKNOWN.value, "connect failed"));
             }
+            scheduleReconnect();
         }
     };
 
@@ -98,9 +196,11 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
         @Override
         public void call(Object... arg0) {
             Log.e(TAG, "onForceDisconnectCallback" );
-            if (socketIOClient != null) {
-                socketIOClient.io().reconnection(false);
+            synchronized (reconnectLock) {
+                reconnection = false;
+                cancelPendingReconnect();
             }
+            sessionResumption.clear();
         }
     };
 
@@ -108,8 +208,35 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
         @Override
         public void call(Object... arg0) {
             Log.e(TAG, "onDisconnectCallback" );
-            for (SignalingChannelObserver observer : signalingChannelObservers) {
-                observer.onServerDisconnected();
+            synchronized (sendLock) {
+                authenticated = false;
+            }
+            synchronized (reconnectLock) {
+                if (disconnectedAtNanos == 0) {
+                    disconnectedAtNanos = System.nanoTime();
+                }
+            }
+            signalingChannelObservers.dispatch(SERVER_DISCONNECTED);
+            if (arg0.length == 0 || !CLIENT_DISCONNECT_REASON.equals(arg0[0])) {
+                scheduleReconnect();
+            }
+        }
+    };
+
+    private Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (reconnectLock) {
+                pendingReconnect = null;
+                if (!reconnection || socketIOClient == null) {
+                    return;
+                }
+                Log.e(TAG, "onServerReconnecting, attempt " + reconnectAttempt + ", "
+                        + outboundQueue.size() + " messages queued");
+                reconnectMetrics.onAttempt();
+                connectStartNanos = System.nanoTime();
+                socketOptions.query = sessionResumption.appendTo(loginQuery);
+                socketIOClient.connect();
             }
         }
     };
@@ -137,34 +264,250 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
         public void call(Object... arg0) {
             Log.e(TAG, "onMessageCallback: ");
             JSONObject argumentJsonObject = (JSONObject) arg0[0];
-            for (SignalingChannelObserver observer : signalingChannelObservers) {
-                try {
-                    observer.onMessage(argumentJsonObject.getString("from"),
-                                       argumentJsonObject.getString("data"));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            String from;
+            List<String> messages;
+            try {
+                from = argumentJsonObject.getString("from");
+                messages = CandidateCoalescer.unpack(
+                        payloadCompressor.receive(from, argumentJsonObject.getString("data")));
+            } catch (JSONException e) {
+                e.printStackTrace();
+                return;
+            }
+            for (String message : messages) {
+                candidateCoalescer.receive(from, message);
+                dispatchMessage(from, message);
             }
         }
     };
 
+    private MessageSender replaySender = new MessageSender() {
+        @Override
+        public void send(String peerId, String message, ActionCallback<Void> callback) {
+            emitMessage(peerId, message, callback);
+        }
+    };
+
+    private MessageSender socketSender = new MessageSender() {
+        @Override
+        public void send(String peerId, String message, ActionCallback<Void> callback) {
+            sendOrQueue(peerId, message, callback);
+        }
+    };
+
     /**
      * Initialize the socket client.
      */
     SocketSignalingChannel() {
+        this(OutboundMessageQueue.DEFAULT_CAPACITY_PER_PEER, OutboundMessageQueue.DEFAULT_TTL_MS);
+    }
+
+    /**
+     * Initialize the socket client.
+     *
+     * @param queueCapacityPerPeer max messages buffered per peer while disconnected.
+     * @param queueTtlMs how long a buffered message stays eligible for replay.
+     */
+    SocketSignalingChannel(int queueCapacityPerPeer, long queueTtlMs) {
         socketIOClient = null;
         connectCallback = null;
-        this.signalingChannelObservers = new ArrayList<>();
+        this.outboundQueue = new OutboundMessageQueue(queueCapacityPerPeer, queueTtlMs);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.reconnectPolicy = new DecorrelatedJitterBackoff();
+        this.ackTracker = new AckTracker(scheduler);
+        this.payloadCompressor = new PayloadCompressor(socketSender);
+        this.priorityScheduler = new PriorityMessageScheduler(0, payloadCompressor);
+        setCandidateCoalescingWindow(0);
+    }
+
+    /**
+     * Replace the backoff used between reconnection attempts. Socket.IO's own reconnection is
+     * turned off; this channel schedules every attempt itself.
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        synchronized (reconnectLock) {
+            reconnectPolicy = policy;
+        }
+    }
+
+    public ReconnectMetrics getReconnectMetrics() {
+        return reconnectMetrics;
+    }
+
+    /**
+     * Fail a message's callback if the server has not acked it within |timeoutMs|.
+     */
+    public void setAckTimeout(long timeoutMs) {
+        ackTracker.setTimeoutMs(timeoutMs);
+    }
+
+    /**
+     * Server ack latency of sent messages (p50/p95/p99 via its histogram) and timeout counts.
+     */
+    public AckTracker getAckTracker() {
+        return ackTracker;
+    }
+
+    /**
+     * Tell the channel the device has a usable network again. If it is waiting to reconnect,
+     * the pending backoff is skipped and it reconnects right away.
+     */
+    public void onNetworkAvailable() {
+        synchronized (reconnectLock) {
+            if (!reconnection || socketIOClient == null || socketIOClient.connected()) {
+                return;
+            }
+            Log.d(TAG, "Network available, reconnect now");
+            cancelPendingReconnect();
+            reconnectAttempt = 0;
+            reconnectPolicy.reset();
+            reconnectMetrics.onFastPath();
+            pendingReconnect = scheduler.schedule(reconnectTask, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduleReconnect() {
+        synchronized (reconnectLock) {
+            if (!reconnection || pendingReconnect != null) {
+                return;
+            }
+            long delay = reconnectPolicy.nextDelayMs(++reconnectAttempt);
+            if (delay < 0) {
+                Log.e(TAG, "Giving up reconnecting after " + (reconnectAttempt - 1) + " attempts");
+                reconnectMetrics.onGaveUp();
+                return;
+            }
+            pendingReconnect = scheduler.schedule(reconnectTask, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelPendingReconnect() {
+        if (pendingReconnect != null) {
+            pendingReconnect.cancel(false);
+            pendingReconnect = null;
+        }
+    }
+
+    /**
+     * Batch ICE candidates sent to the same peer within |windowMs| into one ics-message, for
+     * peers whose chat-ua says they can unpack batches; see {@link CandidateCoalescer}. 0, the
+     * default, sends every candidate on its own.
+     */
+    public void setCandidateCoalescingWindow(long windowMs) {
+        candidateCoalescer = new CandidateCoalescer(windowMs, scheduler, priorityScheduler);
+    }
+
+    /**
+     * Let at most |maxInFlight| messages wait for their server ack and hold the rest in
+     * priority lanes picked by |classifier| (null for the default), so call control overtakes
+     * chat and keepalives when the connection backs up. 0, the default, sends every message
+     * right away.
+     */
+    public void setPriorityScheduling(int maxInFlight,
+                                      PriorityMessageScheduler.Classifier classifier) {
+        priorityScheduler.setClassifier(classifier);
+        priorityScheduler.setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Per-lane sent and dropped counts and queueing delay.
+     */
+    public PriorityMessageScheduler getPriorityScheduler() {
+        return priorityScheduler;
+    }
+
+    /**
+     * Deflate SDP-sized messages to peers that negotiate it on chat-ua; others keep getting
+     * plain text. Off by default.
+     */
+    public void setPayloadCompression(boolean enabled) {
+        payloadCompressor.setEnabled(enabled);
+    }
+
+    /**
+     * How many messages went out compressed and how many bytes that saved.
+     */
+    public PayloadCompressor getPayloadCompressor() {
+        return payloadCompressor;
+    }
+
+    /**
+     * Messages sent while the channel is reconnecting are buffered here and replayed once the
+     * server authenticates the client again; it also counts queued, dropped and replayed ones.
+     */
+    public OutboundMessageQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * Deliver observer callbacks on |executor| so a slow observer never holds up the socket's
+     * I/O thread. A single-threaded executor keeps each peer's messages in order; null delivers
+     * inline.
+     */
+    public void setDispatchExecutor(Executor executor) {
+        signalingChannelObservers.setDispatchExecutor(executor);
+        inboundDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * Deliver observer callbacks on a single thread the channel owns, which {@link #dispose}
+     * stops, instead of on an executor of the caller's.
+     */
+    public void useDispatchThread() {
+        if (dispatchThread == null) {
+            dispatchThread = Executors.newSingleThreadExecutor();
+            setDispatchExecutor(dispatchThread);
+        }
+    }
+
+    /**
+     * Time |observer| spends per callback, in microseconds, to spot slow handlers.
+     */
+    public LatencyHistogram getDispatchLatency(SignalingChannelObserver observer) {
+        return signalingChannelObservers.getDispatchLatency(observer);
+    }
+
+    /**
+     * Hand messages from different peers to observers round robin instead of in arrival
+     * order, so one peer's burst does not hold up the others. Only matters with a dispatch
+     * executor; on by default.
+     */
+    public void setPerPeerDispatch(boolean perPeer) {
+        inboundDispatcher.setPerPeer(perPeer);
+    }
+
+    /**
+     * Traffic with each peer this channel has exchanged messages with, by peer id.
+     */
+    public Map<String, PeerTrafficStats> getPeerStats() {
+        return Collections.unmodifiableMap(peerStats);
+    }
+
+    private PeerTrafficStats statsFor(String peerId) {
+        PeerTrafficStats stats = peerStats.get(peerId);
+        if (stats == null) {
+            PeerTrafficStats created = new PeerTrafficStats();
+            stats = peerStats.putIfAbsent(peerId, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private void dispatchMessage(String from, String message) {
+        statsFor(from).onReceived(message);
+        inboundDispatcher.dispatch(from, message);
     }
 
     @Override
     public void addObserver(SignalingChannelObserver observer) {
-        this.signalingChannelObservers.add(observer);
+        signalingChannelObservers.add(observer);
     }
 
     @Override
     public void removeObserver(SignalingChannelObserver observer) {
-        this.signalingChannelObservers.remove(observer);
+        signalingChannelObservers.remove(observer);
     }
 
     @Override
@@ -172,29 +515,42 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
         JSONObject loginObject;
         String token;
         String url;
+        String query;
         try {
             connectCallback = callback;
             loginObject = new JSONObject(userInfo);
             token = URLEncoder.encode(loginObject.getString("token"), "UTF-8");
             url = loginObject.getString("host");
-            url += "?token=" + token + CLIENT_TYPE + CLIENT_TYPE_VALUE
+            query = "token=" + token + CLIENT_TYPE + CLIENT_TYPE_VALUE
                     + CLIENT_VERSION + CLIENT_VERSION_VALUE;
-            if (!isValid(url)) {
+            if (!isValid(url + "?" + query)) {
                 callback.onFailure(new IcsError(P2P_CLIENT_ILLEGAL_ARGUMENT.value, "Invalid URL"));
                 return;
             }
             IO.Options opt = new IO.Options();
             opt.forceNew = true;
-            opt.reconnection = true;
-            opt.reconnectionDelay = 1000;
-            opt.reconnectionDelayMax = 2000;
-            if (socketIOClient != null) {
-                Log.d(TAG, "stop reconnecting the former url");
-                socketIOClient.disconnect();
+            opt.reconnection = false;
+            // Passed as an option rather than in the URL, which Engine.IO would re-read on
+            // every attempt, so reconnections can add the resume token.
+            opt.query = query;
+            synchronized (reconnectLock) {
+                cancelPendingReconnect();
+                if (socketIOClient != null) {
+                    Log.d(TAG, "stop reconnecting the former url");
+                    socketIOClient.disconnect();
+                }
+                reconnection = true;
+                reconnectAttempt = 0;
+                reconnectPolicy.reset();
+                disconnectedAtNanos = 0;
+                sessionResumption.clear();
+                loginQuery = query;
+                socketOptions = opt;
+                socketIOClient = IO.socket(url, opt);
+                bindCallbacks();
+                connectStartNanos = System.nanoTime();
+                socketIOClient.connect();
             }
-            socketIOClient = IO.socket(url, opt);
-            bindCallbacks();
-            socketIOClient.connect();
 
         } catch (JSONException e) {
             if (callback != null) {
@@ -211,6 +567,14 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
         }
     }
 
+    /**
+     * Milliseconds between the last {@link #connect} call and the matching
+     * server-authenticated event, or -1 if the channel has not authenticated yet.
+     */
+    public long getLastConnectLatencyMs() {
+        return lastConnectLatencyMs;
+    }
+
     private boolean isValid(String urlString) {
         try {
             URL url = new URL(urlString);
@@ -229,40 +593,24 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
                       .on(FORCE_DISCONNECT, onForceDisconnectCallback)
                       .on(Socket.EVENT_CONNECT_ERROR, onConnectFailedCallback)
                       .on(Socket.EVENT_DISCONNECT, onDisconnectCallback)
-                      .on(Socket.EVENT_ERROR, onServerErrorCallback)
-                      .on(Socket.EVENT_RECONNECT, onReconnect)
-                      .on(Socket.EVENT_RECONNECT_ATTEMPT, onReconnectAttempt)
-                      .on(Socket.EVENT_RECONNECTING, onServerReconnecting);
+                      .on(Socket.EVENT_ERROR, onServerErrorCallback);
     }
 
-    private Listener onReconnectAttempt = new Listener() {
-        @Override
-        public void call(Object... arg0) {
-
-//            JSONObject argumentJsonObject = (JSONObject) arg0[0];
-//            LogAndToast.log("onReconnectAttempt : ");
-        }
-    };
-
-    private Listener onReconnect = new Listener() {
-        @Override
-        public void call(Object... arg0) {
-//            JSONObject argumentJsonObject = (JSONObject) arg0[0];
-            LogAndToast.log("onReconnect : ");
-        }
-    };
-
-    private Listener onServerReconnecting = new Listener() {
-        @Override
-        public void call(Object... arg0) {
-//            JSONObject argumentJsonObject = (JSONObject) arg0[0];
-//            LogAndToast.log("onServerReconnecting : ");
-            Log.e(TAG, "onServerReconnecting " );
-        }
-    };
-
     @Override
     public void disconnect() {
+        synchronized (reconnectLock) {
+            reconnection = false;
+            cancelPendingReconnect();
+        }
+        // Upstream stages first, so nothing they release slips into the outbound queue.
+        candidateCoalescer.clear();
+        priorityScheduler.clear();
+        synchronized (sendLock) {
+            authenticated = false;
+            outboundQueue.clear();
+        }
+        payloadCompressor.clear();
+        sessionResumption.clear();
         if (socketIOClient != null) {
             Log.d(TAG, "Socket IO Disconnect.");
             socketIOClient.disconnect();
@@ -270,27 +618,55 @@ public class SocketSignalingChannel implements SignalingChannelInterface {
         }
     }
 
+    /**
+     * Disconnect and stop the channel's scheduler thread for good, e.g. when the activity that
+     * owns it is destroyed. The channel cannot connect again afterwards.
+     */
+    public void dispose() {
+        disconnect();
+        scheduler.shutdownNow();
+        if (dispatchThread != null) {
+            // Lets the callbacks the disconnect queued run first.
+            dispatchThread.shutdown();
+        }
+    }
+
     @Override
     public void sendMessage(String peerId, String message, final ActionCallback<Void> callback) {
-        if (socketIOClient == null) {
-            Log.d(TAG, "socketIOClient is not established.");
-            return;
+        candidateCoalescer.send(peerId, message, statsFor(peerId).onSend(message, callback));
+    }
+
+    private void sendOrQueue(String peerId, String message, ActionCallback<Void> callback) {
+        synchronized (sendLock) {
+            if (socketIOClient == null) {
+                Log.d(TAG, "socketIOClient is not established.");
+                if (callback != null) {
+                    callback.onFailure(new IcsError("Signaling channel is not connected."));
+                }
+                return;
+            }
+            if (!authenticated) {
+                Log.d(TAG, "Signaling channel is reconnecting, queue message to " + peerId);
+                outboundQueue.offer(peerId, message, callback);
+                return;
+            }
+            emitMessage(peerId, message, callback);
         }
+    }
+
+    private void emitMessage(String peerId, String message, ActionCallback<Void> callback) {
         JSONObject jsonObject = new JSONObject();
         try {
             jsonObject.put("to", peerId);
             jsonObject.put("data", message);
+            final ActionCallback<Void> ackCallback = ackTracker.track(callback);
             socketIOClient.emit(CLIENT_CHAT_TYPE, jsonObject, new Ack() {
                 @Override
                 public void call(Object... args) {
                     if (args == null || args.length != 0) {
-                        if (callback != null) {
-                            callback.onFailure(new IcsError("Failed to send message."));
-                        }
+                        ackCallback.onFailure(new IcsError("Failed to send message."));
                     } else {
-                        if (callback != null) {
-                            callback.onSuccess(null);
-                        }
+                        ackCallback.onSuccess(null);
                     }
                 }
             });
@@ -0,0 +1,718 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample;
+
+import android.util.Log;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsConst;
+import com.intel.webrtc.base.IcsError;
+import com.intel.webrtc.p2p.SignalingChannelInterface;
+import com.intel.webrtc.p2p.sample.signaling_utils.AckTracker;
+import com.intel.webrtc.p2p.sample.signaling_utils.CandidateCoalescer;
+import com.intel.webrtc.p2p.sample.signaling_utils.DecorrelatedJitterBackoff;
+import com.intel.webrtc.p2p.sample.signaling_utils.LatencyHistogram;
+import com.intel.webrtc.p2p.sample.signaling_utils.MessageSender;
+import com.intel.webrtc.p2p.sample.signaling_utils.ObserverRegistry;
+import com.intel.webrtc.p2p.sample.signaling_utils.OutboundMessageQueue;
+import com.intel.webrtc.p2p.sample.signaling_utils.PayloadCompressor;
+import com.intel.webrtc.p2p.sample.signaling_utils.PeerMessageDispatcher;
+import com.intel.webrtc.p2p.sample.signaling_utils.PeerTrafficStats;
+import com.intel.webrtc.p2p.sample.signaling_utils.PriorityMessageScheduler;
+import com.intel.webrtc.p2p.sample.signaling_utils.ReconnectMetrics;
+import com.intel.webrtc.p2p.sample.signaling_utils.ReconnectPolicy;
+import com.intel.webrtc.p2p.sample.signaling_utils.SessionResumption;
+import com.intel.webrtc.p2p.sample.signaling_utils.SignalingEnvelopeCodec;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+import static com.intel.webrtc.p2p.IcsP2PError.P2P_CLIENT_ILLEGAL_ARGUMENT;
+import static com.intel.webrtc.p2p.IcsP2PError.P2P_CONN_SERVER_UNKNOWN;
+
+/**
+ * Raw WebSocket implementation of P2P signaling channel.
+ *
+ * Speaks the same ics-message / server-authenticated / server-disconnect protocol as
+ * {@link SocketSignalingChannel}, but over a single WebSocket, so there is no Engine.IO
+ * handshake or polling-to-websocket upgrade before the server authenticates the client.
+ * Every frame is a JSON text message of the form {"type": event, "data": payload, "ack": id},
+ * where "ack" is only present on client messages that expect an acknowledgement. Messages
+ * sent while the socket is not authenticated, e.g. while reconnecting, are queued and replayed
+ * once it is.
+ */
+public class WebSocketSignalingChannel implements SignalingChannelInterface {
+    private static final String TAG = "ICS-WebSocketClient";
+    private static final int PING_INTERVAL_MS = 25000;
+    private static final int NORMAL_CLOSURE = 1000;
+    private final String CLIENT_CHAT_TYPE = "ics-message";
+    private final String SERVER_AUTHENTICATED = "server-authenticated";
+    private final String FORCE_DISCONNECT = "server-disconnect";
+    private final String ACK = "ack";
+    private final String CLIENT_TYPE = "&clientType=";
+    private final String CLIENT_TYPE_VALUE = "Android";
+    private final String CLIENT_VERSION = "&clientVersion=";
+    private final String CLIENT_VERSION_VALUE = IcsConst.CLIENT_VERSION;
+
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService reconnectExecutor;
+    private final ReconnectMetrics reconnectMetrics = new ReconnectMetrics();
+    private final AckTracker ackTracker;
+    private final OutboundMessageQueue outboundQueue;
+    private final PayloadCompressor payloadCompressor;
+    private final PriorityMessageScheduler priorityScheduler;
+    private final SessionResumption sessionResumption = new SessionResumption();
+    private ReconnectPolicy reconnectPolicy;
+    private ScheduledFuture<?> pendingReconnect;
+    private int reconnectAttempt = 0;
+    private long disconnectedAtNanos;
+    private final ConcurrentHashMap<Integer, ActionCallback<Void>> pendingAcks;
+    private final AtomicInteger ackId = new AtomicInteger();
+    // Frames are read on OkHttp's reader thread and written from any caller, so each side
+    // gets its own codec (and reused buffers), guarded by the codec itself.
+    private final SignalingEnvelopeCodec reader = new SignalingEnvelopeCodec();
+    private final SignalingEnvelopeCodec.Envelope inbound = new SignalingEnvelopeCodec.Envelope();
+    private final SignalingEnvelopeCodec writer = new SignalingEnvelopeCodec();
+    private static final ObserverRegistry.Notification<SignalingChannelObserver>
+            SERVER_DISCONNECTED = new ObserverRegistry.Notification<SignalingChannelObserver>() {
+                @Override
+                public void deliver(SignalingChannelObserver observer) {
+                    observer.onServerDisconnected();
+                }
+            };
+    private final ObserverRegistry<SignalingChannelObserver> signalingChannelObservers =
+            new ObserverRegistry<>();
+    private final ConcurrentHashMap<String, PeerTrafficStats> peerStats =
+            new ConcurrentHashMap<>();
+    private final PeerMessageDispatcher inboundDispatcher = new PeerMessageDispatcher(
+            new PeerMessageDispatcher.Handler() {
+                @Override
+                public void onMessage(final String peerId, final String message,
+                                      long queuedUs) {
+                    statsFor(peerId).onDispatched(queuedUs);
+                    signalingChannelObservers.deliverNow(
+                            new ObserverRegistry.Notification<SignalingChannelObserver>() {
+                                @Override
+                                public void deliver(SignalingChannelObserver observer) {
+                                    observer.onMessage(peerId, message);
+                                }
+                            });
+                }
+            });
+    // Set by useDispatchThread(), shut down by dispose().
+    private ExecutorService dispatchThread;
+    private ActionCallback<String> connectCallback;
+    private WebSocket webSocket;
+    private String url;
+    private boolean authenticated = false;
+    private boolean reconnection = false;
+    private long connectStartNanos;
+    private volatile long lastConnectLatencyMs = -1;
+
+    private final class Listener extends WebSocketListener {
+        @Override
+        public void onMessage(WebSocket socket, String text) {
+            if (!isCurrent(socket)) {
+                return;
+            }
+            String type;
+            String from;
+            String data;
+            String rawData;
+            int ack;
+            boolean error;
+            synchronized (reader) {
+                try {
+                    reader.decode(text, inbound);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Malformed frame: " + e.getMessage());
+                    return;
+                }
+                type = inbound.type;
+                from = inbound.from;
+                data = inbound.data;
+                rawData = inbound.getRawData();
+                ack = inbound.ack;
+                error = inbound.error;
+            }
+            if (CLIENT_CHAT_TYPE.equals(type)) {
+                onChatMessage(from, data);
+            } else if (ACK.equals(type)) {
+                onAck(ack, error);
+            } else if (SERVER_AUTHENTICATED.equals(type)) {
+                onServerAuthenticated(rawData != null ? rawData : data);
+            } else if (FORCE_DISCONNECT.equals(type)) {
+                Log.e(TAG, "onForceDisconnect");
+                synchronized (WebSocketSignalingChannel.this) {
+                    reconnection = false;
+                    cancelPendingReconnect();
+                }
+                // Nothing will be replayed any more.
+                outboundQueue.clear();
+                sessionResumption.clear();
+            } else {
+                Log.w(TAG, "Unknown frame type: " + type);
+            }
+        }
+
+        @Override
+        public void onClosing(WebSocket socket, int code, String reason) {
+            socket.close(NORMAL_CLOSURE, null);
+        }
+
+        @Override
+        public void onClosed(WebSocket socket, int code, String reason) {
+            if (isCurrent(socket)) {
+                onSocketClosed(reason);
+            }
+        }
+
+        @Override
+        public void onFailure(WebSocket socket, Throwable t, Response response) {
+            if (isCurrent(socket)) {
+                onSocketClosed(t.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Initialize the WebSocket client.
+     */
+    WebSocketSignalingChannel() {
+        this(OutboundMessageQueue.DEFAULT_CAPACITY_PER_PEER, OutboundMessageQueue.DEFAULT_TTL_MS);
+    }
+
+    /**
+     * Initialize the WebSocket client.
+     *
+     * @param queueCapacityPerPeer max messages buffered per peer while not authenticated.
+     * @param queueTtlMs how long a buffered message stays eligible for replay.
+     */
+    WebSocketSignalingChannel(int queueCapacityPerPeer, long queueTtlMs) {
+        webSocket = null;
+        connectCallback = null;
+        httpClient = new OkHttpClient.Builder()
+                .pingInterval(PING_INTERVAL_MS, TimeUnit.MILLISECONDS)
+                .build();
+        reconnectExecutor = Executors.newSingleThreadScheduledExecutor();
+        reconnectPolicy = new DecorrelatedJitterBackoff();
+        ackTracker = new AckTracker(reconnectExecutor);
+        outboundQueue = new OutboundMessageQueue(queueCapacityPerPeer, queueTtlMs);
+        payloadCompressor = new PayloadCompressor(socketSender);
+        priorityScheduler = new PriorityMessageScheduler(0, payloadCompressor);
+        pendingAcks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Deliver observer callbacks on |executor| so a slow observer never holds up the socket's
+     * I/O thread. A single-threaded executor keeps each peer's messages in order; null delivers
+     * inline.
+     */
+    public void setDispatchExecutor(Executor executor) {
+        signalingChannelObservers.setDispatchExecutor(executor);
+        inboundDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * Deliver observer callbacks on a single thread the channel owns, which {@link #dispose}
+     * stops, instead of on an executor of the caller's.
+     */
+    public void useDispatchThread() {
+        if (dispatchThread == null) {
+            dispatchThread = Executors.newSingleThreadExecutor();
+            setDispatchExecutor(dispatchThread);
+        }
+    }
+
+    /**
+     * Time |observer| spends per callback, in microseconds, to spot slow handlers.
+     */
+    public LatencyHistogram getDispatchLatency(SignalingChannelObserver observer) {
+        return signalingChannelObservers.getDispatchLatency(observer);
+    }
+
+    /**
+     * Hand messages from different peers to observers round robin instead of in arrival
+     * order, so one peer's burst does not hold up the others. Only matters with a dispatch
+     * executor; on by default.
+     */
+    public void setPerPeerDispatch(boolean perPeer) {
+        inboundDispatcher.setPerPeer(perPeer);
+    }
+
+    /**
+     * Traffic with each peer this channel has exchanged messages with, by peer id.
+     */
+    public Map<String, PeerTrafficStats> getPeerStats() {
+        return Collections.unmodifiableMap(peerStats);
+    }
+
+    private PeerTrafficStats statsFor(String peerId) {
+        PeerTrafficStats stats = peerStats.get(peerId);
+        if (stats == null) {
+            PeerTrafficStats created = new PeerTrafficStats();
+            stats = peerStats.putIfAbsent(peerId, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private void dispatchMessage(String from, String message) {
+        statsFor(from).onReceived(message);
+        inboundDispatcher.dispatch(from, message);
+    }
+
+    @Override
+    public void addObserver(SignalingChannelObserver observer) {
+        signalingChannelObservers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(SignalingChannelObserver observer) {
+        signalingChannelObservers.remove(observer);
+    }
+
+    @Override
+    public void connect(String userInfo, ActionCallback<String> callback) {
+        JSONObject loginObject;
+        String token;
+        try {
+            connectCallback = callback;
+            loginObject = new JSONObject(userInfo);
+            token = URLEncoder.encode(loginObject.getString("token"), "UTF-8");
+            String host = loginObject.getString("host");
+            String query = "?token=" + token + CLIENT_TYPE + CLIENT_TYPE_VALUE
+                    + CLIENT_VERSION + CLIENT_VERSION_VALUE;
+            if (!isValid(host + query)) {
+                callback.onFailure(new IcsError(P2P_CLIENT_ILLEGAL_ARGUMENT.value, "Invalid URL"));
+                return;
+            }
+            if (webSocket != null) {
+                Log.d(TAG, "stop reconnecting the former url");
+                closeSocket();
+            }
+            synchronized (this) {
+                url = toWebSocketUrl(host) + query;
+                sessionResumption.clear();
+                reconnection = true;
+                reconnectAttempt = 0;
+                reconnectPolicy.reset();
+                disconnectedAtNanos = 0;
+                connectStartNanos = System.nanoTime();
+                openSocket();
+            }
+        } catch (JSONException e) {
+            if (callback != null) {
+                callback.onFailure(new IcsError(P2P_CLIENT_ILLEGAL_ARGUMENT.value, e.getMessage()));
+            }
+        } catch (UnsupportedEncodingException e) {
+            if (callback != null) {
+                callback.onFailure(new IcsError(P2P_CLIENT_ILLEGAL_ARGUMENT.value, e.getMessage()));
+            }
+        }
+    }
+
+    private boolean isValid(String urlString) {
+        try {
+            URL url = new URL(urlString);
+            return url.getPort() <= 65535;
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    private String toWebSocketUrl(String host) {
+        if (host.startsWith("https://")) {
+            return "wss://" + host.substring("https://".length());
+        }
+        if (host.startsWith("http://")) {
+            return "ws://" + host.substring("http://".length());
+        }
+        return host;
+    }
+
+    /**
+     * Listener callbacks can arrive before openSocket() has stored the new socket; taking the
+     * lock makes them wait for it.
+     */
+    private synchronized boolean isCurrent(WebSocket socket) {
+        return socket == webSocket;
+    }
+
+    private synchronized void openSocket() {
+        Request request = new Request.Builder().url(sessionResumption.appendTo(url)).build();
+        webSocket = httpClient.newWebSocket(request, new Listener());
+    }
+
+    private synchronized void closeSocket() {
+        cancelPendingReconnect();
+        if (webSocket != null) {
+            WebSocket socket = webSocket;
+            webSocket = null;
+            socket.close(NORMAL_CLOSURE, null);
+        }
+        authenticated = false;
+        failPendingAcks();
+    }
+
+    /**
+     * Milliseconds between the last {@link #connect} call and the matching
+     * server-authenticated event, or -1 if the channel has not authenticated yet.
+     */
+    public long getLastConnectLatencyMs() {
+        return lastConnectLatencyMs;
+    }
+
+    /**
+     * Replace the backoff used between reconnection attempts.
+     */
+    public synchronized void setReconnectPolicy(ReconnectPolicy policy) {
+        reconnectPolicy = policy;
+    }
+
+    public ReconnectMetrics getReconnectMetrics() {
+        return reconnectMetrics;
+    }
+
+    /**
+     * Fail a message's callback if the server has not acked it within |timeoutMs|.
+     */
+    public void setAckTimeout(long timeoutMs) {
+        ackTracker.setTimeoutMs(timeoutMs);
+    }
+
+    /**
+     * Server ack latency of sent messages (p50/p95/p99 via its histogram) and timeout counts.
+     */
+    public AckTracker getAckTracker() {
+        return ackTracker;
+    }
+
+    /**
+     * Messages sent while the channel is connecting or reconnecting are buffered here and
+     * replayed once the server authenticates the client again; it also counts queued, dropped
+     * and replayed ones.
+     */
+    public OutboundMessageQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    /**
+     * Let at most |maxInFlight| messages wait for their server ack and hold the rest in
+     * priority lanes picked by |classifier| (null for the default), so call control overtakes
+     * chat and keepalives when the connection backs up. 0, the default, sends every message
+     * right away.
+     */
+    public void setPriorityScheduling(int maxInFlight,
+                                      PriorityMessageScheduler.Classifier classifier) {
+        priorityScheduler.setClassifier(classifier);
+        priorityScheduler.setMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Per-lane sent and dropped counts and queueing delay.
+     */
+    public PriorityMessageScheduler getPriorityScheduler() {
+        return priorityScheduler;
+    }
+
+    /**
+     * Deflate SDP-sized messages to peers that negotiate it on chat-ua; others keep getting
+     * plain text. Off by default.
+     */
+    public void setPayloadCompression(boolean enabled) {
+        payloadCompressor.setEnabled(enabled);
+    }
+
+    /**
+     * How many messages went out compressed and how many bytes that saved.
+     */
+    public PayloadCompressor getPayloadCompressor() {
+        return payloadCompressor;
+    }
+
+    /**
+     * Tell the channel the device has a usable network again. If it is waiting to reconnect,
+     * the pending backoff is skipped and it reconnects right away.
+     */
+    public synchronized void onNetworkAvailable() {
+        if (!reconnection || webSocket != null) {
+            return;
+        }
+        Log.d(TAG, "Network available, reconnect now");
+        cancelPendingReconnect();
+        reconnectAttempt = 0;
+        reconnectPolicy.reset();
+        reconnectMetrics.onFastPath();
+        pendingReconnect = reconnectExecutor.schedule(reconnectTask, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WebSocketSignalingChannel.this) {
+                pendingReconnect = null;
+                if (reconnection && webSocket == null) {
+                    Log.e(TAG, "onServerReconnecting, attempt " + reconnectAttempt);
+                    reconnectMetrics.onAttempt();
+                    connectStartNanos = System.nanoTime();
+                    openSocket();
+                }
+            }
+        }
+    };
+
+    private synchronized void scheduleReconnect() {
+        if (!reconnection || pendingReconnect != null) {
+            return;
+        }
+        long delay = reconnectPolicy.nextDelayMs(++reconnectAttempt);
+        if (delay < 0) {
+            Log.e(TAG, "Giving up reconnecting after " + (reconnectAttempt - 1) + " attempts");
+            reconnectMetrics.onGaveUp();
+            return;
+        }
+        pendingReconnect = reconnectExecutor.schedule(reconnectTask, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPendingReconnect() {
+        if (pendingReconnect != null) {
+            pendingReconnect.cancel(false);
+            pendingReconnect = null;
+        }
+    }
+
+    private void onServerAuthenticated(String data) {
+        Log.e(TAG, "onServerAuthenticated");
+        boolean resumed = sessionResumption.onAuthenticated(data);
+        synchronized (this) {
+            authenticated = true;
+            // Under the lock, so new messages cannot overtake the replayed ones.
+            outboundQueue.replay(socketSender);
+            reconnectAttempt = 0;
+            reconnectPolicy.reset();
+            if (disconnectedAtNanos != 0) {
+                long timeToReconnectMs = TimeUnit.NANOSECONDS.toMillis(
+                        System.nanoTime() - disconnectedAtNanos);
+                reconnectMetrics.onReconnected(timeToReconnectMs, resumed);
+                disconnectedAtNanos = 0;
+                if (resumed) {
+                    Log.d(TAG, "Session resumed in " + timeToReconnectMs + " ms, full "
+                            + "reconnects average "
+                            + reconnectMetrics.getMeanTimeToFullReconnectMs() + " ms");
+                }
+            }
+        }
+        if (connectStartNanos != 0) {
+            lastConnectLatencyMs = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - connectStartNanos);
+            connectStartNanos = 0;
+            Log.d(TAG, "Authenticated in " + lastConnectLatencyMs + " ms");
+        }
+        // onServerDisconnected took P2PClient down with the connection; only a connect success
+        // brings it back, whether or not the session was resumed.
+        if (connectCallback != null) {
+            connectCallback.onSuccess(data == null ? "" : data);
+        }
+    }
+
+    private void onChatMessage(String from, String data) {
+        Log.e(TAG, "onMessageCallback: ");
+        if (from == null || data == null) {
+            Log.e(TAG, "Malformed ics-message frame");
+            return;
+        }
+        List<String> messages = CandidateCoalescer.unpack(payloadCompressor.receive(from, data));
+        for (String message : messages) {
+            dispatchMessage(from, message);
+        }
+    }
+
+    private void onAck(int id, boolean error) {
+        ActionCallback<Void> callback = pendingAcks.remove(id);
+        if (callback == null) {
+            return;
+        }
+        if (error) {
+            callback.onFailure(new IcsError("Failed to send message."));
+        } else {
+            callback.onSuccess(null);
+        }
+    }
+
+    private void onSocketClosed(String reason) {
+        Log.e(TAG, "onSocketClosed: " + reason);
+        boolean wasAuthenticated;
+        synchronized (this) {
+            wasAuthenticated = authenticated;
+            webSocket = null;
+            authenticated = false;
+            if (wasAuthenticated) {
+                disconnectedAtNanos = System.nanoTime();
+            }
+        }
+        failPendingAcks();
+        if (!wasAuthenticated && connectCallback != null) {
+            connectCallback.onFailure(
+                    new IcsError(P2P_CONN_SERVER_UNKNOWN.value, "connect failed"));
+        }
+        if (wasAuthenticated) {
+            signalingChannelObservers.dispatch(SERVER_DISCONNECTED);
+        }
+        scheduleReconnect();
+    }
+
+    private void failPendingAcks() {
+        for (Integer id : pendingAcks.keySet()) {
+            ActionCallback<Void> callback = pendingAcks.remove(id);
+            if (callback != null) {
+                callback.onFailure(new IcsError("Failed to send message."));
+            }
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        synchronized (this) {
+            reconnection = false;
+            cancelPendingReconnect();
+        }
+        // Upstream stages first, so nothing they release slips into the outbound queue.
+        priorityScheduler.clear();
+        outboundQueue.clear();
+        payloadCompressor.clear();
+        sessionResumption.clear();
+        if (webSocket != null) {
+            Log.d(TAG, "WebSocket Disconnect.");
+            closeSocket();
+        }
+    }
+
+    /**
+     * Disconnect and stop the channel's reconnect thread for good, e.g. when the activity that
+     * owns it is destroyed. The channel cannot connect again afterwards.
+     */
+    public void dispose() {
+        disconnect();
+        reconnectExecutor.shutdownNow();
+        if (dispatchThread != null) {
+            // Lets the callbacks the disconnect queued run first.
+            dispatchThread.shutdown();
+        }
+    }
+
+    /**
+     * A timed-out message never gets its ack frame, so drop its entry when it completes.
+     */
+    private ActionCallback<Void> forgetOnCompletion(final int id,
+                                                    final ActionCallback<Void> callback) {
+        return new ActionCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                pendingAcks.remove(id);
+                if (callback != null) {
+                    callback.onSuccess(null);
+                }
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                pendingAcks.remove(id);
+                if (callback != null) {
+                    callback.onFailure(error);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void sendMessage(String peerId, String message, final ActionCallback<Void> callback) {
+        priorityScheduler.send(peerId, message, statsFor(peerId).onSend(message, callback));
+    }
+
+    private MessageSender socketSender = new MessageSender() {
+        @Override
+        public void send(String peerId, String message, ActionCallback<Void> callback) {
+            sendFrame(peerId, message, callback);
+        }
+    };
+
+    private void sendFrame(String peerId, String message, ActionCallback<Void> callback) {
+        WebSocket socket;
+        synchronized (this) {
+            // The server drops frames from a socket it has not authenticated yet.
+            if (reconnection && !authenticated) {
+                Log.d(TAG, "Signaling channel is reconnecting, queue message to " + peerId);
+                outboundQueue.offer(peerId, message, callback);
+                return;
+            }
+            socket = authenticated ? webSocket : null;
+        }
+        if (socket == null) {
+            Log.d(TAG, "webSocket is not established.");
+            if (callback != null) {
+                callback.onFailure(new IcsError("Signaling channel is not connected."));
+            }
+            return;
+        }
+        int id = ackId.incrementAndGet();
+        String frame;
+        synchronized (writer) {
+            frame = writer.encodeMessage(peerId, message, id);
+        }
+        pendingAcks.put(id, ackTracker.track(forgetOnCompletion(id, callback)));
+        if (!socket.send(frame)) {
+            ActionCallback<Void> ackCallback = pendingAcks.remove(id);
+            if (ackCallback != null) {
+                ackCallback.onFailure(new IcsError("Failed to send message."));
+            }
+        }
+    }
+}
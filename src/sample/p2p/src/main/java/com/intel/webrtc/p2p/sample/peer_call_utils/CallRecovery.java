@@ -0,0 +1,262 @@
+package com.intel.webrtc.p2p.sample.peer_call_utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recovers a call whose media path dropped, cheapest path first. When connectivity is lost
+ * it asks for an ICE restart, which keeps the PeerConnection, its tracks and publications.
+ * If connectivity is not back within the deadline, or the remote stream ends meanwhile, it
+ * falls back to a full republish. A republish whose remote stream does not arrive within its
+ * own deadline, e.g. because the peer is gone, is given up, so the next loss starts a fresh
+ * attempt. The time from the loss to the recovery is recorded per path so the two can be
+ * compared.
+ *
+ * Events are posted to the given executor, normally the one the {@link CallSupervisor} uses,
+ * so an attempt is never raced by its own deadline.
+ */
+public final class CallRecovery {
+    public static final long DEFAULT_ICE_RESTART_DEADLINE_MS = 5000;
+    public static final long DEFAULT_REPUBLISH_DEADLINE_MS = 15000;
+
+    public enum Path {
+        ICE_RESTART, REPUBLISH
+    }
+
+    /**
+     * Called on the recovery executor.
+     */
+    public interface Actions {
+        /**
+         * @return false if an ICE restart cannot be attempted; the republish path runs instead.
+         */
+        boolean restartIce();
+
+        void republish();
+    }
+
+    public interface Listener {
+        void onRecovered(Path path, long recoveryMs);
+    }
+
+    private static final class PathStats {
+        long recoveries;
+        long totalMs;
+        long lastMs = -1;
+        long failures;
+    }
+
+    private final ScheduledExecutorService executor;
+    private final Actions actions;
+    private final Listener listener;
+    private final Map<Path, PathStats> stats = new EnumMap<>(Path.class);
+    private volatile long iceRestartDeadlineMs = DEFAULT_ICE_RESTART_DEADLINE_MS;
+    private volatile long republishDeadlineMs = DEFAULT_REPUBLISH_DEADLINE_MS;
+    // The attempt in progress: null when the call is healthy.
+    private Path path;
+    private long lostAtNanos;
+    private ScheduledFuture<?> deadline;
+
+    public CallRecovery(ScheduledExecutorService executor, Actions actions, Listener listener) {
+        this.executor = executor;
+        this.actions = actions;
+        this.listener = listener;
+        for (Path each : Path.values()) {
+            stats.put(each, new PathStats());
+        }
+    }
+
+    public void setIceRestartDeadlineMs(long iceRestartDeadlineMs) {
+        if (iceRestartDeadlineMs <= 0) {
+            throw new IllegalArgumentException("ICE restart deadline must be positive");
+        }
+        this.iceRestartDeadlineMs = iceRestartDeadlineMs;
+    }
+
+    public void setRepublishDeadlineMs(long republishDeadlineMs) {
+        if (republishDeadlineMs <= 0) {
+            throw new IllegalArgumentException("Republish deadline must be positive");
+        }
+        this.republishDeadlineMs = republishDeadlineMs;
+    }
+
+    /**
+     * The media path stopped answering; try an ICE restart unless recovery is under way.
+     */
+    public void onConnectivityLost() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (path != null) {
+                    return;
+                }
+                lostAtNanos = System.nanoTime();
+                if (!actions.restartIce()) {
+                    fallBack();
+                    return;
+                }
+                path = Path.ICE_RESTART;
+                deadline = executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (path == Path.ICE_RESTART) {
+                            fallBack();
+                        }
+                    }
+                }, iceRestartDeadlineMs, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * The media path answers again, which completes an ICE restart.
+     */
+    public void onConnectivityRestored() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (path == Path.ICE_RESTART) {
+                    finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * The remote stream ended, which an ICE restart cannot bring back. Starts a republish
+     * attempt, or turns a running ICE restart into one.
+     */
+    public void onRemoteStreamEnded() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (path == Path.REPUBLISH) {
+                    return;
+                }
+                if (path == null) {
+                    lostAtNanos = System.nanoTime();
+                }
+                fallBack();
+            }
+        });
+    }
+
+    /**
+     * A remote stream arrived, which completes a republish.
+     */
+    public void onRemoteStreamAdded() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (path == Path.REPUBLISH) {
+                    finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * Abandon the attempt in progress, e.g. when the call is hung up.
+     */
+    public void cancel() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                cancelDeadline();
+                path = null;
+            }
+        });
+    }
+
+    public long getRecoveries(Path path) {
+        synchronized (stats) {
+            return stats.get(path).recoveries;
+        }
+    }
+
+    /**
+     * @return how many attempts on |path| ran out of time.
+     */
+    public long getFailures(Path path) {
+        synchronized (stats) {
+            return stats.get(path).failures;
+        }
+    }
+
+    /**
+     * @return the mean time from losing the media path to recovering it, or -1 if |path| has
+     * not recovered a call yet.
+     */
+    public long getMeanRecoveryMs(Path path) {
+        synchronized (stats) {
+            PathStats pathStats = stats.get(path);
+            return pathStats.recoveries == 0 ? -1 : pathStats.totalMs / pathStats.recoveries;
+        }
+    }
+
+    public long getLastRecoveryMs(Path path) {
+        synchronized (stats) {
+            return stats.get(path).lastMs;
+        }
+    }
+
+    private void fallBack() {
+        cancelDeadline();
+        if (path == Path.ICE_RESTART) {
+            synchronized (stats) {
+                stats.get(Path.ICE_RESTART).failures++;
+            }
+        }
+        path = Path.REPUBLISH;
+        deadline = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (path == Path.REPUBLISH) {
+                    giveUp();
+                }
+            }
+        }, republishDeadlineMs, TimeUnit.MILLISECONDS);
+        actions.republish();
+    }
+
+    private void giveUp() {
+        cancelDeadline();
+        path = null;
+        synchronized (stats) {
+            stats.get(Path.REPUBLISH).failures++;
+        }
+    }
+
+    private void finish() {
+        cancelDeadline();
+        long recoveryMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lostAtNanos);
+        Path recovered = path;
+        path = null;
+        synchronized (stats) {
+            PathStats pathStats = stats.get(recovered);
+            pathStats.recoveries++;
+            pathStats.totalMs += recoveryMs;
+            pathStats.lastMs = recoveryMs;
+        }
+        listener.onRecovered(recovered, recoveryMs);
+    }
+
+    private void cancelDeadline() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+    }
+
+    private void post(Runnable event) {
+        try {
+            executor.execute(event);
+        } catch (RejectedExecutionException e) {
+            // Shut down; the event is dropped.
+        }
+    }
+}
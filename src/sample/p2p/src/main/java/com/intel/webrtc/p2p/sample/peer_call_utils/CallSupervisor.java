@@ -0,0 +1,259 @@
+package com.intel.webrtc.p2p.sample.peer_call_utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Call state machine for the sample activities. Every event is posted to one scheduled
+ * executor, the same one the activity uses for its P2PClient calls, so state changes and
+ * periodic ticks never race with each other. Ticks are started and cancelled by state
+ * transitions instead of by hand:
+ * <ul>
+ * <li>{@link Tick#PING} runs in call, and while recovering when the signaling server is
+ * connected, as the {@link PeerHeartbeat} beat.</li>
+ * <li>{@link Tick#STREAM_REQUEST} runs while recovering, but only when the signaling server
+ * is connected.</li>
+ * </ul>
+ * A tick with no interval set never runs. Nothing here touches Android, so it runs as is on
+ * a plain JVM.
+ */
+public final class CallSupervisor {
+
+    public enum State {
+        IDLE, CONNECTING, PUBLISHING, IN_CALL, RECOVERING, ENDED
+    }
+
+    public enum Tick {
+        PING, STREAM_REQUEST
+    }
+
+    /**
+     * Called on the supervisor's executor.
+     */
+    public interface Listener {
+        void onStateChanged(State previous, State current);
+
+        void onTick(Tick tick);
+    }
+
+    private final ScheduledExecutorService executor;
+    private final Listener listener;
+    private final Map<Tick, Long> intervalsMs = new EnumMap<>(Tick.class);
+    private final Map<Tick, ScheduledFuture<?>> ticks = new EnumMap<>(Tick.class);
+    private volatile State state = State.IDLE;
+    private boolean serverConnected = false;
+
+    public CallSupervisor(ScheduledExecutorService executor, Listener listener) {
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * True from publishing until the call ends, including while recovering.
+     */
+    public boolean isInCall() {
+        State current = state;
+        return current == State.PUBLISHING || current == State.IN_CALL
+                || current == State.RECOVERING;
+    }
+
+    /**
+     * Run |tick| every |intervalMs| while the call is in a state that wants it; 0 disables it.
+     */
+    public void setTickInterval(final Tick tick, final long intervalMs) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                intervalsMs.put(tick, intervalMs);
+                cancelTick(tick);
+                updateTicks();
+            }
+        });
+    }
+
+    public void connect() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                serverConnected = false;
+                if (state == State.IDLE || state == State.ENDED) {
+                    moveTo(State.CONNECTING);
+                } else {
+                    updateTicks();
+                }
+            }
+        });
+    }
+
+    public void onConnected() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                serverConnected = true;
+                if (state == State.CONNECTING) {
+                    moveTo(State.IDLE);
+                } else {
+                    updateTicks();
+                }
+            }
+        });
+    }
+
+    public void onConnectFailed() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                serverConnected = false;
+                if (state == State.CONNECTING) {
+                    moveTo(State.IDLE);
+                }
+            }
+        });
+    }
+
+    /**
+     * Signaling went away. P2PClient closes every PeerConnection with it, so a call in
+     * progress starts recovering, and the ticks pause until {@link #onConnected()}.
+     */
+    public void onServerDisconnected() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                serverConnected = false;
+                if (state == State.PUBLISHING || state == State.IN_CALL) {
+                    moveTo(State.RECOVERING);
+                } else {
+                    updateTicks();
+                }
+            }
+        });
+    }
+
+    public void publish() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.CONNECTING) {
+                    moveTo(State.PUBLISHING);
+                }
+            }
+        });
+    }
+
+    /**
+     * A failed publish leaves the call recovering rather than idle, so the peer keeps being
+     * asked for its stream and a restart publishes again.
+     */
+    public void onPublished(final boolean succeeded) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (state == State.PUBLISHING) {
+                    moveTo(succeeded ? State.IN_CALL : State.RECOVERING);
+                }
+            }
+        });
+    }
+
+    public void onRemoteStreamAdded() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (state == State.IDLE || state == State.RECOVERING) {
+                    moveTo(State.IN_CALL);
+                }
+            }
+        });
+    }
+
+    public void onRemoteStreamEnded() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (state == State.PUBLISHING || state == State.IN_CALL) {
+                    moveTo(State.RECOVERING);
+                }
+            }
+        });
+    }
+
+    public void hangUp() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                moveTo(State.ENDED);
+            }
+        });
+    }
+
+    /**
+     * Cancel every tick and stop the executor; later events are dropped.
+     */
+    public void shutdown() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                for (Tick tick : Tick.values()) {
+                    cancelTick(tick);
+                }
+                executor.shutdown();
+            }
+        });
+    }
+
+    private void post(Runnable event) {
+        try {
+            executor.execute(event);
+        } catch (RejectedExecutionException e) {
+            // Shut down; the event is dropped.
+        }
+    }
+
+    private void moveTo(State next) {
+        State previous = state;
+        if (previous == next) {
+            return;
+        }
+        state = next;
+        updateTicks();
+        listener.onStateChanged(previous, next);
+    }
+
+    private void updateTicks() {
+        boolean recovering = state == State.RECOVERING;
+        setTickRunning(Tick.STREAM_REQUEST, recovering && serverConnected);
+        setTickRunning(Tick.PING, state == State.IN_CALL || recovering && serverConnected);
+    }
+
+    private void setTickRunning(final Tick tick, boolean running) {
+        Long intervalMs = intervalsMs.get(tick);
+        if (!running || intervalMs == null || intervalMs <= 0) {
+            cancelTick(tick);
+            return;
+        }
+        if (ticks.containsKey(tick)) {
+            return;
+        }
+        ticks.put(tick, executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                listener.onTick(tick);
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS));
+    }
+
+    private void cancelTick(Tick tick) {
+        ScheduledFuture<?> future = ticks.remove(tick);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.intel.webrtc.p2p.sample.peer_call_utils;
+
+import android.util.Log;
+
+import com.intel.webrtc.p2p.P2PClient;
+
+import org.webrtc.MediaConstraints;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * Restarts ICE on the PeerConnection P2PClient already has with a peer, keeping its tracks and
+ * publications. The SDK has no public hook for this and the bundled WebRTC predates
+ * PeerConnection.restartIce(), so the IceRestart offer constraint is set on the peer's channel
+ * and a renegotiation is requested; whichever side is the caller then creates the offer with
+ * fresh ICE credentials on the same connection. The remote side has to do the same on its own
+ * channel when it is the caller, which it will once its heartbeat also misses.
+ */
+public final class IceRestarter {
+    private static final String TAG = "IceRestarter";
+    private static final MediaConstraints.KeyValuePair ICE_RESTART =
+            new MediaConstraints.KeyValuePair("IceRestart", "true");
+
+    private IceRestarter() {
+    }
+
+    /**
+     * @return false if there is no connection with |peerId| to restart, or the SDK no longer
+     * looks the way this expects; the caller should fall back to a full renegotiation then.
+     */
+    public static boolean restartIce(P2PClient client, String peerId) {
+        MediaConstraints constraints = offerConstraints(client, peerId);
+        if (constraints == null) {
+            return false;
+        }
+        if (!constraints.mandatory.contains(ICE_RESTART)) {
+            constraints.mandatory.add(ICE_RESTART);
+        }
+        client.onRenegotiationRequest(peerId);
+        return true;
+    }
+
+    /**
+     * Stop asking for new ICE credentials, so later renegotiations with |peerId| keep the
+     * current ones. Call once the restart has worked or been given up on.
+     */
+    public static void clearIceRestart(P2PClient client, String peerId) {
+        MediaConstraints constraints = offerConstraints(client, peerId);
+        if (constraints != null) {
+            constraints.mandatory.remove(ICE_RESTART);
+        }
+    }
+
+    private static MediaConstraints offerConstraints(P2PClient client, String peerId) {
+        try {
+            Object channel = ((Map<?, ?>) readField(client, "pcChannels")).get(peerId);
+            return channel == null ? null : (MediaConstraints) readField(channel, "sdpConstraints");
+        } catch (NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+            Log.e(TAG, "ICE restart is not available: " + e);
+            return null;
+        }
+    }
+
+    private static Object readField(Object target, String name)
+            throws NoSuchFieldException, IllegalAccessException {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (NoSuchFieldException e) {
+                // Declared further up.
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+}
@@ -1,6 +1,9 @@
 package com.intel.webrtc.p2p.sample.peer_call_utils;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 
@@ -13,4 +16,23 @@ public class InternetConnectionManager {
         return networkInfo != null && networkInfo.isAvailable() &&
                 networkInfo.isConnected();
     }
+
+    /**
+     * Run |onAvailable| whenever connectivity changes and the device is online afterwards.
+     * Unregister the returned receiver with {@link Context#unregisterReceiver}.
+     */
+    public static BroadcastReceiver registerNetworkAvailableListener(Context context,
+                                                                     final Runnable onAvailable) {
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (isInternetAvailable(context)) {
+                    onAvailable.run();
+                }
+            }
+        };
+        context.registerReceiver(receiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        return receiver;
+    }
 }
@@ -0,0 +1,185 @@
+package com.intel.webrtc.p2p.sample.peer_call_utils;
+
+import android.util.Log;
+
+import com.intel.webrtc.base.IcsVideoCapturer;
+import com.intel.webrtc.base.LocalStream;
+import com.intel.webrtc.base.MediaConstraints;
+
+import org.webrtc.RendererCommon;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.intel.webrtc.base.MediaConstraints.VideoTrackConstraints.CameraFacing.BACK;
+import static com.intel.webrtc.base.MediaConstraints.VideoTrackConstraints.CameraFacing.FRONT;
+
+/**
+ * Owns the call's camera capturer and local stream, and can build them ahead of the call.
+ * Opening the camera and starting a 1280x720 capture otherwise sits on the time-to-first-frame
+ * path of every call. With pre-warming enabled, {@link #prewarm(boolean)} builds both right
+ * after signaling login and parks them, still capturing, so {@link #take(boolean)} hands them
+ * over at call setup and only the publish is left. The price is a camera that runs while no
+ * call is up, which is why it is optional.
+ *
+ * It logs how long each build took and whether it was on the call's critical path, and,
+ * through {@link #firstFrameEvents()}, the time from {@link #onCallStarted()} to the first
+ * local frame, so warm and cold call setups can be compared.
+ */
+public final class LocalMediaPrewarmer {
+    private static final String TAG = "LocalMediaPrewarmer";
+
+    private final boolean enabled;
+    private IcsVideoCapturer capturer;
+    private LocalStream localStream;
+    private boolean cameraFront;
+    // How long the parked stream took to build; 0 once it has been taken.
+    private long parkedBuildMs;
+    private volatile long callStartedAtNanos;
+    private volatile boolean callStartedWarm;
+
+    private long warmCalls;
+    private long coldCalls;
+    private long savedMs;
+    private long warmFirstFrameMs;
+    private long coldFirstFrameMs;
+
+    public LocalMediaPrewarmer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Build the capturer and local stream now and park them, unless pre-warming is disabled
+     * or they are already up with the same camera. Blocks while the camera opens, so call it
+     * off the UI thread.
+     */
+    public synchronized void prewarm(boolean cameraFront) {
+        if (!enabled || (localStream != null && this.cameraFront == cameraFront)) {
+            return;
+        }
+        release();
+        parkedBuildMs = build(cameraFront);
+        Log.d(TAG, "pre-warmed local media in " + parkedBuildMs + " ms");
+    }
+
+    /**
+     * Hand over the local stream for a call, building it now if nothing suitable is parked.
+     * Whatever is returned stays owned here until {@link #release()}.
+     */
+    public synchronized LocalStream take(boolean cameraFront) {
+        boolean warm = localStream != null && this.cameraFront == cameraFront
+                && parkedBuildMs > 0;
+        if (warm) {
+            warmCalls++;
+            savedMs += parkedBuildMs;
+            Log.d(TAG, "call setup used pre-warmed media, saved " + parkedBuildMs + " ms");
+        } else if (localStream == null || this.cameraFront != cameraFront) {
+            release();
+            long buildMs = build(cameraFront);
+            coldCalls++;
+            Log.d(TAG, "call setup built local media in " + buildMs + " ms");
+        } else {
+            // Still in use by an earlier call setup; neither warm nor cold.
+            callStartedAtNanos = 0;
+        }
+        parkedBuildMs = 0;
+        callStartedWarm = warm;
+        return localStream;
+    }
+
+    public synchronized IcsVideoCapturer getCapturer() {
+        return capturer;
+    }
+
+    /**
+     * Stop the camera and dispose of the local stream.
+     */
+    public synchronized void release() {
+        if (capturer != null) {
+            capturer.stopCapture();
+            capturer.dispose();
+            capturer = null;
+        }
+        if (localStream != null) {
+            localStream.dispose();
+            localStream = null;
+        }
+        parkedBuildMs = 0;
+    }
+
+    /**
+     * Mark the start of call setup, the point time-to-first-frame is measured from.
+     */
+    public void onCallStarted() {
+        callStartedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Events to pass to the local renderer's init(); the first frame it renders after
+     * {@link #onCallStarted()} is logged as the call's time to first frame.
+     */
+    public RendererCommon.RendererEvents firstFrameEvents() {
+        return new RendererCommon.RendererEvents() {
+            @Override
+            public void onFirstFrameRendered() {
+                long startedAt = callStartedAtNanos;
+                if (startedAt == 0) {
+                    return;
+                }
+                callStartedAtNanos = 0;
+                onFirstFrame(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+            }
+
+            @Override
+            public void onFrameResolutionChanged(int width, int height, int rotation) {
+            }
+        };
+    }
+
+    private synchronized void onFirstFrame(long firstFrameMs) {
+        if (callStartedWarm) {
+            warmFirstFrameMs += firstFrameMs;
+        } else {
+            coldFirstFrameMs += firstFrameMs;
+        }
+        Log.d(TAG, "time to first local frame " + firstFrameMs + " ms ("
+                + (callStartedWarm ? "pre-warmed" : "cold") + "); mean pre-warmed "
+                + mean(warmFirstFrameMs, warmCalls) + " ms, cold "
+                + mean(coldFirstFrameMs, coldCalls) + " ms");
+    }
+
+    /**
+     * @return total build time moved off call setup by pre-warming.
+     */
+    public synchronized long getSavedMs() {
+        return savedMs;
+    }
+
+    public synchronized long getWarmCalls() {
+        return warmCalls;
+    }
+
+    public synchronized long getColdCalls() {
+        return coldCalls;
+    }
+
+    private long build(boolean cameraFront) {
+        long startNanos = System.nanoTime();
+        MediaConstraints.VideoTrackConstraints vmc = MediaConstraints.VideoTrackConstraints
+                .create(true)
+                .setCameraFacing(cameraFront ? FRONT : BACK)
+                .setResolution(1280, 720)
+                .setFramerate(30);
+        capturer = new IcsVideoCapturer(vmc);
+        localStream = new LocalStream(capturer, new MediaConstraints.AudioTrackConstraints());
+        this.cameraFront = cameraFront;
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static long mean(long totalMs, long count) {
+        return count == 0 ? -1 : totalMs / count;
+    }
+}
@@ -0,0 +1,237 @@
+package com.intel.webrtc.p2p.sample.peer_call_utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Heartbeat between two call peers over {@link SignalCustomMessages#PING_REQUEST} and
+ * {@link SignalCustomMessages#PING_RESPONSE}. Each {@link #beat(String)} sends a numbered
+ * ping; the remote side answers it from {@link #onMessage(String, String)} by echoing the
+ * number, which gives a round trip time per beat. RTT is smoothed the way TCP does (RFC 6298)
+ * and jitter is the mean deviation between consecutive RTTs (RFC 3550). A ping is missed
+ * once it has gone unanswered for longer than the beat interval or the retransmission timeout
+ * SRTT + 4 RTTVAR, whichever is longer, so a slow but live peer is not mistaken for a dead one.
+ * A peer that misses {@link #setMissedBeatsLimit(int) k} pings in a row is declared dead, and
+ * alive again on the next answer. Misses only count once the peer has answered at least once,
+ * so a data path that is still being set up does not look like a dead peer.
+ *
+ * Beats are not scheduled here; the caller drives them, e.g. from a {@link CallSupervisor}
+ * ping tick, and pings are checked for timeouts on each beat.
+ */
+public final class PeerHeartbeat {
+    public static final int DEFAULT_MISSED_BEATS_LIMIT = 3;
+
+    private static final char SEPARATOR = ':';
+    // Pings older than this many beats can no longer be matched with their answer.
+    private static final int MAX_OUTSTANDING_PINGS = 16;
+
+    public interface Transport {
+        void send(String peerId, String message);
+    }
+
+    public interface Listener {
+        void onPeerDead(String peerId, int missedBeats);
+
+        void onPeerAlive(String peerId, double rttMs);
+    }
+
+    private static final class PeerState {
+        final Map<Long, Long> sentAtNanos = new LinkedHashMap<>();
+        long nextSequence;
+        // Pings up to this sequence have been counted as missed already.
+        long countedSequence = -1;
+        long lastBeatNanos;
+        int missedBeats;
+        boolean dead;
+        long samples;
+        double lastRttMs;
+        double smoothedRttMs;
+        double rttVarianceMs;
+        double jitterMs;
+    }
+
+    private final Transport transport;
+    private final Listener listener;
+    private final Map<String, PeerState> peers = new HashMap<>();
+    private volatile int missedBeatsLimit = DEFAULT_MISSED_BEATS_LIMIT;
+
+    public PeerHeartbeat(Transport transport, Listener listener) {
+        this.transport = transport;
+        this.listener = listener;
+    }
+
+    public void setMissedBeatsLimit(int missedBeatsLimit) {
+        if (missedBeatsLimit <= 0) {
+            throw new IllegalArgumentException("Missed beats limit must be positive");
+        }
+        this.missedBeatsLimit = missedBeatsLimit;
+    }
+
+    /**
+     * Send the next ping to |peerId|, first counting the pings that have timed out as missed.
+     */
+    public void beat(String peerId) {
+        long sequence;
+        int missed = 0;
+        long nowNanos = System.nanoTime();
+        synchronized (peers) {
+            PeerState peer = peers.get(peerId);
+            if (peer == null) {
+                peer = new PeerState();
+                peers.put(peerId, peer);
+            }
+            if (peer.samples > 0) {
+                double timeoutMs = Math.max((nowNanos - peer.lastBeatNanos) / 1e6,
+                                            retransmissionTimeoutMs(peer));
+                for (Map.Entry<Long, Long> ping : peer.sentAtNanos.entrySet()) {
+                    if ((nowNanos - ping.getValue()) / 1e6 <= timeoutMs) {
+                        break;
+                    }
+                    if (ping.getKey() > peer.countedSequence) {
+                        peer.countedSequence = ping.getKey();
+                        peer.missedBeats++;
+                    }
+                }
+                if (!peer.dead && peer.missedBeats >= missedBeatsLimit) {
+                    peer.dead = true;
+                    missed = peer.missedBeats;
+                }
+            }
+            peer.lastBeatNanos = nowNanos;
+            sequence = peer.nextSequence++;
+            peer.sentAtNanos.put(sequence, nowNanos);
+            if (peer.sentAtNanos.size() > MAX_OUTSTANDING_PINGS) {
+                Iterator<Long> oldest = peer.sentAtNanos.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        if (missed > 0) {
+            listener.onPeerDead(peerId, missed);
+        }
+        transport.send(peerId, SignalCustomMessages.PING_REQUEST + SEPARATOR + sequence);
+    }
+
+    /**
+     * Handle a heartbeat message from |peerId|: answer pings and time answers.
+     *
+     * @return false if |message| is not a heartbeat message and should be handled elsewhere.
+     */
+    public boolean onMessage(String peerId, String message) {
+        if (message.startsWith(SignalCustomMessages.PING_REQUEST)) {
+            String sequence = message.substring(SignalCustomMessages.PING_REQUEST.length());
+            transport.send(peerId, SignalCustomMessages.PING_RESPONSE + sequence);
+            return true;
+        }
+        if (!message.startsWith(SignalCustomMessages.PING_RESPONSE)) {
+            return false;
+        }
+        long receivedAtNanos = System.nanoTime();
+        long sequence;
+        try {
+            sequence = Long.parseLong(
+                    message.substring(SignalCustomMessages.PING_RESPONSE.length() + 1));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // An answer to a bare ping from an older peer; it carries no timing.
+            return true;
+        }
+        double rttMs;
+        boolean revived;
+        synchronized (peers) {
+            PeerState peer = peers.get(peerId);
+            Long sentAtNanos = peer == null ? null : peer.sentAtNanos.remove(sequence);
+            if (sentAtNanos == null) {
+                return true;
+            }
+            // Every ping sent before this one is either lost or answered late; neither
+            // counts against the peer once it has answered.
+            Iterator<Long> older = peer.sentAtNanos.keySet().iterator();
+            while (older.hasNext() && older.next() < sequence) {
+                older.remove();
+            }
+            rttMs = (receivedAtNanos - sentAtNanos) / 1e6;
+            addSample(peer, rttMs);
+            peer.missedBeats = 0;
+            revived = peer.dead;
+            peer.dead = false;
+        }
+        if (revived) {
+            listener.onPeerAlive(peerId, rttMs);
+        }
+        return true;
+    }
+
+    // RFC 6298's RTO, without its 1 second floor: pings are cheap to time out.
+    private static double retransmissionTimeoutMs(PeerState peer) {
+        return peer.smoothedRttMs + 4 * peer.rttVarianceMs;
+    }
+
+    private static void addSample(PeerState peer, double rttMs) {
+        if (peer.samples == 0) {
+            peer.smoothedRttMs = rttMs;
+            peer.rttVarianceMs = rttMs / 2;
+        } else {
+            peer.rttVarianceMs += (Math.abs(peer.smoothedRttMs - rttMs) - peer.rttVarianceMs) / 4;
+            peer.smoothedRttMs += (rttMs - peer.smoothedRttMs) / 8;
+            peer.jitterMs += (Math.abs(rttMs - peer.lastRttMs) - peer.jitterMs) / 16;
+        }
+        peer.lastRttMs = rttMs;
+        peer.samples++;
+    }
+
+    /**
+     * Forget |peerId|; its next beat starts from scratch.
+     */
+    public void reset(String peerId) {
+        synchronized (peers) {
+            peers.remove(peerId);
+        }
+    }
+
+    public boolean isAlive(String peerId) {
+        synchronized (peers) {
+            PeerState peer = peers.get(peerId);
+            return peer == null || !peer.dead;
+        }
+    }
+
+    public int getMissedBeats(String peerId) {
+        synchronized (peers) {
+            PeerState peer = peers.get(peerId);
+            return peer == null ? 0 : peer.missedBeats;
+        }
+    }
+
+    /**
+     * @return the smoothed round trip time, or -1 before the first answer.
+     */
+    public double getSmoothedRttMs(String peerId) {
+        synchronized (peers) {
+            PeerState peer = peers.get(peerId);
+            return peer == null || peer.samples == 0 ? -1 : peer.smoothedRttMs;
+        }
+    }
+
+    /**
+     * @return the RTT variance estimate used for the smoothed RTT, or -1 before the first
+     * answer.
+     */
+    public double getRttVarianceMs(String peerId) {
+        synchronized (peers) {
+            PeerState peer = peers.get(peerId);
+            return peer == null || peer.samples == 0 ? -1 : peer.rttVarianceMs;
+        }
+    }
+
+    /**
+     * @return the mean change between consecutive RTTs, or -1 before the first answer.
+     */
+    public double getJitterMs(String peerId) {
+        synchronized (peers) {
+            PeerState peer = peers.get(peerId);
+            return peer == null || peer.samples == 0 ? -1 : peer.jitterMs;
+        }
+    }
+}
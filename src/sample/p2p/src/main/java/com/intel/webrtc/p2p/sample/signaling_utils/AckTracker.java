@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times the server acknowledgement of every signaling message. Ack latency, in microseconds,
+ * goes into a {@link LatencyHistogram}; a message that fails, or whose ack does not arrive
+ * within the timeout, is counted instead and fails its callback, and a late ack is ignored.
+ */
+public final class AckTracker {
+    public static final long DEFAULT_ACK_TIMEOUT_MS = 10000;
+
+    private final ScheduledExecutorService scheduler;
+    private final LatencyHistogram ackLatencyUs = new LatencyHistogram();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private volatile long timeoutMs = DEFAULT_ACK_TIMEOUT_MS;
+
+    public AckTracker(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setTimeoutMs(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("Ack timeout must be positive");
+        }
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Start timing a message that is about to be sent.
+     *
+     * @param callback the sender's callback, may be null.
+     * @return the callback to complete when the ack (or an error) arrives.
+     */
+    public ActionCallback<Void> track(final ActionCallback<Void> callback) {
+        final long sentAtNanos = System.nanoTime();
+        final AtomicBoolean completed = new AtomicBoolean();
+        pending.incrementAndGet();
+        final ScheduledFuture<?> timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (completed.compareAndSet(false, true)) {
+                    pending.decrementAndGet();
+                    timeouts.incrementAndGet();
+                    if (callback != null) {
+                        callback.onFailure(new IcsError("Timed out waiting for signaling ack."));
+                    }
+                }
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+
+        return new ActionCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                if (complete()) {
+                    ackLatencyUs.record(
+                            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAtNanos));
+                    if (callback != null) {
+                        callback.onSuccess(null);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                if (complete()) {
+                    failures.incrementAndGet();
+                    if (callback != null) {
+                        callback.onFailure(error);
+                    }
+                }
+            }
+
+            private boolean complete() {
+                if (!completed.compareAndSet(false, true)) {
+                    return false;
+                }
+                timeout.cancel(false);
+                pending.decrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Round trip from send to server ack, in microseconds, of acked messages only.
+     */
+    public LatencyHistogram getAckLatencyHistogram() {
+        return ackLatencyUs;
+    }
+
+    /**
+     * Messages sent whose ack has neither arrived nor timed out yet.
+     */
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Messages whose send failed before the ack arrived, e.g. the peer was offline.
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups ICE candidate messages sent to the same peer within a short window into a single
+ * batch envelope, so call setup costs one signaling round trip per window instead of one per
+ * candidate. Any other message to that peer flushes the pending batch first, so the order of
+ * messages per peer is preserved. The receiving channel expands batches with {@link #unpack}.
+ *
+ * Only peers that can unpack batches get them. Support is negotiated like
+ * {@link PayloadCompressor}'s: while coalescing is on, an extra "ics-batch" member is added to
+ * outgoing chat-ua messages, and a peer is sent batches only while its own latest chat-ua, seen
+ * by {@link #receive}, carried it. Every other peer gets its candidates one by one.
+ */
+public final class CandidateCoalescer implements MessageSender {
+    public static final String BATCH_TYPE = "ics-batch";
+    private static final String BATCH_PREFIX = "{\"type\":\"" + BATCH_TYPE + "\"";
+    private static final String CANDIDATE_MARKER = "\"type\":\"candidates\"";
+    private static final String UA_MARKER = "\"type\":\"chat-ua\"";
+    private static final String CAPABILITY_MEMBER = "\"" + BATCH_TYPE + "\":\"1\"";
+    private static final int MAX_BATCH_SIZE = 32;
+
+    private static final class Batch {
+        final List<String> messages = new ArrayList<>();
+        final List<ActionCallback<Void>> callbacks = new ArrayList<>();
+        ScheduledFuture<?> flushTask;
+    }
+
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    private final MessageSender next;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final Set<String> capablePeers =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @param windowMs how long the first candidate of a batch may wait for others; 0 disables
+     * coalescing.
+     * @param scheduler runs the window timers; unused when coalescing is disabled.
+     * @param next the stage that actually sends messages and batch envelopes.
+     */
+    public CandidateCoalescer(long windowMs, ScheduledExecutorService scheduler,
+                              MessageSender next) {
+        this.windowMs = windowMs;
+        this.scheduler = scheduler;
+        this.next = next;
+    }
+
+    @Override
+    public void send(final String peerId, String message, ActionCallback<Void> callback) {
+        if (windowMs > 0 && message.contains(UA_MARKER) && message.startsWith("{\"")) {
+            message = "{" + CAPABILITY_MEMBER + "," + message.substring(1);
+        }
+        synchronized (batches) {
+            if (windowMs <= 0 || !capablePeers.contains(peerId)
+                    || !message.contains(CANDIDATE_MARKER)) {
+                flushLocked(peerId);
+                next.send(peerId, message, callback);
+                return;
+            }
+            Batch batch = batches.get(peerId);
+            if (batch == null) {
+                batch = new Batch();
+                batches.put(peerId, batch);
+                batch.flushTask = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(peerId);
+                    }
+                }, windowMs, TimeUnit.MILLISECONDS);
+            }
+            batch.messages.add(message);
+            batch.callbacks.add(callback);
+            if (batch.messages.size() >= MAX_BATCH_SIZE) {
+                flushLocked(peerId);
+            }
+        }
+    }
+
+    /**
+     * Note whether |peerId| can unpack batches if |message|, an unpacked inbound message from
+     * it, is a chat-ua.
+     */
+    public void receive(String peerId, String message) {
+        if (!message.contains(UA_MARKER)) {
+            return;
+        }
+        if (message.contains(CAPABILITY_MEMBER)) {
+            capablePeers.add(peerId);
+        } else {
+            capablePeers.remove(peerId);
+        }
+    }
+
+    /**
+     * Send whatever is pending for |peerId| now.
+     */
+    public void flush(String peerId) {
+        synchronized (batches) {
+            flushLocked(peerId);
+        }
+    }
+
+    /**
+     * Drop pending batches without sending them, failing their callbacks, and forget which
+     * peers can unpack batches; they advertise it again with their next chat-ua.
+     */
+    public void clear() {
+        capablePeers.clear();
+        List<Batch> dropped;
+        synchronized (batches) {
+            dropped = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : dropped) {
+            batch.flushTask.cancel(false);
+            for (ActionCallback<Void> callback : batch.callbacks) {
+                if (callback != null) {
+                    callback.onFailure(new IcsError("Signaling channel disconnected."));
+                }
+            }
+        }
+    }
+
+    private void flushLocked(String peerId) {
+        Batch batch = batches.remove(peerId);
+        if (batch == null) {
+            return;
+        }
+        batch.flushTask.cancel(false);
+        if (batch.messages.size() == 1) {
+            next.send(peerId, batch.messages.get(0), batch.callbacks.get(0));
+            return;
+        }
+        // Written by hand so "type" always comes first, which unpack() relies on; JSONObject
+        // only keeps insertion order on Android.
+        String envelope = BATCH_PREFIX + ",\"messages\":" + new JSONArray(batch.messages) + "}";
+        next.send(peerId, envelope, fanOut(batch.callbacks));
+    }
+
+    private static ActionCallback<Void> fanOut(final List<ActionCallback<Void>> callbacks) {
+        return new ActionCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                for (ActionCallback<Void> callback : callbacks) {
+                    if (callback != null) {
+                        callback.onSuccess(null);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                for (ActionCallback<Void> callback : callbacks) {
+                    if (callback != null) {
+                        callback.onFailure(error);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Expand an inbound message into the messages it carries: a batch envelope yields its
+     * entries in order, anything else is returned as is.
+     */
+    public static List<String> unpack(String message) {
+        if (!message.startsWith(BATCH_PREFIX)) {
+            return Collections.singletonList(message);
+        }
+        List<String> messages = new ArrayList<>();
+        try {
+            JSONArray entries = new JSONObject(message).getJSONArray("messages");
+            for (int i = 0; i < entries.length(); i++) {
+                messages.add(entries.getString(i));
+            }
+        } catch (JSONException e) {
+            return Collections.singletonList(message);
+        }
+        return messages;
+    }
+}
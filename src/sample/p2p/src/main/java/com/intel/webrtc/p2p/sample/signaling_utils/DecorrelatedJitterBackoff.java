@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with decorrelated jitter: each delay is drawn uniformly from
+ * [base, 3 * previous delay] and capped. Clients that lost the same server at the same moment
+ * spread their retries out instead of reconnecting in lockstep.
+ */
+public final class DecorrelatedJitterBackoff implements ReconnectPolicy {
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 30000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 50;
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final Random random;
+    private long previousDelayMs;
+
+    public DecorrelatedJitterBackoff() {
+        this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_ATTEMPTS, new Random());
+    }
+
+    /**
+     * @param maxAttempts attempts per disconnection before giving up; 0 retries forever.
+     */
+    public DecorrelatedJitterBackoff(long baseDelayMs, long maxDelayMs, int maxAttempts,
+                                     Random random) {
+        if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs || maxAttempts < 0) {
+            throw new IllegalArgumentException("Invalid backoff parameters");
+        }
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+        this.previousDelayMs = baseDelayMs;
+    }
+
+    @Override
+    public synchronized long nextDelayMs(int attempt) {
+        if (maxAttempts > 0 && attempt > maxAttempts) {
+            return -1;
+        }
+        long upper = Math.min(maxDelayMs, previousDelayMs * 3);
+        long delay = baseDelayMs + (long) (random.nextDouble() * (upper - baseDelayMs));
+        previousDelayMs = Math.min(maxDelayMs, Math.max(baseDelayMs, delay));
+        return previousDelayMs;
+    }
+
+    @Override
+    public synchronized void reset() {
+        previousDelayMs = baseDelayMs;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Observer list that can be modified from any thread while events are being delivered.
+ *
+ * Registration is copy-on-write, so a dispatch iterates a stable snapshot without locking.
+ * With a dispatch executor set, events are handed to it and the caller, typically a socket I/O
+ * thread, returns immediately; use a single-threaded executor to keep events in order. How long
+ * each observer takes to handle an event is recorded, in microseconds, per observer.
+ */
+public final class ObserverRegistry<T> {
+    /**
+     * One event, delivered to each observer in turn.
+     */
+    public interface Notification<T> {
+        void deliver(T observer);
+    }
+
+    private static final class Entry<T> {
+        final T observer;
+        final LatencyHistogram dispatchLatencyUs = new LatencyHistogram();
+
+        Entry(T observer) {
+            this.observer = observer;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Entry<T>> entries = new CopyOnWriteArrayList<>();
+    private volatile Executor dispatchExecutor;
+
+    /**
+     * Deliver events on |executor| instead of the dispatching thread; null, the default,
+     * delivers inline.
+     */
+    public void setDispatchExecutor(Executor executor) {
+        dispatchExecutor = executor;
+    }
+
+    public void add(T observer) {
+        entries.add(new Entry<>(observer));
+    }
+
+    public void remove(T observer) {
+        for (Entry<T> entry : entries) {
+            if (entry.observer == observer) {
+                entries.remove(entry);
+                return;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Deliver |notification| to the observers registered at the time of this call.
+     */
+    public void dispatch(final Notification<T> notification) {
+        final Object[] snapshot = entries.toArray();
+        Executor executor = dispatchExecutor;
+        if (executor == null) {
+            deliver(snapshot, notification);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(snapshot, notification);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            deliver(snapshot, notification);
+        }
+    }
+
+    /**
+     * Deliver |notification| on the calling thread, whatever the dispatch executor; for
+     * callers that already run on it.
+     */
+    public void deliverNow(Notification<T> notification) {
+        deliver(entries.toArray(), notification);
+    }
+
+    /**
+     * Time |observer| spent per event, in microseconds, or null if it is not registered.
+     */
+    public LatencyHistogram getDispatchLatency(T observer) {
+        for (Entry<T> entry : entries) {
+            if (entry.observer == observer) {
+                return entry.dispatchLatencyUs;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void deliver(Object[] snapshot, Notification<T> notification) {
+        for (Object item : snapshot) {
+            Entry<T> entry = (Entry<T>) item;
+            long startNanos = System.nanoTime();
+            try {
+                notification.deliver(entry.observer);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            entry.dispatchLatencyUs.record(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+    }
+}
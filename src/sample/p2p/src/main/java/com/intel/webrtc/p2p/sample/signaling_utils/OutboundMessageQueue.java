@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded per-peer buffer for signaling messages that could not be sent because the
+ * signaling connection was down. Messages are replayed per peer in the order they were
+ * queued; a full peer queue drops its oldest message, and messages older than the TTL are
+ * dropped instead of being replayed.
+ */
+public final class OutboundMessageQueue {
+    public static final int DEFAULT_CAPACITY_PER_PEER = 64;
+    public static final long DEFAULT_TTL_MS = 10000;
+
+    private static final class Entry {
+        final String message;
+        final ActionCallback<Void> callback;
+        final long enqueuedAtNanos;
+
+        Entry(String message, ActionCallback<Void> callback, long enqueuedAtNanos) {
+            this.message = message;
+            this.callback = callback;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+
+    private final int capacityPerPeer;
+    private final long ttlNanos;
+    private final Map<String, ArrayDeque<Entry>> queues = new LinkedHashMap<>();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    public OutboundMessageQueue() {
+        this(DEFAULT_CAPACITY_PER_PEER, DEFAULT_TTL_MS);
+    }
+
+    public OutboundMessageQueue(int capacityPerPeer, long ttlMs) {
+        if (capacityPerPeer <= 0 || ttlMs <= 0) {
+            throw new IllegalArgumentException("capacity and TTL must be positive");
+        }
+        this.capacityPerPeer = capacityPerPeer;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    /**
+     * Buffer a message for |peerId|, evicting that peer's oldest message if its queue is full.
+     */
+    public void offer(String peerId, String message, ActionCallback<Void> callback) {
+        Entry evicted = null;
+        synchronized (queues) {
+            ArrayDeque<Entry> queue = queues.get(peerId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(peerId, queue);
+            }
+            if (queue.size() >= capacityPerPeer) {
+                evicted = queue.pollFirst();
+            }
+            queue.addLast(new Entry(message, callback, System.nanoTime()));
+        }
+        queuedCount.incrementAndGet();
+        if (evicted != null) {
+            drop(evicted, "Signaling queue is full.");
+        }
+    }
+
+    /**
+     * Hand every buffered message that is still within its TTL to |sender|, peer by peer, in
+     * the order the messages were queued. Expired messages fail their callbacks.
+     */
+    public void replay(MessageSender sender) {
+        List<String> peerIds = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        synchronized (queues) {
+            for (Map.Entry<String, ArrayDeque<Entry>> peerQueue : queues.entrySet()) {
+                for (Entry entry : peerQueue.getValue()) {
+                    peerIds.add(peerQueue.getKey());
+                    entries.add(entry);
+                }
+            }
+            queues.clear();
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (now - entry.enqueuedAtNanos > ttlNanos) {
+                drop(entry, "Signaling message expired before reconnection.");
+            } else {
+                replayedCount.incrementAndGet();
+                sender.send(peerIds.get(i), entry.message, entry.callback);
+            }
+        }
+    }
+
+    /**
+     * Drop everything, failing the callbacks of the buffered messages.
+     */
+    public void clear() {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (queues) {
+            for (ArrayDeque<Entry> queue : queues.values()) {
+                entries.addAll(queue);
+            }
+            queues.clear();
+        }
+        for (Entry entry : entries) {
+            drop(entry, "Signaling channel disconnected.");
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        synchronized (queues) {
+            for (ArrayDeque<Entry> queue : queues.values()) {
+                size += queue.size();
+            }
+        }
+        return size;
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    private void drop(Entry entry, String reason) {
+        droppedCount.incrementAndGet();
+        if (entry.callback != null) {
+            entry.callback.onFailure(new IcsError(reason));
+        }
+    }
+}
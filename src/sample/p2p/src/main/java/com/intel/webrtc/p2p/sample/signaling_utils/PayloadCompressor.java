@@ -0,0 +1,325 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import com.intel.webrtc.base.ActionCallback;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates large signaling messages, mostly SDP offers and answers, for peers that said they
+ * can inflate them.
+ *
+ * Support is negotiated on the chat-ua message every P2PClient sends when it first talks to a
+ * peer: when compression is enabled, an extra "ics-compression" member is added to outgoing
+ * chat-ua messages, which other clients ignore. Only peers whose latest chat-ua carried it get
+ * compressed messages, in a {"type":"ics-deflate","data":base64} envelope; everyone else keeps
+ * receiving plain text. Deflate uses a preset dictionary of common SDP lines, so even the first
+ * occurrence of a codec or attribute line costs a back reference.
+ */
+public final class PayloadCompressor implements MessageSender {
+    public static final String COMPRESSED_TYPE = "ics-deflate";
+    /**
+     * Names the algorithm and {@link #DICTIONARY} together; bump it whenever the dictionary
+     * changes, or peers will inflate with the wrong one.
+     */
+    public static final String CAPABILITY = "deflate-sdp-1";
+    private static final String COMPRESSED_PREFIX = "{\"type\":\"" + COMPRESSED_TYPE + "\"";
+    private static final String UA_MARKER = "\"type\":\"chat-ua\"";
+    private static final String CAPABILITY_MEMBER = "\"ics-compression\":\"" + CAPABILITY + "\"";
+    // Smaller messages, like single candidates, barely shrink and are not worth the CPU.
+    private static final int MIN_COMPRESS_LENGTH = 256;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    // SDP as it appears inside the JSON-encoded P2PClient message, so line breaks are the
+    // escaped \r\n. Deflate finds matches near the end of the dictionary cheapest, so the most
+    // frequent strings come last.
+    private static final String CRLF = "\\r\\n";
+    private static final byte[] DICTIONARY = (
+            "{\"type\":\"chat-signal\",\"data\":{\"type\":\"answer\",\"sdp\":\"v=0" + CRLF
+            + "o=- 2 IN IP4 127.0.0.1" + CRLF + "s=-" + CRLF + "t=0 0" + CRLF
+            + "a=group:BUNDLE audio video" + CRLF + "a=msid-semantic: WMS " + CRLF
+            + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126" + CRLF
+            + "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 102" + CRLF
+            + "c=IN IP4 0.0.0.0" + CRLF + "a=rtcp:9 IN IP4 0.0.0.0" + CRLF
+            + "a=ice-options:trickle" + CRLF + "a=fingerprint:sha-256 " + CRLF
+            + "a=setup:actpass" + CRLF + "a=setup:active" + CRLF
+            + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level" + CRLF
+            + "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset" + CRLF
+            + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time" + CRLF
+            + "a=extmap:4 urn:3gpp:video-orientation" + CRLF
+            + "a=extmap:5 http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01"
+            + CRLF + "a=rtpmap:111 opus/48000/2" + CRLF
+            + "a=fmtp:111 minptime=10;useinbandfec=1" + CRLF + "a=rtpmap:103 ISAC/16000" + CRLF
+            + "a=rtpmap:104 ISAC/32000" + CRLF + "a=rtpmap:9 G722/8000" + CRLF
+            + "a=rtpmap:0 PCMU/8000" + CRLF + "a=rtpmap:8 PCMA/8000" + CRLF
+            + "a=rtpmap:106 CN/32000" + CRLF + "a=rtpmap:105 CN/16000" + CRLF
+            + "a=rtpmap:13 CN/8000" + CRLF + "telephone-event/8000" + CRLF
+            + "a=ssrc-group:FID " + CRLF + "red/90000" + CRLF + "ulpfec/90000" + CRLF
+            + "VP8/90000" + CRLF + "VP9/90000" + CRLF
+            + "level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f" + CRLF
+            + "H264/90000" + CRLF + "a=sendrecv" + CRLF + "a=rtcp-mux" + CRLF
+            + "a=rtcp-rsize" + CRLF + "a=mid:audio" + CRLF + "a=mid:video" + CRLF
+            + "a=ice-ufrag:" + CRLF + "a=ice-pwd:" + CRLF + " cname:" + CRLF
+            + " mslabel:" + CRLF + " label:" + CRLF + " msid:" + CRLF + "a=ssrc:" + CRLF
+            + " goog-remb" + CRLF + " transport-cc" + CRLF + " ccm fir" + CRLF + " nack" + CRLF
+            + " nack pli" + CRLF + "a=rtcp-fb:" + CRLF + " rtx/90000" + CRLF + " apt=" + CRLF
+            + "a=fmtp:" + CRLF + "a=rtpmap:").getBytes(UTF_8);
+
+    private final MessageSender next;
+    private final Set<String> capablePeers =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    private final Inflater inflater = new Inflater();
+    private final byte[] deflateChunk = new byte[4096];
+    private final ByteArrayOutputStream deflateBuffer = new ByteArrayOutputStream(4096);
+    private final byte[] inflateChunk = new byte[4096];
+    private final ByteArrayOutputStream inflateBuffer = new ByteArrayOutputStream(8192);
+    private final AtomicLong compressedCount = new AtomicLong();
+    private final AtomicLong plainBytes = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private volatile boolean enabled = false;
+
+    /**
+     * @param next the stage that puts messages on the wire.
+     */
+    public PayloadCompressor(MessageSender next) {
+        this.next = next;
+    }
+
+    /**
+     * Advertise support and compress to peers that advertise it too. Off by default.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void send(String peerId, String message, ActionCallback<Void> callback) {
+        if (enabled) {
+            if (message.contains(UA_MARKER) && message.startsWith("{\"")) {
+                message = "{" + CAPABILITY_MEMBER + "," + message.substring(1);
+            } else if (message.length() >= MIN_COMPRESS_LENGTH && capablePeers.contains(peerId)) {
+                String compressed = compress(message);
+                if (compressed.length() < message.length()) {
+                    compressedCount.incrementAndGet();
+                    plainBytes.addAndGet(message.length());
+                    wireBytes.addAndGet(compressed.length());
+                    message = compressed;
+                }
+            }
+        }
+        next.send(peerId, message, callback);
+    }
+
+    /**
+     * Handle an inbound message from |peerId|: note its capability if it is a chat-ua, and
+     * return the message with any compression undone.
+     */
+    public String receive(String peerId, String message) {
+        if (message.startsWith(COMPRESSED_PREFIX)) {
+            String plain = decompress(message);
+            return plain == null ? message : plain;
+        }
+        if (message.contains(UA_MARKER)) {
+            // The peer may have come back with a client that cannot inflate.
+            if (message.contains(CAPABILITY_MEMBER)) {
+                capablePeers.add(peerId);
+            } else {
+                capablePeers.remove(peerId);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Forget which peers support compression; they advertise it again with their next chat-ua.
+     */
+    public void clear() {
+        capablePeers.clear();
+    }
+
+    /**
+     * Wrap |message| in a compressed envelope.
+     */
+    public String compress(String message) {
+        byte[] input = message.getBytes(UTF_8);
+        byte[] output;
+        synchronized (deflater) {
+            deflater.reset();
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(input);
+            deflater.finish();
+            deflateBuffer.reset();
+            while (!deflater.finished()) {
+                deflateBuffer.write(deflateChunk, 0, deflater.deflate(deflateChunk));
+            }
+            output = deflateBuffer.toByteArray();
+        }
+        StringBuilder envelope = new StringBuilder(COMPRESSED_PREFIX.length() + 12
+                + (output.length + 2) / 3 * 4);
+        envelope.append(COMPRESSED_PREFIX).append(",\"data\":\"");
+        encodeBase64(output, envelope);
+        return envelope.append("\"}").toString();
+    }
+
+    /**
+     * Undo {@link #compress}; returns null if |envelope| is not a valid compressed envelope.
+     */
+    public String decompress(String envelope) {
+        int start = envelope.indexOf("\"data\":\"");
+        int end = envelope.lastIndexOf('"');
+        if (start < 0 || end <= start + 8) {
+            return null;
+        }
+        byte[] input = decodeBase64(envelope, start + 8, end);
+        if (input == null) {
+            return null;
+        }
+        synchronized (inflater) {
+            inflater.reset();
+            inflater.setInput(input);
+            inflateBuffer.reset();
+            try {
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(inflateChunk);
+                    if (count == 0) {
+                        if (inflater.needsDictionary()) {
+                            inflater.setDictionary(DICTIONARY);
+                        } else if (inflater.needsInput()) {
+                            return null;
+                        }
+                    }
+                    inflateBuffer.write(inflateChunk, 0, count);
+                }
+            } catch (DataFormatException | IllegalArgumentException e) {
+                return null;
+            }
+            return new String(inflateBuffer.toByteArray(), UTF_8);
+        }
+    }
+
+    /**
+     * Number of messages sent compressed.
+     */
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * Total characters of the compressed messages before compression.
+     */
+    public long getPlainBytes() {
+        return plainBytes.get();
+    }
+
+    /**
+     * Total characters of the compressed messages as sent.
+     */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    private static void encodeBase64(byte[] data, StringBuilder out) {
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+            out.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3F])
+               .append(BASE64[(bits >>> 6) & 0x3F]).append(BASE64[bits & 0x3F]);
+        }
+        int remaining = data.length - i;
+        if (remaining > 0) {
+            int bits = (data[i] & 0xFF) << 16 | (remaining == 2 ? (data[i + 1] & 0xFF) << 8 : 0);
+            out.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3F]);
+            out.append(remaining == 2 ? BASE64[(bits >>> 6) & 0x3F] : '=').append('=');
+        }
+    }
+
+    private static byte[] decodeBase64(String text, int start, int end) {
+        while (end > start && text.charAt(end - 1) == '=') {
+            end--;
+        }
+        int length = end - start;
+        if (length % 4 == 1) {
+            return null;
+        }
+        byte[] out = new byte[length * 3 / 4];
+        int bits = 0;
+        int count = 0;
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            int value = base64Value(text.charAt(i));
+            if (value < 0) {
+                return null;
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                out[index++] = (byte) (bits >> 16);
+                out[index++] = (byte) (bits >> 8);
+                out[index++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            out[index++] = (byte) (bits >> 10);
+            out[index] = (byte) (bits >> 2);
+        } else if (count == 2) {
+            out[index] = (byte) (bits >> 4);
+        }
+        return out;
+    }
+
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        if (c == '+') {
+            return 62;
+        }
+        return c == '/' ? 63 : -1;
+    }
+}
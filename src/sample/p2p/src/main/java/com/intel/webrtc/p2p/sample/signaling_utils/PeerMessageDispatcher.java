@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-peer inbound queues in front of a channel's dispatch executor. The drain task hands out
+ * one message per peer with something pending, round robin, so a peer flooding the channel
+ * delays another peer's message by at most one of its own rather than by its whole backlog.
+ * Each peer's messages stay in order. A drain task handles a bounded number of messages and
+ * then resubmits itself, so other work on the executor is not starved either.
+ */
+public final class PeerMessageDispatcher {
+    /**
+     * Called on the executor, one message at a time.
+     */
+    public interface Handler {
+        /**
+         * @param queuedUs how long the message waited for its turn, in microseconds.
+         */
+        void onMessage(String peerId, String message, long queuedUs);
+    }
+
+    private static final int MAX_MESSAGES_PER_RUN = 64;
+    private static final String ALL_PEERS = "";
+
+    private static final class Pending {
+        final String peerId;
+        final String message;
+        final long queuedAtNanos;
+
+        Pending(String peerId, String message) {
+            this.peerId = peerId;
+            this.message = message;
+            this.queuedAtNanos = System.nanoTime();
+        }
+    }
+
+    private final Handler handler;
+    private final Map<String, ArrayDeque<Pending>> queues = new HashMap<>();
+    private final ArrayDeque<String> readyPeers = new ArrayDeque<>();
+    private volatile Executor executor;
+    private volatile boolean perPeer = true;
+    private boolean scheduled;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_MESSAGES_PER_RUN; i++) {
+                Pending pending;
+                synchronized (queues) {
+                    String key = readyPeers.pollFirst();
+                    if (key == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    ArrayDeque<Pending> queue = queues.get(key);
+                    pending = queue.pollFirst();
+                    if (queue.isEmpty()) {
+                        queues.remove(key);
+                    } else {
+                        readyPeers.addLast(key);
+                    }
+                }
+                handler.onMessage(pending.peerId, pending.message,
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - pending.queuedAtNanos));
+            }
+            submit();
+        }
+    };
+
+    public PeerMessageDispatcher(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Dispatch on |executor|; null, the default, hands every message to the handler on the
+     * calling thread.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Turn per-peer queues off to dispatch strictly in arrival order. On by default.
+     */
+    public void setPerPeer(boolean perPeer) {
+        this.perPeer = perPeer;
+    }
+
+    public void dispatch(String peerId, String message) {
+        if (executor == null) {
+            handler.onMessage(peerId, message, 0);
+            return;
+        }
+        boolean schedule;
+        synchronized (queues) {
+            String key = perPeer ? peerId : ALL_PEERS;
+            ArrayDeque<Pending> queue = queues.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(key, queue);
+                readyPeers.addLast(key);
+            }
+            queue.addLast(new Pending(peerId, message));
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            submit();
+        }
+    }
+
+    /**
+     * Messages waiting for their turn, all peers together.
+     */
+    public int getBacklog() {
+        int backlog = 0;
+        synchronized (queues) {
+            for (ArrayDeque<Pending> queue : queues.values()) {
+                backlog += queue.size();
+            }
+        }
+        return backlog;
+    }
+
+    private void submit() {
+        Executor current = executor;
+        if (current == null) {
+            drainTask.run();
+            return;
+        }
+        try {
+            current.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            drainTask.run();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Signaling traffic exchanged with one remote peer over a channel shared with other peers.
+ * Sizes are in characters of the message as handed to the channel, before any compression.
+ * Ack latency covers the whole send path, including time spent queued or batched.
+ */
+public final class PeerTrafficStats {
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentChars = new AtomicLong();
+    private final AtomicLong ackedMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong receivedMessages = new AtomicLong();
+    private final AtomicLong receivedChars = new AtomicLong();
+    private final LatencyHistogram ackLatencyUs = new LatencyHistogram();
+    private final LatencyHistogram dispatchDelayUs = new LatencyHistogram();
+
+    /**
+     * Count a message about to be sent.
+     *
+     * @return the callback to pass on in its place.
+     */
+    public ActionCallback<Void> onSend(String message, final ActionCallback<Void> callback) {
+        sentMessages.incrementAndGet();
+        sentChars.addAndGet(message.length());
+        final long sentAtNanos = System.nanoTime();
+        return new ActionCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                ackedMessages.incrementAndGet();
+                ackLatencyUs.record(
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAtNanos));
+                if (callback != null) {
+                    callback.onSuccess(null);
+                }
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                failedMessages.incrementAndGet();
+                if (callback != null) {
+                    callback.onFailure(error);
+                }
+            }
+        };
+    }
+
+    public void onReceived(String message) {
+        receivedMessages.incrementAndGet();
+        receivedChars.addAndGet(message.length());
+    }
+
+    /**
+     * Record how long a received message waited before observers got it.
+     */
+    public void onDispatched(long queuedUs) {
+        dispatchDelayUs.record(queuedUs);
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public long getSentChars() {
+        return sentChars.get();
+    }
+
+    public long getAckedMessages() {
+        return ackedMessages.get();
+    }
+
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    public long getReceivedMessages() {
+        return receivedMessages.get();
+    }
+
+    public long getReceivedChars() {
+        return receivedChars.get();
+    }
+
+    /**
+     * Microseconds from sendMessage() to the server's ack.
+     */
+    public LatencyHistogram getAckLatency() {
+        return ackLatencyUs;
+    }
+
+    /**
+     * Microseconds received messages spent queued behind other messages before dispatch.
+     */
+    public LatencyHistogram getDispatchDelay() {
+        return dispatchDelayUs;
+    }
+}
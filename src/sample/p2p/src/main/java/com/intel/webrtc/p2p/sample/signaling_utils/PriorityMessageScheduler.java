@@ -0,0 +1,316 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps at most a fixed number of messages waiting for their server ack and holds the rest in
+ * priority lanes, so an SDP offer does not queue up behind a burst of chat or keepalives.
+ * Lanes are served by smooth weighted round robin, which favors call control without starving
+ * the others; each lane is FIFO, so messages of one kind keep their order. A full keepalive or
+ * user data lane drops its oldest message, call control is never dropped.
+ */
+public final class PriorityMessageScheduler implements MessageSender {
+    public enum Lane {
+        /**
+         * SDP, ICE candidates and the rest of P2PClient's own chat-* messages.
+         */
+        CALL_CONTROL(8, Integer.MAX_VALUE),
+        /**
+         * Periodic liveness probes; only the latest few are worth sending.
+         */
+        KEEPALIVE(2, 4),
+        /**
+         * Chat text and other app data.
+         */
+        USER_DATA(1, 64);
+
+        final int weight;
+        final int capacity;
+
+        Lane(int weight, int capacity) {
+            this.weight = weight;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * Picks the lane of an outgoing message.
+     */
+    public interface Classifier {
+        Lane classify(String message);
+    }
+
+    private static final String CHAT_TYPE_MARKER = "\"type\":\"chat-";
+    private static final String DATA_RECEIVED_MARKER = "\"chat-data-received\"";
+    private static final String BATCH_MARKER =
+            "\"type\":\"" + CandidateCoalescer.BATCH_TYPE + "\"";
+
+    /**
+     * P2PClient's chat-* messages and candidate batches are call control, except the receipt
+     * for app data, which goes with the data; everything else is user data.
+     */
+    public static final Classifier DEFAULT_CLASSIFIER = new Classifier() {
+        @Override
+        public Lane classify(String message) {
+            if (message.contains(DATA_RECEIVED_MARKER)) {
+                return Lane.USER_DATA;
+            }
+            if (message.contains(CHAT_TYPE_MARKER) || message.startsWith(BATCH_MARKER, 1)) {
+                return Lane.CALL_CONTROL;
+            }
+            return Lane.USER_DATA;
+        }
+    };
+
+    private static final Lane[] LANES = Lane.values();
+
+    private static final class Entry {
+        final String peerId;
+        final String message;
+        final ActionCallback<Void> callback;
+        final long enqueuedAtNanos;
+
+        Entry(String peerId, String message, ActionCallback<Void> callback) {
+            this.peerId = peerId;
+            this.message = message;
+            this.callback = callback;
+            this.enqueuedAtNanos = System.nanoTime();
+        }
+    }
+
+    private final MessageSender next;
+    private final List<ArrayDeque<Entry>> queues = new ArrayList<>();
+    private final int[] currentWeights = new int[LANES.length];
+    private final AtomicLong[] sentCounts = new AtomicLong[LANES.length];
+    private final AtomicLong[] droppedCounts = new AtomicLong[LANES.length];
+    private final LatencyHistogram[] queueDelaysUs = new LatencyHistogram[LANES.length];
+    private volatile Classifier classifier = DEFAULT_CLASSIFIER;
+    private int maxInFlight;
+    private int inFlight;
+    private int generation;
+    private boolean draining;
+
+    /**
+     * @param maxInFlight messages that may wait for their ack at once; 0 sends everything
+     * right away, without lanes.
+     * @param next the stage that actually sends messages.
+     */
+    public PriorityMessageScheduler(int maxInFlight, MessageSender next) {
+        this.maxInFlight = maxInFlight;
+        this.next = next;
+        for (int i = 0; i < LANES.length; i++) {
+            queues.add(new ArrayDeque<Entry>());
+            sentCounts[i] = new AtomicLong();
+            droppedCounts[i] = new AtomicLong();
+            queueDelaysUs[i] = new LatencyHistogram();
+        }
+    }
+
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void setClassifier(Classifier classifier) {
+        this.classifier = classifier == null ? DEFAULT_CLASSIFIER : classifier;
+    }
+
+    @Override
+    public void send(String peerId, String message, ActionCallback<Void> callback) {
+        Lane lane = classifier.classify(message);
+        boolean direct;
+        Entry evicted = null;
+        synchronized (this) {
+            direct = maxInFlight <= 0 && isEmpty();
+            if (!direct) {
+                ArrayDeque<Entry> queue = queues.get(lane.ordinal());
+                if (queue.size() >= lane.capacity) {
+                    evicted = queue.pollFirst();
+                    droppedCounts[lane.ordinal()].incrementAndGet();
+                }
+                queue.addLast(new Entry(peerId, message, callback));
+            }
+        }
+        if (direct) {
+            sentCounts[lane.ordinal()].incrementAndGet();
+            next.send(peerId, message, callback);
+            return;
+        }
+        if (evicted != null && evicted.callback != null) {
+            evicted.callback.onFailure(new IcsError("Signaling lane " + lane + " is full."));
+        }
+        drain();
+    }
+
+    /**
+     * Drop every queued message, failing its callback, and forget the messages in flight.
+     */
+    public void clear() {
+        List<Entry> dropped = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < LANES.length; i++) {
+                dropped.addAll(queues.get(i));
+                droppedCounts[i].addAndGet(queues.get(i).size());
+                queues.get(i).clear();
+                currentWeights[i] = 0;
+            }
+            inFlight = 0;
+            generation++;
+        }
+        for (Entry entry : dropped) {
+            if (entry.callback != null) {
+                entry.callback.onFailure(new IcsError("Signaling channel disconnected."));
+            }
+        }
+    }
+
+    public synchronized int size(Lane lane) {
+        return queues.get(lane.ordinal()).size();
+    }
+
+    public long getSentCount(Lane lane) {
+        return sentCounts[lane.ordinal()].get();
+    }
+
+    public long getDroppedCount(Lane lane) {
+        return droppedCounts[lane.ordinal()].get();
+    }
+
+    /**
+     * How long messages of |lane| waited for a slot, in microseconds.
+     */
+    public LatencyHistogram getQueueDelay(Lane lane) {
+        return queueDelaysUs[lane.ordinal()];
+    }
+
+    /**
+     * Send queued messages while there are free slots. Only one thread drains at a time, so
+     * messages leave each lane in order; others just leave their work to it.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            Entry entry;
+            Lane lane;
+            int entryGeneration;
+            synchronized (this) {
+                lane = inFlight < maxInFlight || maxInFlight <= 0 ? nextLane() : null;
+                if (lane == null) {
+                    draining = false;
+                    return;
+                }
+                entry = queues.get(lane.ordinal()).pollFirst();
+                inFlight++;
+                entryGeneration = generation;
+            }
+            queueDelaysUs[lane.ordinal()].record(
+                    (System.nanoTime() - entry.enqueuedAtNanos) / 1000);
+            sentCounts[lane.ordinal()].incrementAndGet();
+            next.send(entry.peerId, entry.message, release(entry.callback, entryGeneration));
+        }
+    }
+
+    /**
+     * Smooth weighted round robin over the non-empty lanes.
+     */
+    private Lane nextLane() {
+        Lane best = null;
+        int totalWeight = 0;
+        for (Lane lane : LANES) {
+            int i = lane.ordinal();
+            if (queues.get(i).isEmpty()) {
+                currentWeights[i] = 0;
+                continue;
+            }
+            currentWeights[i] += lane.weight;
+            totalWeight += lane.weight;
+            if (best == null || currentWeights[i] > currentWeights[best.ordinal()]) {
+                best = lane;
+            }
+        }
+        if (best != null) {
+            currentWeights[best.ordinal()] -= totalWeight;
+        }
+        return best;
+    }
+
+    private boolean isEmpty() {
+        for (ArrayDeque<Entry> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ActionCallback<Void> release(final ActionCallback<Void> callback,
+                                         final int entryGeneration) {
+        final AtomicBoolean released = new AtomicBoolean();
+        return new ActionCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                releaseSlot();
+                if (callback != null) {
+                    callback.onSuccess(null);
+                }
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                releaseSlot();
+                if (callback != null) {
+                    callback.onFailure(error);
+                }
+            }
+
+            private void releaseSlot() {
+                if (!released.compareAndSet(false, true)) {
+                    return;
+                }
+                synchronized (PriorityMessageScheduler.this) {
+                    if (entryGeneration != generation) {
+                        return;
+                    }
+                    inFlight--;
+                }
+                drain();
+            }
+        };
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for a signaling channel's reconnections. Time to reconnect is measured from the
+ * moment the connection dropped to the moment the server authenticated the client again.
+ * Reconnections that resumed the previous server session are also tracked on their own, so
+ * their cost can be compared with that of a full login.
+ */
+public final class ReconnectMetrics {
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong fastPathReconnects = new AtomicLong();
+    private final AtomicLong giveUps = new AtomicLong();
+    private final AtomicLong totalTimeToReconnectMs = new AtomicLong();
+    private final AtomicLong resumes = new AtomicLong();
+    private final AtomicLong totalTimeToResumeMs = new AtomicLong();
+    private volatile long lastTimeToReconnectMs = -1;
+    private volatile long maxTimeToReconnectMs = 0;
+
+    public void onAttempt() {
+        attempts.incrementAndGet();
+    }
+
+    public void onFastPath() {
+        fastPathReconnects.incrementAndGet();
+    }
+
+    public void onGaveUp() {
+        giveUps.incrementAndGet();
+    }
+
+    /**
+     * @param resumed whether the server resumed the previous session instead of logging the
+     * client in again.
+     */
+    public synchronized void onReconnected(long timeToReconnectMs, boolean resumed) {
+        reconnects.incrementAndGet();
+        totalTimeToReconnectMs.addAndGet(timeToReconnectMs);
+        if (resumed) {
+            resumes.incrementAndGet();
+            totalTimeToResumeMs.addAndGet(timeToReconnectMs);
+        }
+        lastTimeToReconnectMs = timeToReconnectMs;
+        maxTimeToReconnectMs = Math.max(maxTimeToReconnectMs, timeToReconnectMs);
+    }
+
+    /**
+     * Reconnection attempts started, including the ones that failed.
+     */
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * Disconnections that ended with the client authenticated again.
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * Attempts started immediately because the device regained a network.
+     */
+    public long getFastPathReconnects() {
+        return fastPathReconnects.get();
+    }
+
+    /**
+     * Disconnections after which the reconnect policy gave up.
+     */
+    public long getGiveUps() {
+        return giveUps.get();
+    }
+
+    public long getLastTimeToReconnectMs() {
+        return lastTimeToReconnectMs;
+    }
+
+    public long getMaxTimeToReconnectMs() {
+        return maxTimeToReconnectMs;
+    }
+
+    public long getMeanTimeToReconnectMs() {
+        long count = reconnects.get();
+        return count == 0 ? -1 : totalTimeToReconnectMs.get() / count;
+    }
+
+    /**
+     * Reconnections where the server resumed the previous session.
+     */
+    public long getResumes() {
+        return resumes.get();
+    }
+
+    public synchronized long getMeanTimeToResumeMs() {
+        long count = resumes.get();
+        return count == 0 ? -1 : totalTimeToResumeMs.get() / count;
+    }
+
+    /**
+     * Mean time of reconnections that went through a full login.
+     */
+    public synchronized long getMeanTimeToFullReconnectMs() {
+        long count = reconnects.get() - resumes.get();
+        return count == 0 ? -1 : (totalTimeToReconnectMs.get() - totalTimeToResumeMs.get()) / count;
+    }
+
+    /**
+     * How much faster a resumed reconnection is than a full one on average, or -1 until both
+     * kinds have happened.
+     */
+    public synchronized long getMeanResumeSavingMs() {
+        long full = getMeanTimeToFullReconnectMs();
+        long resumed = getMeanTimeToResumeMs();
+        return full < 0 || resumed < 0 ? -1 : full - resumed;
+    }
+}
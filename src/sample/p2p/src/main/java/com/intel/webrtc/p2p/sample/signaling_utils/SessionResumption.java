@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Holds the resume token a server hands out in server-authenticated, so a reconnecting
+ * channel can present it and get its previous session back (presence and messages held for
+ * it while it was away) instead of logging in from scratch. Servers that do not issue tokens
+ * are unaffected: the channel then simply logs in again.
+ */
+public final class SessionResumption {
+    public static final String QUERY_PARAMETER = "resumeToken";
+    private static final String TOKEN_KEY = "resumeToken";
+    private static final String RESUMED_KEY = "resumed";
+
+    private String token;
+
+    /**
+     * Take the token out of server-authenticated's payload.
+     *
+     * @return whether the server resumed the previous session.
+     */
+    public synchronized boolean onAuthenticated(String data) {
+        token = null;
+        if (data == null) {
+            return false;
+        }
+        try {
+            JSONObject payload = new JSONObject(data);
+            token = payload.optString(TOKEN_KEY, null);
+            return payload.optBoolean(RESUMED_KEY, false);
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return |query| with the resume token appended, if the channel holds one.
+     */
+    public synchronized String appendTo(String query) {
+        if (token == null) {
+            return query;
+        }
+        try {
+            return query + "&" + QUERY_PARAMETER + "=" + URLEncoder.encode(token, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return query;
+        }
+    }
+
+    /**
+     * Forget the token, e.g. on logout or when the server kicks the client.
+     */
+    public synchronized void clear() {
+        token = null;
+    }
+}
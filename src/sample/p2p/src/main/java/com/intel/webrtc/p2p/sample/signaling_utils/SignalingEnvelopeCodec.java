@@ -0,0 +1,409 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.p2p.sample.signaling_utils;
+
+/**
+ * Reads and writes signaling frames without building org.json trees.
+ *
+ * Frames are JSON objects such as {"type":"ics-message","data":{"to":id,"data":msg},"ack":1}.
+ * The decoder makes one pass over the text and fills a reusable {@link Envelope}, allocating
+ * only the strings it hands out; the encoder appends into a reused buffer. An instance is not
+ * thread-safe; give each reading or writing thread its own, or guard it.
+ */
+public final class SignalingEnvelopeCodec {
+    public static final String CHAT_TYPE = "ics-message";
+    public static final String ACK_TYPE = "ack";
+
+    /**
+     * Decoded frame. Fields the frame did not carry are null, or -1 for {@link #ack}.
+     */
+    public static final class Envelope {
+        public String type;
+        public String from;
+        public String to;
+        public String data;
+        public int ack;
+        public boolean error;
+        private String source;
+        private int rawDataStart;
+        private int rawDataEnd;
+
+        public Envelope() {
+            clear();
+        }
+
+        void clear() {
+            type = null;
+            from = null;
+            to = null;
+            data = null;
+            ack = -1;
+            error = false;
+            source = null;
+            rawDataStart = -1;
+            rawDataEnd = -1;
+        }
+
+        /**
+         * JSON text of the frame's top-level "data" value when it is not a string, e.g. the
+         * payload of server-authenticated; null otherwise.
+         */
+        public String getRawData() {
+            return rawDataStart < 0 ? null : source.substring(rawDataStart, rawDataEnd);
+        }
+    }
+
+    private final StringBuilder out = new StringBuilder(4096);
+    private final StringBuilder scratch = new StringBuilder(4096);
+    private String in;
+    private int pos;
+
+    /**
+     * Client to server: {"type":"ics-message","data":{"to":to,"data":data},"ack":ack}. A
+     * negative |ack| leaves the ack id out.
+     */
+    public String encodeMessage(String to, String data, int ack) {
+        return encodeChat("to", to, data, ack);
+    }
+
+    /**
+     * Server to client: {"type":"ics-message","data":{"from":from,"data":data}}.
+     */
+    public String encodeDelivery(String from, String data) {
+        return encodeChat("from", from, data, -1);
+    }
+
+    /**
+     * {"type":"ack","ack":ack}, plus "error" when |error| is not null.
+     */
+    public String encodeAck(int ack, String error) {
+        out.setLength(0);
+        out.append("{\"type\":\"").append(ACK_TYPE).append("\",\"ack\":").append(ack);
+        if (error != null) {
+            out.append(",\"error\":");
+            writeString(error);
+        }
+        return out.append('}').toString();
+    }
+
+    /**
+     * {"type":type,"data":rawJsonData}; |rawJsonData| must already be valid JSON, or null.
+     */
+    public String encodeEvent(String type, String rawJsonData) {
+        out.setLength(0);
+        out.append("{\"type\":");
+        writeString(type);
+        if (rawJsonData != null) {
+            out.append(",\"data\":").append(rawJsonData);
+        }
+        return out.append('}').toString();
+    }
+
+    private String encodeChat(String peerKey, String peerId, String data, int ack) {
+        out.setLength(0);
+        out.append("{\"type\":\"").append(CHAT_TYPE).append("\",\"data\":{\"")
+           .append(peerKey).append("\":");
+        writeString(peerId);
+        out.append(",\"data\":");
+        writeString(data);
+        out.append('}');
+        if (ack >= 0) {
+            out.append(",\"ack\":").append(ack);
+        }
+        return out.append('}').toString();
+    }
+
+    private void writeString(String value) {
+        out.append('"');
+        int length = value.length();
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, runStart, i);
+            runStart = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append("\\u00");
+                    out.append(Character.forDigit(c >> 4, 16));
+                    out.append(Character.forDigit(c & 0xF, 16));
+            }
+        }
+        out.append(value, runStart, length).append('"');
+    }
+
+    /**
+     * Decode a frame, or a bare {"from"|"to", "data"} envelope, into |envelope|.
+     *
+     * @throws IllegalArgumentException if |text| is not a JSON object.
+     */
+    public void decode(String text, Envelope envelope) {
+        envelope.clear();
+        envelope.source = text;
+        in = text;
+        pos = 0;
+        try {
+            skipWhitespace();
+            readObject(envelope, 0);
+        } catch (StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated signaling frame");
+        } finally {
+            in = null;
+        }
+    }
+
+    private void readObject(Envelope envelope, int depth) {
+        expect('{');
+        skipWhitespace();
+        if (in.charAt(pos) == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            readMember(envelope, depth);
+            skipWhitespace();
+            char c = in.charAt(pos++);
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw new IllegalArgumentException("Expected ',' or '}' at " + (pos - 1));
+            }
+        }
+    }
+
+    private void readMember(Envelope envelope, int depth) {
+        char c = in.charAt(pos);
+        if (keyIs("data")) {
+            if (c == '"') {
+                envelope.data = readString();
+            } else if (c == '{' && depth == 0) {
+                envelope.rawDataStart = pos;
+                readObject(envelope, depth + 1);
+                envelope.rawDataEnd = pos;
+            } else {
+                int start = pos;
+                skipValue();
+                if (depth == 0) {
+                    envelope.rawDataStart = start;
+                    envelope.rawDataEnd = pos;
+                }
+            }
+        } else if (c == '"' && keyIs("type") && depth == 0) {
+            envelope.type = readString();
+        } else if (c == '"' && keyIs("from")) {
+            envelope.from = readString();
+        } else if (c == '"' && keyIs("to")) {
+            envelope.to = readString();
+        } else if (keyIs("ack") && depth == 0 && (c == '-' || (c >= '0' && c <= '9'))) {
+            envelope.ack = readInt();
+        } else if (keyIs("error") && depth == 0) {
+            envelope.error = true;
+            skipValue();
+        } else {
+            skipValue();
+        }
+    }
+
+    private void readKey() {
+        expect('"');
+        scratch.setLength(0);
+        while (true) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                unescape();
+            } else {
+                scratch.append(c);
+            }
+        }
+    }
+
+    private boolean keyIs(String key) {
+        int length = key.length();
+        if (scratch.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (scratch.charAt(i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString() {
+        expect('"');
+        int start = pos;
+        int length = in.length();
+        for (int i = start; i < length; i++) {
+            char c = in.charAt(i);
+            if (c == '"') {
+                pos = i + 1;
+                return in.substring(start, i);
+            }
+            if (c == '\\') {
+                break;
+            }
+        }
+        // Escaped content: copy through the scratch buffer.
+        scratch.setLength(0);
+        while (true) {
+            char c = in.charAt(pos++);
+            if (c == '"') {
+                return scratch.toString();
+            }
+            if (c == '\\') {
+                unescape();
+            } else {
+                scratch.append(c);
+            }
+        }
+    }
+
+    private void unescape() {
+        char c = in.charAt(pos++);
+        switch (c) {
+            case 'n':
+                scratch.append('\n');
+                break;
+            case 'r':
+                scratch.append('\r');
+                break;
+            case 't':
+                scratch.append('\t');
+                break;
+            case 'b':
+                scratch.append('\b');
+                break;
+            case 'f':
+                scratch.append('\f');
+                break;
+            case 'u':
+                scratch.append((char) Integer.parseInt(in.substring(pos, pos + 4), 16));
+                pos += 4;
+                break;
+            default:
+                // '"', '\\' and '/'
+                scratch.append(c);
+        }
+    }
+
+    private int readInt() {
+        boolean negative = in.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        int value = 0;
+        while (pos < in.length()) {
+            char c = in.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipValue() {
+        char c = in.charAt(pos);
+        if (c == '"') {
+            pos++;
+            while (true) {
+                char s = in.charAt(pos++);
+                if (s == '\\') {
+                    pos++;
+                } else if (s == '"') {
+                    return;
+                }
+            }
+        }
+        if (c == '{' || c == '[') {
+            int nesting = 0;
+            while (true) {
+                char s = in.charAt(pos);
+                if (s == '"') {
+                    skipValue();
+                    continue;
+                }
+                pos++;
+                if (s == '{' || s == '[') {
+                    nesting++;
+                } else if (s == '}' || s == ']') {
+                    if (--nesting == 0) {
+                        return;
+                    }
+                }
+            }
+        }
+        // number, true, false or null
+        while (pos < in.length()) {
+            c = in.charAt(pos);
+            if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < in.length() && in.charAt(pos) <= ' ') {
+            pos++;
+        }
+    }
+
+    private void expect(char c) {
+        if (in.charAt(pos) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+        }
+        pos++;
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.sample.peerserver;
+
+import com.corundumstudio.socketio.AckMode;
+import com.corundumstudio.socketio.AckRequest;
+import com.corundumstudio.socketio.AuthorizationListener;
+import com.corundumstudio.socketio.Configuration;
+import com.corundumstudio.socketio.HandshakeData;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.corundumstudio.socketio.listener.ConnectListener;
+import com.corundumstudio.socketio.listener.DataListener;
+import com.corundumstudio.socketio.listener.DisconnectListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable stand-in for the P2P peer server, so signaling can be exercised and benchmarked
+ * on a plain JVM without network access.
+ *
+ * It speaks the peer server's Socket.IO protocol: a client connects with ?token=..., is
+ * authenticated by a {@link TokenAuthenticator} and receives server-authenticated with its
+ * uid; ics-message {to, data} is routed to the target as {from, data} and acked, with error
+ * 2201 when the target is offline; a second login with the same uid kicks the first one
+ * with server-disconnect. Optionally the same protocol is also served over raw WebSocket
+ * frames for {@code WebSocketSignalingChannel}.
+ *
+ * With a resume window set, server-authenticated also carries a resume token. A client that
+ * drops and reconnects with ?resumeToken=... within the window gets its session back without
+ * being authenticated again, along with the messages sent to it meanwhile, which are only
+ * acked once delivered.
+ */
+public final class PeerServer {
+    static final String CLIENT_CHAT_TYPE = "ics-message";
+    static final String SERVER_AUTHENTICATED = "server-authenticated";
+    static final String FORCE_DISCONNECT = "server-disconnect";
+    /**
+     * Ack error the peer server returns when the target peer is not connected.
+     */
+    static final int TARGET_OFFLINE = 2201;
+    static final String RESUME_TOKEN = "resumeToken";
+    private static final int MAX_HELD_MESSAGES = 256;
+
+    private final String host;
+    private final int socketIoPort;
+    private final int webSocketPort;
+    private final TokenAuthenticator authenticator;
+    private final ConcurrentMap<String, PeerSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, SocketIoSession> socketIoSessions =
+            new ConcurrentHashMap<>();
+    private final AtomicLong routedCount = new AtomicLong();
+    private final AtomicLong undeliverableCount = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+    // Resume tokens and parked sessions change together, under resumeLock.
+    private final Object resumeLock = new Object();
+    private final Map<String, String> resumeTokens = new HashMap<>();
+    private final Map<String, String> peerTokens = new HashMap<>();
+    private final Map<String, ParkedSession> parkedSessions = new HashMap<>();
+    private volatile long resumeWindowMs = 0;
+    private ScheduledExecutorService expiryScheduler;
+    private SocketIOServer socketIoServer;
+    private WebSocketEndpoint webSocketEndpoint;
+
+    /**
+     * Tells the sender of a message whether it reached its target.
+     */
+    interface DeliveryCallback {
+        void onRouted(boolean delivered);
+    }
+
+    private static final class HeldMessage {
+        final String from;
+        final String data;
+        final DeliveryCallback callback;
+
+        HeldMessage(String from, String data, DeliveryCallback callback) {
+            this.from = from;
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * A dropped client waiting to resume, with the messages sent to it since.
+     */
+    private static final class ParkedSession {
+        final List<HeldMessage> messages = new ArrayList<>();
+        ScheduledFuture<?> expiry;
+    }
+
+    private final class SocketIoSession implements PeerSession {
+        private final SocketIOClient client;
+        private final String peerId;
+
+        SocketIoSession(SocketIOClient client, String peerId) {
+            this.client = client;
+            this.peerId = peerId;
+        }
+
+        @Override
+        public String getPeerId() {
+            return peerId;
+        }
+
+        @Override
+        public void authenticated(Map<String, Object> data) {
+            client.sendEvent(SERVER_AUTHENTICATED, data);
+        }
+
+        @Override
+        public void deliver(String from, String data) {
+            Map<String, Object> message = new LinkedHashMap<>();
+            message.put("from", from);
+            message.put("data", data);
+            client.sendEvent(CLIENT_CHAT_TYPE, message);
+        }
+
+        @Override
+        public void forceDisconnect() {
+            client.sendEvent(FORCE_DISCONNECT);
+            client.disconnect();
+        }
+
+        @Override
+        public void drop() {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * Socket.IO only, on localhost, accepting any token.
+     */
+    public PeerServer(int socketIoPort) {
+        this("127.0.0.1", socketIoPort, 0, TokenAuthenticator.ANY_TOKEN);
+    }
+
+    /**
+     * @param host address to bind.
+     * @param socketIoPort port of the Socket.IO endpoint.
+     * @param webSocketPort port of the raw WebSocket endpoint, or 0 not to serve one.
+     * @param authenticator maps connect tokens to peer ids.
+     */
+    public PeerServer(String host, int socketIoPort, int webSocketPort,
+                      TokenAuthenticator authenticator) {
+        this.host = host;
+        this.socketIoPort = socketIoPort;
+        this.webSocketPort = webSocketPort;
+        this.authenticator = authenticator;
+    }
+
+    /**
+     * Keep a dropped client's session for |windowMs| so it can resume it. 0, the default,
+     * turns resuming off and hands out no resume tokens, like the peer server.
+     */
+    public void setResumeWindow(long windowMs) {
+        resumeWindowMs = windowMs;
+    }
+
+    public synchronized void start() {
+        if (socketIoServer != null) {
+            return;
+        }
+        Configuration config = new Configuration();
+        config.setHostname(host);
+        config.setPort(socketIoPort);
+        config.setAckMode(AckMode.MANUAL);
+        config.setAuthorizationListener(new AuthorizationListener() {
+            @Override
+            public boolean isAuthorized(HandshakeData data) {
+                return admit(data.getSingleUrlParam("token"),
+                        data.getSingleUrlParam(RESUME_TOKEN)) != null;
+            }
+        });
+        socketIoServer = new SocketIOServer(config);
+        socketIoServer.addConnectListener(new ConnectListener() {
+            @Override
+            public void onConnect(SocketIOClient client) {
+                HandshakeData handshake = client.getHandshakeData();
+                String resumeToken = handshake.getSingleUrlParam(RESUME_TOKEN);
+                String peerId = admit(handshake.getSingleUrlParam("token"), resumeToken);
+                if (peerId == null) {
+                    // The resume token expired since the handshake was authorized.
+                    client.disconnect();
+                    return;
+                }
+                SocketIoSession session = new SocketIoSession(client, peerId);
+                socketIoSessions.put(client.getSessionId(), session);
+                register(session, resumeToken);
+            }
+        });
+        socketIoServer.addDisconnectListener(new DisconnectListener() {
+            @Override
+            public void onDisconnect(SocketIOClient client) {
+                SocketIoSession session = socketIoSessions.remove(client.getSessionId());
+                if (session != null) {
+                    unregister(session);
+                }
+            }
+        });
+        // The chat payload arrives as a JSON object, which the server decodes to a map.
+        @SuppressWarnings("unchecked")
+        Class<Map<String, Object>> chatType = (Class<Map<String, Object>>) (Class<?>) Map.class;
+        socketIoServer.addEventListener(CLIENT_CHAT_TYPE, chatType,
+                new DataListener<Map<String, Object>>() {
+            @Override
+            public void onData(SocketIOClient client, Map<String, Object> message,
+                               final AckRequest ackRequest) {
+                SocketIoSession session = socketIoSessions.get(client.getSessionId());
+                if (session == null) {
+                    return;
+                }
+                route(session.peerId, (String) message.get("to"), (String) message.get("data"),
+                        !ackRequest.isAckRequested() ? null : new DeliveryCallback() {
+                            @Override
+                            public void onRouted(boolean delivered) {
+                                if (delivered) {
+                                    ackRequest.sendAckData();
+                                } else {
+                                    ackRequest.sendAckData(TARGET_OFFLINE);
+                                }
+                            }
+                        });
+            }
+        });
+        expiryScheduler = Executors.newSingleThreadScheduledExecutor();
+        socketIoServer.start();
+        if (webSocketPort > 0) {
+            webSocketEndpoint = new WebSocketEndpoint(this);
+            webSocketEndpoint.start(host, webSocketPort);
+        }
+    }
+
+    public synchronized void stop() {
+        if (webSocketEndpoint != null) {
+            webSocketEndpoint.stop();
+            webSocketEndpoint = null;
+        }
+        if (socketIoServer != null) {
+            socketIoServer.stop();
+            socketIoServer = null;
+        }
+        if (expiryScheduler != null) {
+            expiryScheduler.shutdownNow();
+            expiryScheduler = null;
+        }
+        sessions.clear();
+        socketIoSessions.clear();
+        synchronized (resumeLock) {
+            resumeTokens.clear();
+            peerTokens.clear();
+            parkedSessions.clear();
+        }
+    }
+
+    /**
+     * Base URL to put in a channel's login "host", e.g. http://127.0.0.1:8096.
+     */
+    public String getSocketIoUrl() {
+        return "http://" + host + ":" + socketIoPort;
+    }
+
+    /**
+     * Base URL of the raw WebSocket endpoint, or null if it is not served.
+     */
+    public String getWebSocketUrl() {
+        return webSocketPort > 0 ? "http://" + host + ":" + webSocketPort : null;
+    }
+
+    /**
+     * Ids of the peers connected right now, over either transport.
+     */
+    public Set<String> getConnectedPeers() {
+        return Collections.unmodifiableSet(new HashSet<>(sessions.keySet()));
+    }
+
+    /**
+     * Send server-disconnect to |peerId| and close its connection; it should not reconnect.
+     *
+     * @return false if the peer is not connected.
+     */
+    public boolean forceDisconnect(String peerId) {
+        PeerSession session;
+        synchronized (resumeLock) {
+            session = sessions.remove(peerId);
+            revokeResumeToken(peerId);
+        }
+        if (session == null) {
+            return false;
+        }
+        session.forceDisconnect();
+        return true;
+    }
+
+    /**
+     * Close |peerId|'s connection without server-disconnect, so it tries to reconnect.
+     *
+     * @return false if the peer is not connected.
+     */
+    public boolean drop(String peerId) {
+        PeerSession session = sessions.get(peerId);
+        if (session == null) {
+            return false;
+        }
+        session.drop();
+        return true;
+    }
+
+    /**
+     * Messages delivered to their target so far.
+     */
+    public long getRoutedCount() {
+        return routedCount.get();
+    }
+
+    /**
+     * Messages acked with {@link #TARGET_OFFLINE} so far.
+     */
+    public long getUndeliverableCount() {
+        return undeliverableCount.get();
+    }
+
+    /**
+     * Logins that resumed a session with its resume token.
+     */
+    public long getResumedCount() {
+        return resumedCount.get();
+    }
+
+    /**
+     * @return the peer id of the session |resumeToken| resumes if it is still valid, otherwise
+     * the one |authenticator| gives |token|; null to reject the client.
+     */
+    String admit(String token, String resumeToken) {
+        if (resumeToken != null) {
+            synchronized (resumeLock) {
+                String peerId = resumeTokens.get(resumeToken);
+                if (peerId != null) {
+                    return peerId;
+                }
+            }
+        }
+        return authenticator.authenticate(token);
+    }
+
+    /**
+     * Make |session| the one messages to its peer id go to: send it server-authenticated, then
+     * the messages held for that peer id while it was away, and kick any previous session.
+     */
+    void register(PeerSession session, String resumeToken) {
+        String peerId = session.getPeerId();
+        Map<String, Object> authenticated = new LinkedHashMap<>();
+        authenticated.put("uid", peerId);
+        PeerSession previous;
+        synchronized (resumeLock) {
+            boolean resumed = resumeToken != null && peerId.equals(resumeTokens.get(resumeToken));
+            revokeResumeToken(peerId);
+            if (resumeWindowMs > 0) {
+                String token = UUID.randomUUID().toString();
+                resumeTokens.put(token, peerId);
+                peerTokens.put(peerId, token);
+                authenticated.put(RESUME_TOKEN, token);
+                authenticated.put("resumed", resumed);
+            }
+            if (resumed) {
+                resumedCount.incrementAndGet();
+            }
+            session.authenticated(authenticated);
+            ParkedSession parked = parkedSessions.remove(peerId);
+            if (parked != null) {
+                parked.expiry.cancel(false);
+                for (HeldMessage message : parked.messages) {
+                    session.deliver(message.from, message.data);
+                    routedCount.incrementAndGet();
+                    complete(message.callback, true);
+                }
+            }
+            // Only now, so nothing routed meanwhile overtakes the held messages.
+            previous = sessions.put(peerId, session);
+        }
+        if (previous != null && previous != session) {
+            previous.forceDisconnect();
+        }
+    }
+
+    void unregister(PeerSession session) {
+        final String peerId = session.getPeerId();
+        synchronized (resumeLock) {
+            if (!sessions.remove(peerId, session)) {
+                return;
+            }
+            if (resumeWindowMs <= 0 || !peerTokens.containsKey(peerId)
+                    || expiryScheduler == null) {
+                revokeResumeToken(peerId);
+                return;
+            }
+            final ParkedSession parked = new ParkedSession();
+            parked.expiry = expiryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire(peerId, parked);
+                }
+            }, resumeWindowMs, TimeUnit.MILLISECONDS);
+            parkedSessions.put(peerId, parked);
+        }
+    }
+
+    /**
+     * Deliver |data| to |to|, or hold it if |to| may still resume its session. |callback|,
+     * which may be null, learns the outcome once it is known.
+     */
+    void route(String from, String to, String data, DeliveryCallback callback) {
+        PeerSession target = to == null ? null : sessions.get(to);
+        if (target == null && to != null && data != null) {
+            synchronized (resumeLock) {
+                target = sessions.get(to);
+                ParkedSession parked = target == null ? parkedSessions.get(to) : null;
+                if (parked != null && parked.messages.size() < MAX_HELD_MESSAGES) {
+                    parked.messages.add(new HeldMessage(from, data, callback));
+                    return;
+                }
+            }
+        }
+        if (target == null || data == null) {
+            undeliverableCount.incrementAndGet();
+            complete(callback, false);
+            return;
+        }
+        target.deliver(from, data);
+        routedCount.incrementAndGet();
+        complete(callback, true);
+    }
+
+    private void expire(String peerId, ParkedSession parked) {
+        synchronized (resumeLock) {
+            if (!parkedSessions.remove(peerId, parked)) {
+                return;
+            }
+            revokeResumeToken(peerId);
+        }
+        for (HeldMessage message : parked.messages) {
+            undeliverableCount.incrementAndGet();
+            complete(message.callback, false);
+        }
+    }
+
+    private void revokeResumeToken(String peerId) {
+        String token = peerTokens.remove(peerId);
+        if (token != null) {
+            resumeTokens.remove(token);
+        }
+    }
+
+    private static void complete(DeliveryCallback callback, boolean delivered) {
+        if (callback != null) {
+            callback.onRouted(delivered);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.sample.peerserver;
+
+/**
+ * Runs {@link PeerServer} until the process is killed.
+ *
+ * Usage: PeerServerMain [socketIoPort [webSocketPort [host [resumeWindowMs]]]], defaults 8096,
+ * 8097, 0.0.0.0 and 0 (no session resuming).
+ */
+public final class PeerServerMain {
+    private PeerServerMain() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int socketIoPort = args.length > 0 ? Integer.parseInt(args[0]) : 8096;
+        int webSocketPort = args.length > 1 ? Integer.parseInt(args[1]) : 8097;
+        String host = args.length > 2 ? args[2] : "0.0.0.0";
+        long resumeWindowMs = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        final PeerServer server = new PeerServer(host, socketIoPort, webSocketPort,
+                TokenAuthenticator.ANY_TOKEN);
+        server.setResumeWindow(resumeWindowMs);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        System.out.println("Peer server on " + server.getSocketIoUrl()
+                + ", raw WebSocket on " + server.getWebSocketUrl());
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright © 2017 Intel Corporation. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.intel.webrtc.sample.peerserver;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.intel.webrtc.p2p.sample.signaling_utils.SignalingEnvelopeCodec;
+
+import java.util.List;
+import java.util.Map;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+
+/**
+ * Raw WebSocket side of {@link PeerServer}: the same protocol as its Socket.IO side, one JSON
+ * text frame per event, {"type": event, "data": payload, "ack": id}.
+ */
+final class WebSocketEndpoint {
+    private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    private static final int NORMAL_CLOSURE = 1000;
+
+    private final PeerServer server;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    private static final class WebSocketSession implements PeerSession {
+        private final Channel channel;
+        private final String peerId;
+        private final SignalingEnvelopeCodec writer = new SignalingEnvelopeCodec();
+
+        WebSocketSession(Channel channel, String peerId) {
+            this.channel = channel;
+            this.peerId = peerId;
+        }
+
+        @Override
+        public String getPeerId() {
+            return peerId;
+        }
+
+        @Override
+        public void authenticated(Map<String, Object> data) {
+            String frame;
+            try {
+                synchronized (writer) {
+                    frame = writer.encodeEvent(PeerServer.SERVER_AUTHENTICATED,
+                            MAPPER.writeValueAsString(data));
+                }
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+            channel.writeAndFlush(new TextWebSocketFrame(frame));
+        }
+
+        @Override
+        public void deliver(String from, String data) {
+            String frame;
+            synchronized (writer) {
+                frame = writer.encodeDelivery(from, data);
+            }
+            channel.writeAndFlush(new TextWebSocketFrame(frame));
+        }
+
+        @Override
+        public void forceDisconnect() {
+            String frame;
+            synchronized (writer) {
+                frame = writer.encodeEvent(PeerServer.FORCE_DISCONNECT, null);
+            }
+            channel.write(new TextWebSocketFrame(frame));
+            channel.writeAndFlush(new CloseWebSocketFrame(NORMAL_CLOSURE, null))
+                   .addListener(ChannelFutureListener.CLOSE);
+        }
+
+        @Override
+        public void drop() {
+            channel.close();
+        }
+
+        void ack(int id, boolean delivered) {
+            String frame;
+            synchronized (writer) {
+                frame = writer.encodeAck(id,
+                        delivered ? null : String.valueOf(PeerServer.TARGET_OFFLINE));
+            }
+            channel.writeAndFlush(new TextWebSocketFrame(frame));
+        }
+    }
+
+    private final class FrameHandler extends SimpleChannelInboundHandler<Object> {
+        private final SignalingEnvelopeCodec reader = new SignalingEnvelopeCodec();
+        private final SignalingEnvelopeCodec.Envelope envelope =
+                new SignalingEnvelopeCodec.Envelope();
+        private WebSocketServerHandshaker handshaker;
+        private WebSocketSession session;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof FullHttpRequest) {
+                onHandshake(ctx, (FullHttpRequest) msg);
+            } else if (msg instanceof WebSocketFrame) {
+                onFrame(ctx, (WebSocketFrame) msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (session != null) {
+                server.unregister(session);
+                session = null;
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+
+        private void onHandshake(final ChannelHandlerContext ctx, FullHttpRequest request) {
+            Map<String, List<String>> parameters =
+                    new QueryStringDecoder(request.uri()).parameters();
+            final String resumeToken = firstValue(parameters, PeerServer.RESUME_TOKEN);
+            final String peerId = server.admit(firstValue(parameters, "token"), resumeToken);
+            if (peerId == null) {
+                ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                        HttpResponseStatus.UNAUTHORIZED, Unpooled.EMPTY_BUFFER))
+                   .addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            handshaker = new WebSocketServerHandshakerFactory(
+                    "ws://" + request.headers().get("Host") + request.uri(), null, false,
+                    MAX_FRAME_LENGTH).newHandshaker(request);
+            if (handshaker == null) {
+                WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
+                return;
+            }
+            handshaker.handshake(ctx.channel(), request).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    if (!future.isSuccess()) {
+                        ctx.close();
+                        return;
+                    }
+                    session = new WebSocketSession(ctx.channel(), peerId);
+                    server.register(session, resumeToken);
+                }
+            });
+        }
+
+        private void onFrame(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            if (frame instanceof CloseWebSocketFrame) {
+                handshaker.close(ctx.channel(), (CloseWebSocketFrame) frame.retain());
+                return;
+            }
+            if (frame instanceof PingWebSocketFrame) {
+                ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+                return;
+            }
+            if (!(frame instanceof TextWebSocketFrame) || session == null) {
+                return;
+            }
+            try {
+                reader.decode(((TextWebSocketFrame) frame).text(), envelope);
+            } catch (IllegalArgumentException e) {
+                ctx.close();
+                return;
+            }
+            if (!PeerServer.CLIENT_CHAT_TYPE.equals(envelope.type)) {
+                return;
+            }
+            final WebSocketSession sender = session;
+            final int ack = envelope.ack;
+            server.route(sender.getPeerId(), envelope.to, envelope.data,
+                    ack < 0 ? null : new PeerServer.DeliveryCallback() {
+                        @Override
+                        public void onRouted(boolean delivered) {
+                            sender.ack(ack, delivered);
+                        }
+                    });
+        }
+    }
+
+    WebSocketEndpoint(PeerServer server) {
+        this.server = server;
+    }
+
+    void start(String host, int port) {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline()
+                               .addLast(new HttpServerCodec())
+                               .addLast(new HttpObjectAggregator(MAX_FRAME_LENGTH))
+                               .addLast(new FrameHandler());
+                    }
+                });
+        serverChannel = bootstrap.bind(host, port).syncUninterruptibly().channel();
+    }
+
+    void stop() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+            serverChannel = null;
+        }
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    private static String firstValue(Map<String, List<String>> parameters, String name) {
+        List<String> values = parameters.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+}
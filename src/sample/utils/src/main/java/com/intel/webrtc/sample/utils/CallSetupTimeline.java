@@ -0,0 +1,205 @@
+package com.intel.webrtc.sample.utils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.EglRenderer;
+import org.webrtc.SurfaceViewRenderer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long a call takes to come up. Each call gets a timeline, opened with
+ * {@link #begin()} when the call starts, of milestones stamped with a monotonic clock in
+ * milliseconds since then; a timeline is complete once the first remote frame is rendered, and
+ * marks made while no timeline is open, e.g. on a recovered call, are ignored. The hooks wrap
+ * the points the samples already have: mark from observer callbacks, wrap ActionCallbacks with
+ * {@link #onSuccess}, and use {@link #markNextFrame} on the renderer a remote stream is
+ * attached to. P2P calls and conference joins share the milestones, with connect standing for
+ * join in a conference.
+ *
+ * {@link #exportJson()} returns the recent timelines and, per milestone, percentiles of its
+ * offset across them.
+ */
+public final class CallSetupTimeline {
+    private static final String TAG = "CallSetupTimeline";
+    private static final int MAX_CALLS = 100;
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    public enum Milestone {
+        CONNECT_REQUESTED, CONNECTED, PERMISSION_GRANTED, PUBLISHED, STREAM_ADDED,
+        FIRST_REMOTE_FRAME
+    }
+
+    private static final class Call {
+        final long startNanos;
+        final Map<Milestone, Long> offsetsMs = new EnumMap<>(Milestone.class);
+
+        Call(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject call = new JSONObject();
+            for (Map.Entry<Milestone, Long> offset : offsetsMs.entrySet()) {
+                call.put(offset.getKey().name(), offset.getValue());
+            }
+            return call;
+        }
+    }
+
+    private final ArrayDeque<Call> calls = new ArrayDeque<>();
+    private Call current;
+
+    /**
+     * Start a new timeline, closing the current one if it has not completed.
+     */
+    public synchronized void begin() {
+        close();
+        current = new Call(System.nanoTime());
+    }
+
+    /**
+     * Stamp |milestone| on the current timeline, if one is open. Only the first stamp of each
+     * milestone counts.
+     */
+    public synchronized void mark(Milestone milestone) {
+        long nowNanos = System.nanoTime();
+        if (current == null || current.offsetsMs.containsKey(milestone)) {
+            return;
+        }
+        current.offsetsMs.put(milestone,
+                TimeUnit.NANOSECONDS.toMillis(nowNanos - current.startNanos));
+        if (milestone == Milestone.FIRST_REMOTE_FRAME) {
+            Log.d(TAG, "call setup: " + describe(current));
+            close();
+        }
+    }
+
+    /**
+     * Close the current timeline as is, e.g. when the call is hung up before it came up.
+     */
+    public synchronized void end() {
+        close();
+    }
+
+    /**
+     * @return |callback| with |milestone| stamped before its onSuccess runs.
+     */
+    public <T> ActionCallback<T> onSuccess(final Milestone milestone,
+                                           final ActionCallback<T> callback) {
+        return new ActionCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                mark(milestone);
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(IcsError error) {
+                callback.onFailure(error);
+            }
+        };
+    }
+
+    /**
+     * Stamp {@link Milestone#FIRST_REMOTE_FRAME} when |renderer| renders its next frame; call
+     * it right before attaching the remote stream.
+     */
+    public void markNextFrame(SurfaceViewRenderer renderer) {
+        // A scale of 0 skips the bitmap copy; only the timing is wanted.
+        renderer.addFrameListener(new EglRenderer.FrameListener() {
+            @Override
+            public void onFrame(Bitmap frame) {
+                mark(Milestone.FIRST_REMOTE_FRAME);
+            }
+        }, 0f);
+    }
+
+    /**
+     * @return {"calls": [{milestone: offset ms, ...}, ...], "percentiles": {milestone:
+     * {"count": n, "p50": ms, "p90": ms, "p99": ms}, ...}}, oldest call first.
+     */
+    public synchronized String exportJson() {
+        try {
+            JSONArray callsJson = new JSONArray();
+            Map<Milestone, List<Long>> offsets = new EnumMap<>(Milestone.class);
+            for (Call call : calls) {
+                callsJson.put(call.toJson());
+                for (Map.Entry<Milestone, Long> offset : call.offsetsMs.entrySet()) {
+                    List<Long> values = offsets.get(offset.getKey());
+                    if (values == null) {
+                        values = new ArrayList<>();
+                        offsets.put(offset.getKey(), values);
+                    }
+                    values.add(offset.getValue());
+                }
+            }
+            JSONObject percentiles = new JSONObject();
+            for (Map.Entry<Milestone, List<Long>> entry : offsets.entrySet()) {
+                List<Long> values = entry.getValue();
+                Collections.sort(values);
+                JSONObject milestone = new JSONObject();
+                milestone.put("count", values.size());
+                for (double percentile : PERCENTILES) {
+                    milestone.put("p" + (int) percentile, percentile(values, percentile));
+                }
+                percentiles.put(entry.getKey().name(), milestone);
+            }
+            JSONObject export = new JSONObject();
+            export.put("calls", callsJson);
+            export.put("percentiles", percentiles);
+            return export.toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to export call setup timelines: " + e.getMessage());
+            return "{}";
+        }
+    }
+
+    public synchronized int getCallCount() {
+        return calls.size();
+    }
+
+    private void close() {
+        if (current == null) {
+            return;
+        }
+        if (!current.offsetsMs.isEmpty()) {
+            calls.addLast(current);
+            if (calls.size() > MAX_CALLS) {
+                calls.removeFirst();
+            }
+        }
+        current = null;
+    }
+
+    private static String describe(Call call) {
+        StringBuilder description = new StringBuilder();
+        for (Map.Entry<Milestone, Long> offset : call.offsetsMs.entrySet()) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(offset.getKey()).append(" +").append(offset.getValue())
+                       .append(" ms");
+        }
+        return description.toString();
+    }
+
+    // Nearest-rank percentile of sorted |values|.
+    private static long percentile(List<Long> values, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * values.size());
+        return values.get(Math.max(rank, 1) - 1);
+    }
+}
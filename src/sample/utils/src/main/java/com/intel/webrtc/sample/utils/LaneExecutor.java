@@ -0,0 +1,191 @@
+package com.intel.webrtc.sample.utils;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serial lanes over a small shared pool. Tasks submitted to the same lane, e.g. everything
+ * done for one peer or one conference stream, run one at a time in submission order; tasks on
+ * different lanes run in parallel on up to |threads| threads, so a slow publish to one peer no
+ * longer holds up a chat message to another. A lane hands its thread back after a bounded
+ * number of tasks, so a busy lane cannot starve the others either.
+ *
+ * Each lane keeps its queue depth and how long its tasks waited and ran, see
+ * {@link #getStats()}.
+ */
+public final class LaneExecutor {
+    private static final String TAG = "LaneExecutor";
+    private static final int MAX_TASKS_PER_RUN = 8;
+
+    public static final class LaneStats {
+        public final String lane;
+        public final int depth;
+        public final int maxDepth;
+        public final long executed;
+        public final long meanWaitUs;
+        public final long maxWaitUs;
+        public final long meanRunUs;
+        public final long maxRunUs;
+
+        LaneStats(Lane lane) {
+            this.lane = lane.name;
+            this.depth = lane.tasks.size();
+            this.maxDepth = lane.maxDepth;
+            this.executed = lane.executed;
+            this.meanWaitUs = lane.executed == 0 ? 0 : lane.totalWaitUs / lane.executed;
+            this.maxWaitUs = lane.maxWaitUs;
+            this.meanRunUs = lane.executed == 0 ? 0 : lane.totalRunUs / lane.executed;
+            this.maxRunUs = lane.maxRunUs;
+        }
+
+        @Override
+        public String toString() {
+            return lane + ": depth " + depth + " (max " + maxDepth + "), " + executed
+                    + " tasks, wait " + meanWaitUs + "/" + maxWaitUs + " us, run " + meanRunUs
+                    + "/" + maxRunUs + " us (mean/max)";
+        }
+    }
+
+    private static final class Task {
+        final Runnable runnable;
+        final long queuedAtNanos;
+
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+            this.queuedAtNanos = System.nanoTime();
+        }
+    }
+
+    private final class Lane implements Runnable {
+        final String name;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        boolean scheduled;
+        int maxDepth;
+        long executed;
+        long totalWaitUs;
+        long maxWaitUs;
+        long totalRunUs;
+        long maxRunUs;
+
+        Lane(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            // Once shut down the pool takes no resubmission, so drain the lane in one go.
+            for (int i = 0; i < MAX_TASKS_PER_RUN || pool.isShutdown(); i++) {
+                Task task;
+                synchronized (lanes) {
+                    task = tasks.pollFirst();
+                    if (task == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                long startNanos = System.nanoTime();
+                try {
+                    task.runnable.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Task on lane " + name + " failed", e);
+                }
+                long endNanos = System.nanoTime();
+                long waitUs = TimeUnit.NANOSECONDS.toMicros(startNanos - task.queuedAtNanos);
+                long runUs = TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos);
+                synchronized (lanes) {
+                    executed++;
+                    totalWaitUs += waitUs;
+                    maxWaitUs = Math.max(maxWaitUs, waitUs);
+                    totalRunUs += runUs;
+                    maxRunUs = Math.max(maxRunUs, runUs);
+                }
+            }
+            submit(this);
+        }
+    }
+
+    private final ExecutorService pool;
+    private final Map<String, Lane> lanes = new HashMap<>();
+
+    public LaneExecutor(int threads) {
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Run |task| on |lane| after every task submitted to it before. Ignored once shut down.
+     */
+    public void execute(String lane, Runnable task) {
+        Lane target;
+        synchronized (lanes) {
+            if (pool.isShutdown()) {
+                return;
+            }
+            target = lanes.get(lane);
+            if (target == null) {
+                target = new Lane(lane);
+                lanes.put(lane, target);
+            }
+            target.tasks.addLast(new Task(task));
+            target.maxDepth = Math.max(target.maxDepth, target.tasks.size());
+            if (target.scheduled) {
+                return;
+            }
+            target.scheduled = true;
+        }
+        submit(target);
+    }
+
+    /**
+     * @return an Executor that runs everything on |lane|.
+     */
+    public Executor lane(final String lane) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                LaneExecutor.this.execute(lane, task);
+            }
+        };
+    }
+
+    /**
+     * @return a snapshot of every lane used so far, by lane name.
+     */
+    public Map<String, LaneStats> getStats() {
+        Map<String, LaneStats> stats = new LinkedHashMap<>();
+        synchronized (lanes) {
+            for (Lane lane : lanes.values()) {
+                stats.put(lane.name, new LaneStats(lane));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Let the queued tasks finish and accept no new ones.
+     */
+    public void shutdown() {
+        synchronized (lanes) {
+            pool.shutdown();
+        }
+    }
+
+    private void submit(Lane lane) {
+        try {
+            pool.execute(lane);
+        } catch (RejectedExecutionException e) {
+            synchronized (lanes) {
+                lane.tasks.clear();
+                lane.scheduled = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.intel.webrtc.sample.utils;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.Map;
+
+/**
+ * Turns the RTCStatsReports of one publication, subscription or PeerConnection into
+ * {@link RtcStatsSnapshot}s. Rates come from the difference between the stats' own
+ * timestamps, not from how often stats are asked for, so a late or skipped timer tick does
+ * not skew them. Counter values are read through Number, whichever boxed type WebRTC used.
+ *
+ * The parser alternates between two snapshots, so a returned snapshot is overwritten by the
+ * parse after next; copy out whatever has to be kept longer. Use one parser per report
+ * source, from one thread at a time.
+ */
+public final class RtcStatsParser {
+    private static final String OUTBOUND_RTP = "outbound-rtp";
+    private static final String INBOUND_RTP = "inbound-rtp";
+
+    private RtcStatsSnapshot current = new RtcStatsSnapshot();
+    private RtcStatsSnapshot previous = new RtcStatsSnapshot();
+
+    public RtcStatsSnapshot parse(RTCStatsReport report) {
+        RtcStatsSnapshot next = previous;
+        previous = current;
+        current = next;
+        next.reset(report.getTimestampUs());
+
+        Map<String, RTCStats> statsMap = report.getStatsMap();
+        for (RTCStats stats : statsMap.values()) {
+            String type = stats.getType();
+            boolean outbound = OUTBOUND_RTP.equals(type);
+            if (!outbound && !INBOUND_RTP.equals(type)) {
+                continue;
+            }
+            Map<String, Object> members = stats.getMembers();
+            if (Boolean.TRUE.equals(members.get("isRemote"))) {
+                continue;
+            }
+            RtcStatsSnapshot.RtpStream stream = next.add();
+            readRtp(stream, stats, members, outbound);
+            readTrack(stream, statsMap.get(members.get("trackId")));
+            readCodec(stream, statsMap.get(members.get("codecId")));
+            readTransport(stream, statsMap, statsMap.get(members.get("transportId")));
+            RtcStatsSnapshot.RtpStream before = previous.find(stream.ssrc, outbound);
+            if (before != null) {
+                computeRates(stream, before);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Forget the previous report, e.g. when the stream is replaced; the next snapshot has no
+     * rates.
+     */
+    public void reset() {
+        current.reset(0);
+        previous.reset(0);
+    }
+
+    private static void readRtp(RtcStatsSnapshot.RtpStream stream, RTCStats stats,
+                                Map<String, Object> members, boolean outbound) {
+        Object mediaType = members.get("mediaType");
+        if (mediaType == null) {
+            mediaType = members.get("kind");
+        }
+        stream.ssrc = asLong(members.get("ssrc"));
+        stream.kind = "audio".equals(mediaType) ? RtcStatsSnapshot.Kind.AUDIO
+                                                : RtcStatsSnapshot.Kind.VIDEO;
+        stream.outbound = outbound;
+        stream.timestampUs = stats.getTimestampUs();
+        stream.nackCount = asLong(members.get("nackCount"));
+        stream.pliCount = asLong(members.get("pliCount"));
+        stream.firCount = asLong(members.get("firCount"));
+        if (outbound) {
+            stream.bytes = asLong(members.get("bytesSent"));
+            stream.packets = asLong(members.get("packetsSent"));
+            stream.frames = asLong(members.get("framesEncoded"));
+        } else {
+            stream.bytes = asLong(members.get("bytesReceived"));
+            stream.packets = asLong(members.get("packetsReceived"));
+            stream.frames = asLong(members.get("framesDecoded"));
+            stream.packetsLost = asLong(members.get("packetsLost"));
+            stream.jitterMs = asDouble(members.get("jitter")) * 1000;
+        }
+    }
+
+    private static void readTrack(RtcStatsSnapshot.RtpStream stream, RTCStats track) {
+        if (track == null) {
+            return;
+        }
+        Map<String, Object> members = track.getMembers();
+        stream.framesReceived = asLong(members.get("framesReceived"));
+        stream.frameWidth = asLong(members.get("frameWidth"));
+        stream.frameHeight = asLong(members.get("frameHeight"));
+        stream.audioLevel = asDouble(members.get("audioLevel"));
+    }
+
+    private static void readCodec(RtcStatsSnapshot.RtpStream stream, RTCStats codec) {
+        if (codec == null) {
+            return;
+        }
+        Map<String, Object> members = codec.getMembers();
+        stream.mimeType = (String) members.get("mimeType");
+        stream.clockRate = asLong(members.get("clockRate"));
+    }
+
+    private static void readTransport(RtcStatsSnapshot.RtpStream stream,
+                                      Map<String, RTCStats> statsMap, RTCStats transport) {
+        if (transport == null) {
+            return;
+        }
+        RTCStats pair = statsMap.get(transport.getMembers().get("selectedCandidatePairId"));
+        if (pair != null) {
+            stream.rttMs = asDouble(pair.getMembers().get("currentRoundTripTime")) * 1000;
+        }
+    }
+
+    private static void computeRates(RtcStatsSnapshot.RtpStream stream,
+                                     RtcStatsSnapshot.RtpStream before) {
+        double seconds = (stream.timestampUs - before.timestampUs) / 1e6;
+        long bytes = stream.bytes - before.bytes;
+        long packets = stream.packets - before.packets;
+        // A counter going backwards means the stream restarted; there is no rate to give.
+        if (seconds <= 0 || bytes < 0 || packets < 0) {
+            return;
+        }
+        stream.hasRates = true;
+        stream.bitrateKbps = bytes * 8 / seconds / 1000;
+        stream.packetRate = packets / seconds;
+        long frames = stream.frames - before.frames;
+        stream.frameRate = frames < 0 ? 0 : frames / seconds;
+        long lost = stream.packetsLost - before.packetsLost;
+        if (lost > 0) {
+            stream.lossPercent = lost * 100.0 / (packets + lost);
+        }
+    }
+
+    private static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static double asDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+}
@@ -0,0 +1,171 @@
+package com.intel.webrtc.sample.utils;
+
+/**
+ * The RTP streams of one RTCStatsReport, as filled in by {@link RtcStatsParser}: one
+ * {@link RtpStream} per SSRC and direction, with the fields of its track and codec stats
+ * folded in and its rates over the time since the previous report. The stream objects are
+ * reused from report to report, so nothing here is allocated per parse once the snapshot has
+ * grown to the number of streams in the call.
+ */
+public final class RtcStatsSnapshot {
+    public enum Kind {
+        AUDIO, VIDEO
+    }
+
+    public static final class RtpStream {
+        public long ssrc;
+        public Kind kind;
+        public boolean outbound;
+        // When the stats were gathered, in microseconds.
+        public double timestampUs;
+
+        // Counters since the stream started.
+        public long bytes;
+        public long packets;
+        // Frames encoded when outbound, decoded when inbound.
+        public long frames;
+        public long nackCount;
+        public long pliCount;
+        public long firCount;
+        // Inbound only.
+        public long packetsLost;
+        public double jitterMs;
+        // Of the transport's selected candidate pair, 0 if not known yet.
+        public double rttMs;
+
+        // From the track.
+        // Inbound video only: frames completely received, whether decoded yet or not.
+        public long framesReceived;
+        public long frameWidth;
+        public long frameHeight;
+        public double audioLevel;
+
+        // From the codec; null if the report has no codec stats for the stream.
+        public String mimeType;
+        public long clockRate;
+
+        // Over the time between the previous report and this one, 0 for the first report.
+        public boolean hasRates;
+        public double bitrateKbps;
+        public double packetRate;
+        public double frameRate;
+        public double lossPercent;
+
+        void clear() {
+            ssrc = 0;
+            kind = null;
+            outbound = false;
+            timestampUs = 0;
+            bytes = packets = frames = 0;
+            nackCount = pliCount = firCount = 0;
+            packetsLost = 0;
+            jitterMs = 0;
+            rttMs = 0;
+            framesReceived = 0;
+            frameWidth = frameHeight = 0;
+            audioLevel = 0;
+            mimeType = null;
+            clockRate = 0;
+            hasRates = false;
+            bitrateKbps = packetRate = frameRate = lossPercent = 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder()
+                    .append(kind == Kind.AUDIO ? "audio" : "video")
+                    .append(outbound ? " out " : " in ").append(ssrc)
+                    .append(' ').append(mimeType)
+                    .append(", ").append(Math.round(bitrateKbps)).append(" kbps");
+            if (kind == Kind.VIDEO) {
+                text.append(", ").append(frameWidth).append('x').append(frameHeight)
+                    .append(" @ ").append(Math.round(frameRate)).append(" fps");
+            }
+            if (rttMs > 0) {
+                text.append(", rtt ").append(Math.round(rttMs)).append(" ms");
+            }
+            if (!outbound) {
+                text.append(", loss ").append(Math.round(lossPercent * 10) / 10.0).append('%')
+                    .append(", jitter ").append(Math.round(jitterMs)).append(" ms");
+            }
+            return text.toString();
+        }
+    }
+
+    private RtpStream[] streams = new RtpStream[4];
+    private int size;
+    private double timestampUs;
+
+    public int size() {
+        return size;
+    }
+
+    public RtpStream get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return streams[index];
+    }
+
+    /**
+     * @return when the report was gathered, in microseconds.
+     */
+    public double getTimestampUs() {
+        return timestampUs;
+    }
+
+    /**
+     * @return the stream with |ssrc| in the given direction, or null.
+     */
+    public RtpStream find(long ssrc, boolean outbound) {
+        for (int i = 0; i < size; i++) {
+            if (streams[i].ssrc == ssrc && streams[i].outbound == outbound) {
+                return streams[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first stream of |kind| in the given direction, or null.
+     */
+    public RtpStream first(Kind kind, boolean outbound) {
+        for (int i = 0; i < size; i++) {
+            if (streams[i].kind == kind && streams[i].outbound == outbound) {
+                return streams[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            text.append(i == 0 ? "" : "; ").append(streams[i]);
+        }
+        return text.toString();
+    }
+
+    void reset(double timestampUs) {
+        this.timestampUs = timestampUs;
+        size = 0;
+    }
+
+    RtpStream add() {
+        if (size == streams.length) {
+            RtpStream[] grown = new RtpStream[size * 2];
+            System.arraycopy(streams, 0, grown, 0, size);
+            streams = grown;
+        }
+        RtpStream stream = streams[size];
+        if (stream == null) {
+            stream = new RtpStream();
+            streams[size] = stream;
+        } else {
+            stream.clear();
+        }
+        size++;
+        return stream;
+    }
+}
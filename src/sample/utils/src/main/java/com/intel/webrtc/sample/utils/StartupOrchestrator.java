@@ -0,0 +1,233 @@
+package com.intel.webrtc.sample.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the steps that bring a client up, e.g. permissions, context initialization, capturer
+ * warmup and signaling login, as concurrently as their dependencies allow, and reports once
+ * all of them are done. A step only waits for the steps it names; every other step starts as
+ * soon as {@link #start} is called.
+ *
+ * Each step is timed from its start to its completion. On completion the end-to-end time is
+ * logged next to the sum of the step times, which is what the same steps take when chained.
+ */
+public final class StartupOrchestrator {
+    private static final String TAG = "StartupOrchestrator";
+
+    /**
+     * One startup step. It may finish before returning or later from any thread, but has to
+     * report through |completion| exactly once; only the first report counts.
+     */
+    public interface Step {
+        void run(Completion completion);
+    }
+
+    public interface Completion {
+        void succeeded();
+
+        void failed(String reason);
+    }
+
+    /**
+     * Called on whichever thread reported the last completion or the failure.
+     */
+    public interface Listener {
+        void onCompleted(Map<String, Long> stepMs, long totalMs);
+
+        void onFailed(String step, String reason);
+    }
+
+    private final class Entry implements Completion, Runnable {
+        final String name;
+        final Step step;
+        final String[] after;
+        boolean started;
+        long startNanos;
+        long ms = -1;
+
+        Entry(String name, Step step, String[] after) {
+            this.name = name;
+            this.step = step;
+            this.after = after;
+        }
+
+        @Override
+        public void run() {
+            try {
+                step.run(this);
+            } catch (RuntimeException e) {
+                failed(e.toString());
+            }
+        }
+
+        @Override
+        public void succeeded() {
+            complete(this, null);
+        }
+
+        @Override
+        public void failed(String reason) {
+            complete(this, reason == null ? "unknown" : reason);
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private Executor executor;
+    private Listener listener;
+    private long startNanos;
+    private int remaining;
+    private boolean finished;
+    private boolean completed;
+
+    /**
+     * Add a step that starts once every step in |after| has succeeded. Steps named in |after|
+     * have to be added first.
+     */
+    public synchronized StartupOrchestrator addStep(String name, Step step, String... after) {
+        if (executor != null) {
+            throw new IllegalStateException("Startup has already started");
+        }
+        if (entries.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate step " + name);
+        }
+        for (String dependency : after) {
+            if (!entries.containsKey(dependency)) {
+                throw new IllegalArgumentException("Unknown step " + dependency);
+            }
+        }
+        entries.put(name, new Entry(name, step, after));
+        return this;
+    }
+
+    /**
+     * Start every step that depends on nothing on |executor|; the rest follow as their
+     * dependencies succeed. Steps that block should get an executor with a thread to spare
+     * for each of them.
+     */
+    public void start(Executor executor, Listener listener) {
+        boolean empty;
+        synchronized (this) {
+            if (this.executor != null) {
+                throw new IllegalStateException("Startup has already started");
+            }
+            this.executor = executor;
+            this.listener = listener;
+            startNanos = System.nanoTime();
+            remaining = entries.size();
+            empty = remaining == 0;
+            finished = empty;
+            completed = empty;
+        }
+        if (empty) {
+            listener.onCompleted(Collections.<String, Long>emptyMap(), 0);
+            return;
+        }
+        launchReady();
+    }
+
+    /**
+     * Stop starting steps and drop whatever the running ones report, e.g. when the user
+     * cancels the login.
+     */
+    public synchronized void cancel() {
+        finished = true;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return whether startup failed or was cancelled before every step succeeded. A step
+     * whose work outlives that, e.g. a login that is still in flight, should undo it when it
+     * finally succeeds.
+     */
+    public synchronized boolean isAbandoned() {
+        return finished && !completed;
+    }
+
+    /**
+     * @return how long each completed step took, in the order the steps were added.
+     */
+    public synchronized Map<String, Long> getStepMs() {
+        Map<String, Long> stepMs = new LinkedHashMap<>();
+        for (Entry entry : entries.values()) {
+            if (entry.ms >= 0) {
+                stepMs.put(entry.name, entry.ms);
+            }
+        }
+        return stepMs;
+    }
+
+    private void complete(Entry entry, String failure) {
+        long totalMs;
+        synchronized (this) {
+            if (finished || entry.ms >= 0) {
+                return;
+            }
+            long nowNanos = System.nanoTime();
+            entry.ms = TimeUnit.NANOSECONDS.toMillis(nowNanos - entry.startNanos);
+            Log.d(TAG, entry.name + (failure == null ? " done in " : " failed in ") + entry.ms
+                    + " ms");
+            if (failure == null && --remaining > 0) {
+                totalMs = -1;
+            } else {
+                finished = true;
+                completed = failure == null;
+                totalMs = TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos);
+            }
+        }
+        if (failure != null) {
+            listener.onFailed(entry.name, failure);
+        } else if (totalMs >= 0) {
+            Map<String, Long> stepMs = getStepMs();
+            long serialMs = 0;
+            for (long ms : stepMs.values()) {
+                serialMs += ms;
+            }
+            Log.d(TAG, "startup done in " + totalMs + " ms, " + serialMs
+                    + " ms if chained: " + stepMs);
+            listener.onCompleted(stepMs, totalMs);
+        } else {
+            launchReady();
+        }
+    }
+
+    private void launchReady() {
+        for (Entry entry : takeReady()) {
+            executor.execute(entry);
+        }
+    }
+
+    private synchronized List<Entry> takeReady() {
+        List<Entry> ready = new ArrayList<>();
+        if (finished) {
+            return ready;
+        }
+        for (Entry entry : entries.values()) {
+            if (!entry.started && dependenciesDone(entry)) {
+                entry.started = true;
+                entry.startNanos = System.nanoTime();
+                ready.add(entry);
+            }
+        }
+        return ready;
+    }
+
+    private boolean dependenciesDone(Entry entry) {
+        for (String dependency : entry.after) {
+            if (entries.get(dependency).ms < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
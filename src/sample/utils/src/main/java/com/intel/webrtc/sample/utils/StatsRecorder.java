@@ -0,0 +1,204 @@
+package com.intel.webrtc.sample.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Appends every stats report to a recording on local storage, so a bad call can be looked at
+ * after the fact with {@link StatsRecordingDecoder}. Each stream of a {@link RtcStatsSnapshot}
+ * becomes one fixed-width binary record; the records of a report are encoded on the calling
+ * thread and written from a background thread through a FileChannel, so callers never wait on
+ * storage.
+ *
+ * The recording alternates between two files in |directory|, each capped at half of
+ * |maxBytes|: once the current file is full the other one is truncated and written next, so
+ * the recording always holds the most recent reports. Every start truncates the older file,
+ * which keeps the previous run around.
+ *
+ * A file is a {@link #HEADER_SIZE} byte header followed by {@link #RECORD_SIZE} byte records,
+ * all big-endian:
+ * header: magic "ICSS", version (short), record size (short), start wall clock ms (long);
+ * record: wall clock ms (long), stats timestamp us (long), source (16 bytes ASCII, zero
+ * padded), codec (8 bytes ASCII), ssrc (int), flags (byte: 1 video, 2 outbound, 4 has rates,
+ * then 3 unused bytes), bytes (long), packets (long), frames, packets lost, NACK, PLI and FIR
+ * counts (int each), width and height (short each), then bitrate kbps, packet rate, frame
+ * rate, loss percent, jitter ms, RTT ms and audio level (float each), padded to the record
+ * size.
+ */
+public final class StatsRecorder {
+    private static final String TAG = "StatsRecorder";
+
+    static final int MAGIC = 0x49435353;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 128;
+    static final int SOURCE_SIZE = 16;
+    static final int CODEC_SIZE = 8;
+    static final int FLAG_VIDEO = 1;
+    static final int FLAG_OUTBOUND = 2;
+    static final int FLAG_HAS_RATES = 4;
+    static final String[] FILE_NAMES = {"stats-0.bin", "stats-1.bin"};
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File directory;
+    private final long maxFileBytes;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    // Only touched on |writer|.
+    private FileChannel channel;
+    private int fileIndex = -1;
+
+    public StatsRecorder(File directory, long maxBytes) {
+        if (maxBytes < 2 * (HEADER_SIZE + RECORD_SIZE)) {
+            throw new IllegalArgumentException("maxBytes too small: " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxFileBytes = maxBytes / 2;
+    }
+
+    /**
+     * Record every stream in |snapshot| under |source|, e.g. the id of the publication or
+     * subscription the report came from; only its first 16 characters are kept.
+     */
+    public void record(String source, RtcStatsSnapshot snapshot) {
+        if (snapshot.size() == 0) {
+            return;
+        }
+        long wallMs = System.currentTimeMillis();
+        byte[] sourceBytes = ascii(source, SOURCE_SIZE);
+        final ByteBuffer records = ByteBuffer.allocate(snapshot.size() * RECORD_SIZE);
+        for (int i = 0; i < snapshot.size(); i++) {
+            encode(records, wallMs, sourceBytes, snapshot.get(i));
+        }
+        records.flip();
+        try {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(records);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed; the report is dropped.
+        }
+    }
+
+    /**
+     * Write what has been recorded so far and close the recording. Later reports are dropped.
+     */
+    public void close() {
+        try {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeChannel();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        writer.shutdown();
+    }
+
+    private void write(ByteBuffer records) {
+        try {
+            if (channel == null || channel.size() + records.remaining() > maxFileBytes) {
+                rotate();
+            }
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record stats", e);
+            closeChannel();
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeChannel();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        if (fileIndex < 0) {
+            // Start over the file that was written least recently.
+            File first = new File(directory, FILE_NAMES[0]);
+            File second = new File(directory, FILE_NAMES[1]);
+            fileIndex = first.lastModified() <= second.lastModified() ? 0 : 1;
+        } else {
+            fileIndex = 1 - fileIndex;
+        }
+        File file = new File(directory, FILE_NAMES[fileIndex]);
+        channel = new FileOutputStream(file).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE)
+              .putLong(System.currentTimeMillis());
+        header.position(HEADER_SIZE);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        Log.d(TAG, "recording stats to " + file);
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close stats recording", e);
+        }
+        channel = null;
+    }
+
+    private static void encode(ByteBuffer records, long wallMs, byte[] source,
+                               RtcStatsSnapshot.RtpStream stream) {
+        int start = records.position();
+        int flags = (stream.kind == RtcStatsSnapshot.Kind.VIDEO ? FLAG_VIDEO : 0)
+                | (stream.outbound ? FLAG_OUTBOUND : 0)
+                | (stream.hasRates ? FLAG_HAS_RATES : 0);
+        String mimeType = stream.mimeType == null ? "" : stream.mimeType;
+        records.putLong(wallMs)
+               .putLong((long) stream.timestampUs)
+               .put(source)
+               .put(ascii(mimeType.substring(mimeType.indexOf('/') + 1), CODEC_SIZE))
+               .putInt((int) stream.ssrc)
+               .put((byte) flags)
+               .put((byte) 0)
+               .putShort((short) 0)
+               .putLong(stream.bytes)
+               .putLong(stream.packets)
+               .putInt((int) stream.frames)
+               .putInt((int) stream.packetsLost)
+               .putInt((int) stream.nackCount)
+               .putInt((int) stream.pliCount)
+               .putInt((int) stream.firCount)
+               .putShort((short) stream.frameWidth)
+               .putShort((short) stream.frameHeight)
+               .putFloat((float) stream.bitrateKbps)
+               .putFloat((float) stream.packetRate)
+               .putFloat((float) stream.frameRate)
+               .putFloat((float) stream.lossPercent)
+               .putFloat((float) stream.jitterMs)
+               .putFloat((float) stream.rttMs)
+               .putFloat((float) stream.audioLevel);
+        records.position(start + RECORD_SIZE);
+    }
+
+    // |text| as zero padded ASCII, cut to |size| bytes.
+    private static byte[] ascii(String text, int size) {
+        byte[] bytes = new byte[size];
+        byte[] encoded = text.getBytes(ASCII);
+        System.arraycopy(encoded, 0, bytes, 0, Math.min(encoded.length, size));
+        return bytes;
+    }
+}
@@ -0,0 +1,185 @@
+package com.intel.webrtc.sample.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Turns a recording written by {@link StatsRecorder} into CSV or JSON lines for offline
+ * analysis. Runs on a desktop JVM, e.g. after pulling the recording off the device with
+ * adb shell run-as &lt;package&gt; cat files/&lt;directory&gt;/stats-0.bin &gt; stats-0.bin:
+ *
+ * java com.intel.webrtc.sample.utils.StatsRecordingDecoder [--json] &lt;file or directory&gt;...
+ *
+ * Files are decoded oldest first; a record cut short by the app dying mid-write is skipped.
+ */
+public final class StatsRecordingDecoder {
+    static final String[] COLUMNS = {
+            "wall_ms", "timestamp_us", "source", "kind", "direction", "ssrc", "codec", "bytes",
+            "packets", "frames", "packets_lost", "nack_count", "pli_count", "fir_count", "width",
+            "height", "has_rates", "bitrate_kbps", "packet_rate", "frame_rate", "loss_percent",
+            "jitter_ms", "rtt_ms", "audio_level"
+    };
+
+    private StatsRecordingDecoder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean json = false;
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--json")) {
+                json = true;
+            } else if (new File(arg).isDirectory()) {
+                for (String name : StatsRecorder.FILE_NAMES) {
+                    File file = new File(arg, name);
+                    if (file.isFile()) {
+                        files.add(file);
+                    }
+                }
+            } else {
+                files.add(new File(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: StatsRecordingDecoder [--json] <file or directory>...");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        int records = decode(files, out, json);
+        out.flush();
+        System.err.println(records + " records");
+    }
+
+    /**
+     * Write the records of |files| to |out|, oldest file first, as CSV with a header line or,
+     * if |json|, as one JSON object per line.
+     *
+     * @return the number of records written.
+     */
+    public static int decode(List<File> files, Appendable out, boolean json)
+            throws IOException {
+        List<ByteBuffer> recordings = new ArrayList<>();
+        for (File file : files) {
+            recordings.add(map(file));
+        }
+        Collections.sort(recordings, new Comparator<ByteBuffer>() {
+            @Override
+            public int compare(ByteBuffer a, ByteBuffer b) {
+                long aStartMs = a.getLong(8);
+                long bStartMs = b.getLong(8);
+                return aStartMs < bStartMs ? -1 : (aStartMs == bStartMs ? 0 : 1);
+            }
+        });
+        if (!json) {
+            appendCsv(out, COLUMNS);
+        }
+        int count = 0;
+        for (ByteBuffer recording : recordings) {
+            int recordSize = recording.getShort(6);
+            for (int start = StatsRecorder.HEADER_SIZE;
+                 start + recordSize <= recording.limit(); start += recordSize) {
+                recording.position(start);
+                Object[] values = decodeRecord(recording);
+                if (json) {
+                    appendJson(out, values);
+                } else {
+                    appendCsv(out, values);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer recording =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (recording.limit() < StatsRecorder.HEADER_SIZE
+                    || recording.getInt(0) != StatsRecorder.MAGIC) {
+                throw new IOException(file + " is not a stats recording");
+            }
+            if (recording.getShort(4) != StatsRecorder.VERSION) {
+                throw new IOException(file + " has unsupported version " + recording.getShort(4));
+            }
+            return recording;
+        } finally {
+            input.close();
+        }
+    }
+
+    // One record's values, in COLUMNS order.
+    private static Object[] decodeRecord(ByteBuffer record) {
+        long wallMs = record.getLong();
+        long timestampUs = record.getLong();
+        String source = ascii(record, StatsRecorder.SOURCE_SIZE);
+        String codec = ascii(record, StatsRecorder.CODEC_SIZE);
+        long ssrc = record.getInt() & 0xffffffffL;
+        int flags = record.get();
+        record.position(record.position() + 3);
+        return new Object[]{
+                wallMs, timestampUs, source,
+                (flags & StatsRecorder.FLAG_VIDEO) != 0 ? "video" : "audio",
+                (flags & StatsRecorder.FLAG_OUTBOUND) != 0 ? "out" : "in",
+                ssrc, codec, record.getLong(), record.getLong(), record.getInt(),
+                record.getInt(), record.getInt(), record.getInt(), record.getInt(),
+                record.getShort() & 0xffff, record.getShort() & 0xffff,
+                (flags & StatsRecorder.FLAG_HAS_RATES) != 0, record.getFloat(),
+                record.getFloat(), record.getFloat(), record.getFloat(), record.getFloat(),
+                record.getFloat(), record.getFloat()
+        };
+    }
+
+    private static String ascii(ByteBuffer record, int size) {
+        byte[] bytes = new byte[size];
+        record.get(bytes);
+        int length = 0;
+        while (length < size && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, StatsRecorder.ASCII);
+    }
+
+    private static void appendCsv(Appendable out, Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(String.valueOf(values[i]));
+        }
+        out.append('\n');
+    }
+
+    private static void appendJson(Appendable out, Object[] values) throws IOException {
+        out.append('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append('"').append(COLUMNS[i]).append("\":");
+            if (values[i] instanceof String) {
+                out.append('"').append(escape((String) values[i])).append('"');
+            } else {
+                out.append(String.valueOf(values[i]));
+            }
+        }
+        out.append("}\n");
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,295 @@
+package com.intel.webrtc.sample.utils;
+
+import android.util.Log;
+
+import com.intel.webrtc.base.ActionCallback;
+import com.intel.webrtc.base.IcsError;
+
+import org.webrtc.RTCStatsReport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the stats of every registered publication and subscription from one thread. Sources
+ * that are due are asked for stats together on a shared tick, each report is parsed with the
+ * source's own {@link RtcStatsParser} and handed to its listener, and the next poll of each
+ * source is scheduled by how its call is doing:
+ * <ul>
+ * <li>every |minIntervalMs| for the first {@link #RAMP_UP_MS} after registering, after
+ * {@link #accelerate} and while the call degrades: loss above {@link #LOSS_DEGRADED_PERCENT},
+ * video bitrate halved or RTT doubled since the previous report;</li>
+ * <li>twice as long after every {@link #STABLE_POLLS} polls with none of that, up to
+ * |maxIntervalMs|;</li>
+ * <li>never more often than {@link #LATENCY_FACTOR} times as long as getStats took last
+ * time, and at most one request in flight per source, so a slow getStats is not piled on.
+ * A failed request doubles the interval.</li>
+ * </ul>
+ */
+public final class StatsScheduler {
+    private static final String TAG = "StatsScheduler";
+    static final long RAMP_UP_MS = 10000;
+    static final int STABLE_POLLS = 3;
+    static final double LOSS_DEGRADED_PERCENT = 2;
+    static final int LATENCY_FACTOR = 10;
+    // A bitrate below this share of the previous one, or an RTT above its inverse, degrades.
+    private static final double DEGRADED_RATIO = 0.5;
+
+    /**
+     * Where the stats of one registration come from, usually Publication or Subscription
+     * getStats.
+     */
+    public interface Source {
+        void getStats(ActionCallback<RTCStatsReport> callback);
+    }
+
+    /**
+     * Called on the scheduler's thread. |snapshot| is only valid until the call returns.
+     */
+    public interface Listener {
+        void onStats(String id, RtcStatsSnapshot snapshot);
+    }
+
+    private final class Registration {
+        final String id;
+        final Source source;
+        final Listener listener;
+        final RtcStatsParser parser = new RtcStatsParser();
+        long intervalMs;
+        long nextPollMs;
+        long rampUpUntilMs;
+        long sentMs;
+        boolean inFlight;
+        int stablePolls;
+        double videoKbps;
+        double rttMs;
+
+        Registration(String id, Source source, Listener listener) {
+            this.id = id;
+            this.source = source;
+            this.listener = listener;
+        }
+    }
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor();
+    // Only touched on |executor|.
+    private final Map<String, Registration> registrations = new LinkedHashMap<>();
+    private ScheduledFuture<?> tick;
+
+    public StatsScheduler(long minIntervalMs, long maxIntervalMs) {
+        if (minIntervalMs <= 0 || maxIntervalMs < minIntervalMs) {
+            throw new IllegalArgumentException(
+                    "Bad intervals " + minIntervalMs + ", " + maxIntervalMs);
+        }
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+    }
+
+    /**
+     * Start polling |source| under |id|, replacing any registration with the same id. The
+     * first poll is on the next tick.
+     */
+    public void register(final String id, final Source source, final Listener listener) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                long nowMs = nowMs();
+                Registration registration = new Registration(id, source, listener);
+                registration.intervalMs = minIntervalMs;
+                registration.nextPollMs = nowMs;
+                registration.rampUpUntilMs = nowMs + RAMP_UP_MS;
+                registrations.put(id, registration);
+                if (tick == null) {
+                    tick = executor.scheduleAtFixedRate(new Runnable() {
+                        @Override
+                        public void run() {
+                            pollDue();
+                        }
+                    }, 0, minIntervalMs, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop polling |id|; a report already requested is dropped.
+     */
+    public void unregister(final String id) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                registrations.remove(id);
+                if (registrations.isEmpty() && tick != null) {
+                    tick.cancel(false);
+                    tick = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Poll |id| at the fastest rate again, e.g. while the call is being recovered.
+     */
+    public void accelerate(final String id) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Registration registration = registrations.get(id);
+                if (registration == null) {
+                    return;
+                }
+                registration.stablePolls = 0;
+                registration.rampUpUntilMs = nowMs() + RAMP_UP_MS;
+                setInterval(registration, minIntervalMs, "accelerated");
+                registration.nextPollMs = Math.min(registration.nextPollMs, nowMs());
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void pollDue() {
+        // Sources due within half a tick go now, so polls line up on the shared tick.
+        long nowMs = nowMs();
+        long dueMs = nowMs + minIntervalMs / 2;
+        List<Registration> due = new ArrayList<>();
+        for (Registration registration : registrations.values()) {
+            if (!registration.inFlight && registration.nextPollMs <= dueMs) {
+                due.add(registration);
+            }
+        }
+        for (Registration registration : due) {
+            poll(registration, nowMs);
+        }
+    }
+
+    private void poll(final Registration registration, long nowMs) {
+        registration.inFlight = true;
+        registration.sentMs = nowMs;
+        try {
+            registration.source.getStats(new ActionCallback<RTCStatsReport>() {
+                @Override
+                public void onSuccess(final RTCStatsReport result) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onReport(registration, result);
+                        }
+                    });
+                }
+
+                @Override
+                public void onFailure(final IcsError error) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onFailed(registration, error.errorMessage);
+                        }
+                    });
+                }
+            });
+        } catch (RuntimeException e) {
+            onFailed(registration, e.toString());
+        }
+    }
+
+    private void onReport(Registration registration, RTCStatsReport report) {
+        if (registrations.get(registration.id) != registration) {
+            return;
+        }
+        long nowMs = nowMs();
+        registration.inFlight = false;
+        RtcStatsSnapshot snapshot = registration.parser.parse(report);
+        registration.listener.onStats(registration.id, snapshot);
+
+        long intervalMs = registration.intervalMs;
+        String reason = null;
+        if (isDegraded(registration, snapshot)) {
+            registration.stablePolls = 0;
+            intervalMs = minIntervalMs;
+            reason = "degraded";
+        } else if (nowMs < registration.rampUpUntilMs) {
+            intervalMs = minIntervalMs;
+        } else if (++registration.stablePolls >= STABLE_POLLS) {
+            registration.stablePolls = 0;
+            intervalMs = Math.min(intervalMs * 2, maxIntervalMs);
+            reason = "stable";
+        }
+        long latencyMs = nowMs - registration.sentMs;
+        if (intervalMs < latencyMs * LATENCY_FACTOR) {
+            intervalMs = Math.min(latencyMs * LATENCY_FACTOR, maxIntervalMs);
+            reason = "getStats took " + latencyMs + " ms";
+        }
+        setInterval(registration, intervalMs, reason);
+        registration.nextPollMs = registration.sentMs + registration.intervalMs;
+    }
+
+    private void onFailed(Registration registration, String reason) {
+        if (registrations.get(registration.id) != registration) {
+            return;
+        }
+        registration.inFlight = false;
+        setInterval(registration, Math.min(registration.intervalMs * 2, maxIntervalMs),
+                    "getStats failed: " + reason);
+        registration.nextPollMs = nowMs() + registration.intervalMs;
+    }
+
+    private boolean isDegraded(Registration registration, RtcStatsSnapshot snapshot) {
+        double videoKbps = 0;
+        double rttMs = 0;
+        boolean lossy = false;
+        boolean hasRates = false;
+        for (int i = 0; i < snapshot.size(); i++) {
+            RtcStatsSnapshot.RtpStream stream = snapshot.get(i);
+            if (!stream.hasRates) {
+                continue;
+            }
+            hasRates = true;
+            if (stream.kind == RtcStatsSnapshot.Kind.VIDEO) {
+                videoKbps += stream.bitrateKbps;
+            }
+            rttMs = Math.max(rttMs, stream.rttMs);
+            lossy |= !stream.outbound && stream.lossPercent > LOSS_DEGRADED_PERCENT;
+        }
+        if (!hasRates) {
+            return false;
+        }
+        boolean degraded = lossy
+                || videoKbps < registration.videoKbps * DEGRADED_RATIO
+                || rttMs * DEGRADED_RATIO > registration.rttMs && registration.rttMs > 0;
+        registration.videoKbps = videoKbps;
+        registration.rttMs = rttMs;
+        return degraded;
+    }
+
+    private void setInterval(Registration registration, long intervalMs, String reason) {
+        if (registration.intervalMs != intervalMs && reason != null) {
+            Log.d(TAG, registration.id + ": stats every " + intervalMs + " ms, " + reason);
+        }
+        registration.intervalMs = intervalMs;
+    }
+
+    private void post(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shut down.
+        }
+    }
+
+    private static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,207 @@
+package com.intel.webrtc.sample.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the last few minutes of per-stream metrics from {@link RtcStatsSnapshot}s in fixed-size
+ * rings, one per publication or subscription stream, and answers min, max and percentile
+ * queries over any window of them. A stream's ring is allocated the first time the stream is
+ * seen and holds enough samples for |retainMs| at |minIntervalMs|, so memory stays the same
+ * however long the call runs.
+ *
+ * Samples are stamped with the stats' own timestamps, in milliseconds. Metrics a report has no
+ * value for, e.g. loss on an outbound stream or rates in the first report, are left out of the
+ * queries rather than counted as 0.
+ */
+public final class StatsTimeSeries {
+
+    public enum Metric {
+        BITRATE_KBPS, RTT_MS, JITTER_MS, LOSS_PERCENT, FRAME_RATE, FRAME_WIDTH, FRAME_HEIGHT
+    }
+
+    public static final class Summary {
+        public final int count;
+        public final double min;
+        public final double max;
+        public final double p50;
+        public final double p95;
+
+        Summary(int count, double min, double max, double p50, double p95) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.p50 = p50;
+            this.p95 = p95;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) {
+                return "no samples";
+            }
+            return "min " + Math.round(min) + ", p50 " + Math.round(p50) + ", p95 "
+                    + Math.round(p95) + ", max " + Math.round(max) + " (" + count + " samples)";
+        }
+    }
+
+    private static final Summary EMPTY = new Summary(0, 0, 0, 0, 0);
+    private static final int METRICS = Metric.values().length;
+
+    private static final class Ring {
+        final double[] timesMs;
+        // METRICS values per sample, NaN where the report had none.
+        final double[] values;
+        int next;
+        int size;
+
+        Ring(int capacity) {
+            timesMs = new double[capacity];
+            values = new double[capacity * METRICS];
+        }
+
+        void add(double timeMs, RtcStatsSnapshot.RtpStream stream) {
+            int offset = next * METRICS;
+            timesMs[next] = timeMs;
+            values[offset + Metric.BITRATE_KBPS.ordinal()] =
+                    stream.hasRates ? stream.bitrateKbps : Double.NaN;
+            values[offset + Metric.RTT_MS.ordinal()] =
+                    stream.rttMs > 0 ? stream.rttMs : Double.NaN;
+            values[offset + Metric.JITTER_MS.ordinal()] =
+                    stream.outbound ? Double.NaN : stream.jitterMs;
+            values[offset + Metric.LOSS_PERCENT.ordinal()] =
+                    stream.outbound || !stream.hasRates ? Double.NaN : stream.lossPercent;
+            boolean video = stream.kind == RtcStatsSnapshot.Kind.VIDEO;
+            values[offset + Metric.FRAME_RATE.ordinal()] =
+                    video && stream.hasRates ? stream.frameRate : Double.NaN;
+            values[offset + Metric.FRAME_WIDTH.ordinal()] =
+                    video && stream.frameWidth > 0 ? stream.frameWidth : Double.NaN;
+            values[offset + Metric.FRAME_HEIGHT.ordinal()] =
+                    video && stream.frameHeight > 0 ? stream.frameHeight : Double.NaN;
+            next = (next + 1) % timesMs.length;
+            size = Math.min(size + 1, timesMs.length);
+        }
+
+        double newestMs() {
+            return timesMs[(next - 1 + timesMs.length) % timesMs.length];
+        }
+    }
+
+    private final long retainMs;
+    private final int capacity;
+    private final Map<String, Ring> rings = new HashMap<>();
+    private final double[] scratch;
+
+    public StatsTimeSeries(long retainMs, long minIntervalMs) {
+        this.retainMs = retainMs;
+        this.capacity = (int) (retainMs / minIntervalMs) + 1;
+        this.scratch = new double[capacity];
+    }
+
+    /**
+     * @return the key the stream of |kind| in the given direction of |source| is kept under.
+     */
+    public static String key(String source, RtcStatsSnapshot.Kind kind, boolean outbound) {
+        return source + (kind == RtcStatsSnapshot.Kind.AUDIO ? "/audio" : "/video")
+                + (outbound ? "-out" : "-in");
+    }
+
+    /**
+     * Add a sample for every stream in |snapshot|, under {@link #key} with |source|, e.g. the
+     * id of the publication or subscription the report came from.
+     */
+    public synchronized void record(String source, RtcStatsSnapshot snapshot) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            RtcStatsSnapshot.RtpStream stream = snapshot.get(i);
+            String key = key(source, stream.kind, stream.outbound);
+            Ring ring = rings.get(key);
+            if (ring == null) {
+                ring = new Ring(capacity);
+                rings.put(key, ring);
+            }
+            ring.add(stream.timestampUs / 1000, stream);
+        }
+    }
+
+    /**
+     * @return |metric| of stream |key| over the last |windowMs| before its newest sample.
+     */
+    public synchronized Summary query(String key, Metric metric, long windowMs) {
+        Ring ring = rings.get(key);
+        if (ring == null || ring.size == 0) {
+            return EMPTY;
+        }
+        double newestMs = ring.newestMs();
+        return query(ring, metric, newestMs - windowMs, newestMs);
+    }
+
+    /**
+     * @return |metric| of stream |key| over samples stamped from |fromMs| to |toMs|, inclusive.
+     */
+    public synchronized Summary query(String key, Metric metric, double fromMs, double toMs) {
+        Ring ring = rings.get(key);
+        if (ring == null || ring.size == 0) {
+            return EMPTY;
+        }
+        return query(ring, metric, fromMs, toMs);
+    }
+
+    /**
+     * @return the newest value of |metric| for stream |key|, NaN if it has none.
+     */
+    public synchronized double latest(String key, Metric metric) {
+        Ring ring = rings.get(key);
+        if (ring == null || ring.size == 0) {
+            return Double.NaN;
+        }
+        int newest = (ring.next - 1 + capacity) % capacity;
+        return ring.values[newest * METRICS + metric.ordinal()];
+    }
+
+    public synchronized Set<String> keys() {
+        return new TreeSet<>(rings.keySet());
+    }
+
+    /**
+     * Drop the streams of |source|, e.g. once its publication or subscription has ended.
+     */
+    public synchronized void remove(String source) {
+        rings.keySet().removeAll(Arrays.asList(
+                key(source, RtcStatsSnapshot.Kind.AUDIO, true),
+                key(source, RtcStatsSnapshot.Kind.AUDIO, false),
+                key(source, RtcStatsSnapshot.Kind.VIDEO, true),
+                key(source, RtcStatsSnapshot.Kind.VIDEO, false)));
+    }
+
+    public synchronized void clear() {
+        rings.clear();
+    }
+
+    private Summary query(Ring ring, Metric metric, double fromMs, double toMs) {
+        // Older samples may still be in the ring when stats were polled faster than expected.
+        fromMs = Math.max(fromMs, ring.newestMs() - retainMs);
+        int count = 0;
+        for (int i = 0; i < ring.size; i++) {
+            double timeMs = ring.timesMs[i];
+            double value = ring.values[i * METRICS + metric.ordinal()];
+            if (timeMs >= fromMs && timeMs <= toMs && !Double.isNaN(value)) {
+                scratch[count++] = value;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(scratch, 0, count);
+        return new Summary(count, scratch[0], scratch[count - 1], percentile(count, 50),
+                           percentile(count, 95));
+    }
+
+    // Nearest-rank percentile of the |count| sorted values in |scratch|.
+    private double percentile(int count, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return scratch[Math.max(rank, 1) - 1];
+    }
+}
@@ -0,0 +1,286 @@
+package com.intel.webrtc.sample.utils;
+
+import android.util.Log;
+
+import org.webrtc.VideoRenderer;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells when the remote video of a call freezes, which the SDK has no callback for: the stream
+ * stays up while frames stop arriving, stop being decoded or stop reaching the screen.
+ *
+ * {@link #getRenderer()} is attached to the remote stream next to the view showing it, and
+ * a freeze starts once no frame has been rendered for three average frame intervals, or the
+ * average plus 150 ms if that is longer, checked every {@link #CHECK_INTERVAL_MS}. Until a
+ * frame has been rendered, e.g. when the renderer is not attached, a stats report in which
+ * framesDecoded did not move starts one instead. The next rendered or decoded frame ends the
+ * freeze.
+ *
+ * The inbound video stats handed to {@link #onStats} tell the {@link Cause}, and the optional
+ * {@link Recovery} is asked for each {@link Action} in turn as the freeze outlasts it. All
+ * callbacks are made on |executor|.
+ */
+public final class VideoStallDetector {
+    private static final String TAG = "VideoStallDetector";
+    static final long CHECK_INTERVAL_MS = 250;
+    // Weight of the newest frame interval in the average.
+    private static final double AVERAGE_WEIGHT = 0.1;
+
+    public enum Cause {
+        // No stats yet.
+        UNKNOWN,
+        // bytesReceived stopped: nothing arrives.
+        NO_MEDIA,
+        // Packets arrive but framesReceived stopped, e.g. under heavy loss.
+        NO_FRAMES,
+        // Frames arrive but framesDecoded stopped, e.g. waiting on a keyframe.
+        NOT_DECODED,
+        // Frames are decoded but not rendered, or have no size.
+        NOT_RENDERED
+    }
+
+    public enum Action {
+        REQUEST_KEYFRAME(1000), RESTART_ICE(3000), RESUBSCRIBE(8000);
+
+        // How long the video has to be frozen before the action is asked for.
+        public final long afterMs;
+
+        Action(long afterMs) {
+            this.afterMs = afterMs;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * The video froze, or a frozen video's cause changed with a new stats report.
+         *
+         * @param frozenMs how long the video has been frozen so far.
+         */
+        void onFreeze(String id, Cause cause, long frozenMs);
+
+        void onFreezeEnded(String id, long durationMs);
+    }
+
+    public interface Recovery {
+        void recover(String id, Action action);
+    }
+
+    private final String id;
+    private final ScheduledExecutorService executor;
+    private final Listener listener;
+    private final Recovery recovery;
+    private final VideoRenderer.Callbacks renderer = new VideoRenderer.Callbacks() {
+        @Override
+        public void renderFrame(VideoRenderer.I420Frame frame) {
+            VideoRenderer.renderFrameDone(frame);
+            onFrame(System.nanoTime());
+        }
+    };
+
+    // Guarded by |this|.
+    private long renderedFrames;
+    private long lastFrameNanos;
+    private double averageIntervalMs;
+    private boolean frozen;
+    private long frozenSinceNanos;
+    private int nextAction;
+    private Cause cause = Cause.UNKNOWN;
+    private boolean hasStats;
+    private long statsNanos;
+    private long bytes;
+    private long framesReceived;
+    private long framesDecoded;
+    private ScheduledFuture<?> check;
+
+    public VideoStallDetector(String id, ScheduledExecutorService executor, Listener listener,
+                              Recovery recovery) {
+        this.id = id;
+        this.executor = executor;
+        this.listener = listener;
+        this.recovery = recovery;
+    }
+
+    /**
+     * @return the renderer to attach to the remote stream; it only counts frames.
+     */
+    public VideoRenderer.Callbacks getRenderer() {
+        return renderer;
+    }
+
+    public synchronized void start() {
+        if (check != null) {
+            return;
+        }
+        try {
+            check = executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    check(System.nanoTime());
+                }
+            }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down.
+        }
+    }
+
+    /**
+     * Stop watching, e.g. when the remote stream ends; a freeze in progress is dropped without
+     * {@link Listener#onFreezeEnded}. {@link #start} watches the next stream afresh.
+     */
+    public synchronized void stop() {
+        if (check != null) {
+            check.cancel(false);
+            check = null;
+        }
+        renderedFrames = 0;
+        averageIntervalMs = 0;
+        frozen = false;
+        cause = Cause.UNKNOWN;
+        hasStats = false;
+    }
+
+    public synchronized boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Take the inbound video of |snapshot|, e.g. from a {@link StatsScheduler} listener.
+     */
+    public void onStats(RtcStatsSnapshot snapshot) {
+        RtcStatsSnapshot.RtpStream video = snapshot.first(RtcStatsSnapshot.Kind.VIDEO, false);
+        if (video == null) {
+            return;
+        }
+        long nowNanos = System.nanoTime();
+        synchronized (this) {
+            if (check == null) {
+                return;
+            }
+            if (hasStats) {
+                boolean decoding = video.frames > framesDecoded;
+                Cause previous = cause;
+                cause = causeOf(video, decoding);
+                if (renderedFrames == 0 && !decoding && !frozen) {
+                    // Nothing to go by but the stats: frozen since the previous report.
+                    freeze(statsNanos, nowNanos);
+                } else if (renderedFrames == 0 && decoding && frozen) {
+                    thaw(nowNanos);
+                } else if (frozen && cause != previous) {
+                    notifyFreeze(cause, nowNanos - frozenSinceNanos);
+                }
+            }
+            hasStats = true;
+            statsNanos = nowNanos;
+            bytes = video.bytes;
+            framesReceived = video.framesReceived;
+            framesDecoded = video.frames;
+        }
+    }
+
+    // Called holding |this|.
+    private Cause causeOf(RtcStatsSnapshot.RtpStream video, boolean decoding) {
+        if (video.bytes <= bytes) {
+            return Cause.NO_MEDIA;
+        }
+        // framesReceived is missing from older stats, leaving it at 0.
+        if (video.framesReceived > 0 && video.framesReceived <= framesReceived) {
+            return Cause.NO_FRAMES;
+        }
+        if (!decoding) {
+            return Cause.NOT_DECODED;
+        }
+        return video.frameWidth == 0 || renderedFrames > 0 ? Cause.NOT_RENDERED : Cause.UNKNOWN;
+    }
+
+    private synchronized void onFrame(long nowNanos) {
+        if (check == null) {
+            return;
+        }
+        if (renderedFrames++ > 0 && !frozen) {
+            double intervalMs = (nowNanos - lastFrameNanos) / 1e6;
+            averageIntervalMs = averageIntervalMs == 0 ? intervalMs
+                    : averageIntervalMs + (intervalMs - averageIntervalMs) * AVERAGE_WEIGHT;
+        }
+        lastFrameNanos = nowNanos;
+        if (frozen) {
+            thaw(nowNanos);
+        }
+    }
+
+    private void check(long nowNanos) {
+        Action action = null;
+        long frozenNanos;
+        synchronized (this) {
+            if (check == null) {
+                return;
+            }
+            if (!frozen && renderedFrames > 1) {
+                double thresholdMs = Math.max(3 * averageIntervalMs, averageIntervalMs + 150);
+                if ((nowNanos - lastFrameNanos) / 1e6 > thresholdMs) {
+                    freeze(lastFrameNanos, nowNanos);
+                }
+            }
+            if (!frozen || recovery == null || nextAction == Action.values().length) {
+                return;
+            }
+            frozenNanos = nowNanos - frozenSinceNanos;
+            Action next = Action.values()[nextAction];
+            if (frozenNanos / 1e6 >= next.afterMs) {
+                nextAction++;
+                // A keyframe cannot help while nothing arrives.
+                if (next != Action.REQUEST_KEYFRAME
+                        || cause != Cause.NO_MEDIA && cause != Cause.NO_FRAMES) {
+                    action = next;
+                }
+            }
+        }
+        if (action != null) {
+            Log.d(TAG, id + ": video frozen for " + frozenNanos / 1000000 + " ms, " + action);
+            recovery.recover(id, action);
+        }
+    }
+
+    // Called holding |this|.
+    private void freeze(long sinceNanos, long nowNanos) {
+        frozen = true;
+        frozenSinceNanos = sinceNanos;
+        nextAction = 0;
+        notifyFreeze(cause, nowNanos - sinceNanos);
+    }
+
+    // Called holding |this|.
+    private void thaw(long nowNanos) {
+        frozen = false;
+        final long durationMs = TimeUnit.NANOSECONDS.toMillis(nowNanos - frozenSinceNanos);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, id + ": video was frozen for " + durationMs + " ms");
+                listener.onFreezeEnded(id, durationMs);
+            }
+        });
+    }
+
+    private void notifyFreeze(final Cause cause, long frozenNanos) {
+        final long frozenMs = TimeUnit.NANOSECONDS.toMillis(frozenNanos);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(TAG, id + ": video frozen for " + frozenMs + " ms, " + cause);
+                listener.onFreeze(id, cause, frozenMs);
+            }
+        });
+    }
+
+    private void post(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shut down.
+        }
+    }
+}